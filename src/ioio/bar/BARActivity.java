@@ -24,14 +24,41 @@
 
 package ioio.bar;
 
+import ioio.bar.control.BalanceLoop;
+import ioio.bar.control.BalancePointEstimator;
+import ioio.bar.control.BalanceState;
+import ioio.bar.control.CommandState;
+import ioio.bar.control.CommandTimeout;
+import ioio.bar.control.Controller;
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.FusionMode;
+import ioio.bar.control.GainProfile;
+import ioio.bar.control.GainTweaks;
+import ioio.bar.control.LatencyHistogram;
+import ioio.bar.control.LoopScheduler;
+import ioio.bar.control.Mailbox;
+import ioio.bar.control.MountOrientation;
+import ioio.bar.control.SensorSample;
+import ioio.bar.control.TiltEstimator;
+import ioio.bar.control.TiltFilter;
+import ioio.bar.control.TiltPredictor;
+import ioio.bar.control.Trims;
+import ioio.bar.drivers.AnalogSampler;
 import ioio.bar.drivers.DRV8834;
+import ioio.bar.drivers.DriveTrain;
+import ioio.bar.drivers.FilteredAnalogInput;
+import ioio.bar.drivers.MotionPipeline;
 import ioio.bar.internal.Arduino;
+import ioio.bar.protocols.ControlFrame;
+import ioio.bar.protocols.ControlFrameDecoder.ControlFrameListener;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+import ioio.bar.protocols.OSCMessage;
+import ioio.bar.protocols.TelemetryPublisher;
 import ioio.bar.protocols.UARTServer;
-import ioio.bar.protocols.UARTServer.UARTListener;
 import ioio.bar.protocols.UDPServer;
-import ioio.bar.protocols.UDPServer.UDPListener;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.recorder.FlightRecorder;
 import ioio.bar.settings.SettingsActivity;
-import ioio.lib.api.AnalogInput;
 import ioio.lib.api.DigitalOutput;
 import ioio.lib.api.Sequencer;
 import ioio.lib.api.Uart;
@@ -40,48 +67,92 @@ import ioio.lib.util.BaseIOIOLooper;
 import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOActivity;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.DatagramPacket;
-import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.BatteryManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 
-public class BARActivity extends IOIOActivity implements SensorEventListener, UDPListener {
+public class BARActivity extends IOIOActivity implements SensorEventListener, OSCListener, ControlFrameListener {
 
 	private static final String _TAG = BARActivity.class.getSimpleName();
 	private static final float DEGREES_RADIANS = 0.0174532925f; // Degrees to Radians
-	private static final float BALANCE_LIMIT = 0.610865238f; // Shutdown motors @ 35º
+	private static final String FLIGHT_LOG = "flight.log";
+	private static final int FLIGHT_RECORDS = 30000; // one minute at 500 Hz
+	private static final long PERSIST_DELAY_MS = 1000;
+	private static final String[][] GAIN_ADDRESSES = gainAddresses(); // "/gain/<name>" by ControllerMode ordinal
+	private static final long USB_LATENCY_NANOS = 2000000L; // from handing a cue to the IOIO library to the IOIO playing it
+
+	// IR proximity: an obstacle is seen above the threshold and gone again below the release level
+	private static final float IR_THRESHOLD = 1.1f; // volts
+	private static final float IR_RELEASE = 1.05f;
+	private static final int IR_MEDIAN = 5; // samples, at 1 kHz
+	private static final float IR_TIME_CONSTANT = 0.01f; // seconds
 
 	private PowerManager.WakeLock _wakeLock;
 	private SensorManager _sensorManager;
 	private Sensor _rotationVectorSensor;
+	private Sensor _gyroscope;
+	private Sensor _accelerometer;
+	private FusionMode _fusionMode;
+	private volatile MountOrientation _orientation = MountOrientation.LANDSCAPE_RAISED;
+	private volatile long _fusionLagNanos = 0;
+	private volatile boolean _predict = false;
+	private volatile boolean _learnOffset = false;
+	private volatile boolean _saveOffset = false; // fold the learned balance point into the offset and persist it
 	private GestureDetector _gestureDetector;
 	private SharedPreferences _sharedPreferences;
 
-	private float _offset = 0.0f;
-	private float _throttle = 0.0f;
-	private float _steering = 0.0f;
+	// Offset, balance limit and IR gains, replaced as a whole by the settings. OSC tuning (network threads) and the
+	// learned balance point (looper) change one field each, by compareAndSet so neither loses the other's change.
+	private final AtomicReference<Trims> _trims = new AtomicReference<Trims>(Trims.getDefault());
 	private float _proximity = 0.0f;
 
+	// ---
+	// The sensor thread hands samples to the looper through the mailbox and wakes it up; throttle and steering
+	// arrive from the UDP/UART threads as one atomic pair.
+	// ---
+	private final Mailbox<SensorSample> _sensorMailbox = new Mailbox<SensorSample>(new SensorSample(), new SensorSample(), new SensorSample());
+	private final CommandState _commands = new CommandState();
+	private final GainTweaks _gainTweaks = new GainTweaks();
+	private final CommandTimeout _commandTimeout = new CommandTimeout(0);
+	private volatile boolean _resetController = true;
+	private volatile boolean _dumpLatency = false;
+
 	private boolean _irEnable = false;
 	private boolean _uartEnable = false;
+	private UARTServer.Framing _uartFraming = UARTServer.Framing.RAW;
+	private boolean _binaryFrames = false;
 	private UDPServer _udpServer = null;
+	private volatile TelemetryPublisher _telemetry = null;
+	private volatile float _batteryVolts = 0.0f;
 	private int _udpPort;
+	private LoopScheduler _scheduler;
+	private ControllerMode _controllerMode;
+	private GainProfile _gainProfile;
+	private volatile GainProfile _controllerGains; // what _controller was built with, written before it
+	private volatile Controller _controller;
+	private final Handler _handler = new Handler();
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -90,16 +161,29 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 
 		PreferenceManager.setDefaultValues(this, R.xml.settings, false);
 		_sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-		_offset = _sharedPreferences.getFloat("degrees_key", 0.0f) * DEGREES_RADIANS;
+		_gainProfile = loadGainProfile();
+		_trims.set(readTrims());
 		_irEnable = _sharedPreferences.getBoolean("ir_key", false);
 		_uartEnable = _sharedPreferences.getBoolean("toggle_uart", false);
+		_uartFraming = UARTServer.Framing.fromName(_sharedPreferences.getString("uart_framing", "RAW"));
+		_binaryFrames = _sharedPreferences.getBoolean("binary_frames", false);
 		_udpPort = Integer.valueOf(_sharedPreferences.getString("port_number", "2000"));
+		_scheduler = new LoopScheduler(LoopScheduler.periodFromRate(Integer.valueOf(_sharedPreferences.getString("loop_rate_key", "500"))));
+		_commandTimeout.setTimeoutNanos(readCommandTimeout());
+		_predict = _sharedPreferences.getBoolean("predictor_key", false);
+		_learnOffset = _sharedPreferences.getBoolean("learn_offset_key", false);
+
+		_controllerMode = ControllerMode.fromName(_sharedPreferences.getString("controller_key", "PI"));
+		_controller = createController(_controllerMode);
 
 		PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
 		_wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "BAR"); // it was using PowerManager.SCREEN_DIM_WAKE_LOCK before
 		_sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 		_rotationVectorSensor = _sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
-		_lastTimestamp = 0;
+		_gyroscope = _sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+		_accelerometer = _sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		setOrientation(MountOrientation.fromName(_sharedPreferences.getString("orientation_key", "LANDSCAPE_RAISED")));
+		setFusionMode(FusionMode.fromName(_sharedPreferences.getString("fusion_key", "ROTATION_VECTOR")));
 
 		_gestureDetector = new GestureDetector(this, new GestureDetector.SimpleOnGestureListener() {
 			@Override
@@ -108,7 +192,9 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 			}
 		});
 		if (!_uartEnable)
-			_udpServer = new UDPServer(_udpPort, this);
+			_udpServer = createUDPServer();
+		registerReceiver(_batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		restartTelemetry();
 	}
 
 	@Override
@@ -130,12 +216,17 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 	@Override
 	protected void onResume() {
 		super.onResume();
-		_sensorManager.registerListener(this, _rotationVectorSensor, SensorManager.SENSOR_DELAY_GAME);
-		_lastTimestamp = 0L;
-		_errorSum = 0.0f;
-		_throttle = 0.0f;
-		_steering = 0.0f;
-		_proximity = 0.0f;
+		if (_tiltFilter != null) {
+			// As fast as the hardware goes: each gyroscope sample is a new tilt
+			_tiltFilter.reset();
+			_lastGyroTimestamp = 0;
+			_sensorManager.registerListener(this, _accelerometer, SensorManager.SENSOR_DELAY_FASTEST);
+			_sensorManager.registerListener(this, _gyroscope, SensorManager.SENSOR_DELAY_FASTEST);
+		} else {
+			_sensorManager.registerListener(this, _rotationVectorSensor, SensorManager.SENSOR_DELAY_GAME);
+		}
+		_commands.clear();
+		_resetController = true;
 		hideNavigationBar();
 	}
 	
@@ -153,30 +244,242 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 	
 	@Override
 	protected void onDestroy() {
-		_udpServer.abort();
+		if (_udpServer != null) {
+			_udpServer.abort();
+		}
+		unregisterReceiver(_batteryReceiver);
+		if (_telemetry != null) {
+			_telemetry.abort();
+		}
 		super.onDestroy();
 	}
 	
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		super.onActivityResult(requestCode, resultCode, data);
-		_offset = _sharedPreferences.getFloat("degrees_key", 0.0f) * DEGREES_RADIANS;
+		GainProfile profile = _gainProfile;
+		_gainProfile = loadGainProfile();
+		_trims.set(readTrims());
 		_irEnable = _sharedPreferences.getBoolean("ir_key", false);
 		_uartEnable = _sharedPreferences.getBoolean("toggle_uart", false);
+		_uartFraming = UARTServer.Framing.fromName(_sharedPreferences.getString("uart_framing", "RAW")); // from the next connection
+		boolean binaryFrames = _sharedPreferences.getBoolean("binary_frames", false);
+		if (binaryFrames != _binaryFrames) {
+			_binaryFrames = binaryFrames;
+			if (_udpServer != null) {
+				_udpServer.abort();
+				_udpServer = null;
+			}
+		}
+		_scheduler.setPeriodNanos(LoopScheduler.periodFromRate(Integer.valueOf(_sharedPreferences.getString("loop_rate_key", "500"))));
+		_commandTimeout.setTimeoutNanos(readCommandTimeout());
+		_predict = _sharedPreferences.getBoolean("predictor_key", false);
+		_learnOffset = _sharedPreferences.getBoolean("learn_offset_key", false);
+		setOrientation(MountOrientation.fromName(_sharedPreferences.getString("orientation_key", "LANDSCAPE_RAISED")));
+		setFusionMode(FusionMode.fromName(_sharedPreferences.getString("fusion_key", "ROTATION_VECTOR"))); // registered in onResume()
+		ControllerMode mode = ControllerMode.fromName(_sharedPreferences.getString("controller_key", "PI"));
+		boolean profileChanged = (profile == null) ? (_gainProfile != null) : !profile.equals(_gainProfile);
+		if (mode != _controllerMode || profileChanged) {
+			_controllerMode = mode;
+			_controller = createController(mode); // picked up by the looper between two cycles
+		}
 		if (_uartEnable) {
 			if (_udpServer != null) {
-				_udpServer.terminate();
 				_udpServer.abort();
 				_udpServer = null;
 			}
 		} else {
 			if (_udpServer == null) {
-				_udpServer = new UDPServer(_udpPort, this);
+				_udpServer = createUDPServer();
 			}
 		}
+		restartTelemetry();
 	}
 
-	class BalancerLooper extends BaseIOIOLooper implements UARTListener {
+	/**
+	 * Where the flight log and the gain profile live: the external files directory, which adb can reach, or the
+	 * internal one when there is no external storage.
+	 */
+	private File getDataDirectory() {
+		File directory = getExternalFilesDir(null);
+		return (directory != null) ? directory : getFilesDir();
+	}
+
+	/**
+	 * The gain profile written by the auto-tuner in tools, if one was pushed to the data directory.
+	 */
+	private GainProfile loadGainProfile() {
+		File file = new File(getDataDirectory(), GainProfile.FILE_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			GainProfile profile = GainProfile.load(in);
+			Log.i(_TAG, "Gain profile " + profile);
+			return profile;
+		} catch (IOException e) {
+			Log.e(_TAG, "Gain profile ignored: " + e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	private UDPServer createUDPServer() {
+		return new UDPServer(_udpPort, this, _binaryFrames ? this : null);
+	}
+
+	private void setOrientation(MountOrientation orientation) {
+		_orientation = orientation;
+		_tiltEstimator.setOrientation(orientation);
+	}
+
+	/**
+	 * Falls back to the rotation vector on phones without a gyroscope, and from the complementary filter, which only
+	 * knows the landscape raised mount, to the Mahony one for the others.
+	 */
+	private void setFusionMode(FusionMode mode) {
+		if (mode != FusionMode.ROTATION_VECTOR && (_gyroscope == null || _accelerometer == null)) {
+			Log.e(_TAG, "No gyroscope, " + mode + " fusion unavailable");
+			mode = FusionMode.ROTATION_VECTOR;
+		}
+		if (mode == FusionMode.COMPLEMENTARY && _orientation != MountOrientation.LANDSCAPE_RAISED) {
+			Log.e(_TAG, "Complementary filter needs the landscape raised mount, using Mahony");
+			mode = FusionMode.MAHONY;
+		}
+		_fusionLagNanos = mode.getLagNanos();
+		if (mode != _fusionMode) {
+			_fusionMode = mode;
+			_tiltFilter = mode.create();
+		}
+	}
+
+	/**
+	 * Telemetry goes back to the controller at "ip_address" over UDP, so it is off while the UART is in use.
+	 */
+	private void restartTelemetry() {
+		TelemetryPublisher previous = _telemetry;
+		_telemetry = null;
+		if (previous != null) {
+			previous.abort();
+		}
+		int rate = Integer.valueOf(_sharedPreferences.getString("telemetry_rate", "0"));
+		if (rate > 0 && !_uartEnable) {
+			TelemetryPublisher telemetry = new TelemetryPublisher(_sharedPreferences.getString("ip_address", "192.168.1.84"),
+					Integer.valueOf(_sharedPreferences.getString("telemetry_port", "9000")), rate);
+			telemetry.setBatteryVoltage(_batteryVolts);
+			_telemetry = telemetry;
+		}
+	}
+
+	private final BroadcastReceiver _batteryReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			_batteryVolts = intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0) * 0.001f;
+			TelemetryPublisher telemetry = _telemetry;
+			if (telemetry != null) {
+				telemetry.setBatteryVoltage(_batteryVolts);
+			}
+		}
+	};
+
+	/**
+	 * The tuned gains when the profile is for this mode, the built-in ones otherwise, with the gains tuned over OSC
+	 * on top.
+	 */
+	private Controller createController(ControllerMode mode) {
+		GainProfile gains = (_gainProfile != null && _gainProfile.getMode() == mode) ? _gainProfile : GainProfile.getDefault(mode);
+		String[] names = GainProfile.getGainNames(mode);
+		for (int i = 0; i < names.length; i++) {
+			String key = gainKey(mode, names[i]);
+			if (_sharedPreferences.contains(key)) {
+				gains = gains.withGain(i, _sharedPreferences.getFloat(key, 0.0f));
+			}
+		}
+		_controllerGains = gains;
+		return gains.create();
+	}
+
+	private static String[][] gainAddresses() {
+		ControllerMode[] modes = ControllerMode.values();
+		String[][] addresses = new String[modes.length][];
+		for (ControllerMode mode : modes) {
+			String[] names = GainProfile.getGainNames(mode);
+			addresses[mode.ordinal()] = new String[names.length];
+			for (int i = 0; i < names.length; i++) {
+				addresses[mode.ordinal()][i] = "/gain/" + names[i];
+			}
+		}
+		return addresses;
+	}
+
+	private static String gainKey(ControllerMode mode, String name) {
+		return "gain_" + mode.name() + "_" + name;
+	}
+
+	/**
+	 * Writes what was tuned over OSC back to the settings, on the UI thread and at most once per
+	 * {@link #PERSIST_DELAY_MS} of tuning.
+	 */
+	private void schedulePersist() {
+		_handler.removeCallbacks(_persistTuning);
+		_handler.postDelayed(_persistTuning, PERSIST_DELAY_MS);
+	}
+
+	private final Runnable _persistTuning = new Runnable() {
+		@Override
+		public void run() {
+			Trims trims = _trims.get();
+			GainProfile gains = _gainTweaks.getApplied();
+			SharedPreferences.Editor editor = _sharedPreferences.edit();
+			editor.putFloat("degrees_key", trims.offset / DEGREES_RADIANS);
+			editor.putFloat("balance_limit", trims.balanceLimit / DEGREES_RADIANS);
+			editor.putFloat("ir_kp", trims.irKP);
+			editor.putFloat("ir_ki", trims.irKI);
+			editor.putString("loop_rate_key", Integer.toString(LoopScheduler.rateFromPeriod(_scheduler.getPeriodNanos())));
+			if (gains != null) {
+				String[] names = GainProfile.getGainNames(gains.getMode());
+				float[] values = gains.getGains();
+				for (int i = 0; i < names.length; i++) {
+					editor.putFloat(gainKey(gains.getMode(), names[i]), values[i]);
+				}
+			}
+			editor.apply();
+			Log.i(_TAG, "Tuning saved: " + trims + " " + gains);
+		}
+	};
+
+	/**
+	 * The offset comes from the gain profile when it has one; the rest from the settings, where OSC tuning
+	 * persists them.
+	 */
+	private Trims readTrims() {
+		return new Trims(readOffset(), _sharedPreferences.getFloat("balance_limit", 35.0f) * DEGREES_RADIANS,
+				_sharedPreferences.getFloat("ir_kp", Trims.IR_KP), _sharedPreferences.getFloat("ir_ki", Trims.IR_KI));
+	}
+
+	private float readOffset() {
+		if (_gainProfile != null && _gainProfile.hasOffset()) {
+			return _gainProfile.getOffset();
+		}
+		return _sharedPreferences.getFloat("degrees_key", 0.0f) * DEGREES_RADIANS;
+	}
+
+	/**
+	 * Off by default: TouchOSC only sends when a control moves, so a throttle held still would time out.
+	 */
+	private long readCommandTimeout() {
+		return Integer.valueOf(_sharedPreferences.getString("command_timeout", "0")) * 1000000L;
+	}
+
+	class BalancerLooper extends BaseIOIOLooper {
 
 		// ---
 		// Declares which types of channels we are going to use and which pins they should be mapped to. The order of the channels
@@ -184,8 +487,12 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 		// ---
 		private Sequencer.ChannelConfig[] _channelConfig = { new Sequencer.ChannelConfigFmSpeed(Sequencer.Clock.CLK_62K5, 2, new DigitalOutput.Spec(Arduino.PIN_5)), // LEFT STEP
 				new Sequencer.ChannelConfigBinary(false, false, new DigitalOutput.Spec(Arduino.PIN_6)), // LEFT DIR
+				new Sequencer.ChannelConfigBinary(true, true, new DigitalOutput.Spec(Arduino.PIN_2)), // LEFT M0
+				new Sequencer.ChannelConfigBinary(true, true, new DigitalOutput.Spec(Arduino.PIN_3)), // LEFT M1
 				new Sequencer.ChannelConfigFmSpeed(Sequencer.Clock.CLK_62K5, 2, new DigitalOutput.Spec(Arduino.PIN_12)), // RIGHT STEP
-				new Sequencer.ChannelConfigBinary(false, false, new DigitalOutput.Spec(Arduino.PIN_13)) // RIGHT DIR
+				new Sequencer.ChannelConfigBinary(false, false, new DigitalOutput.Spec(Arduino.PIN_13)), // RIGHT DIR
+				new Sequencer.ChannelConfigBinary(true, true, new DigitalOutput.Spec(Arduino.PIN_9)), // RIGHT M0
+				new Sequencer.ChannelConfigBinary(true, true, new DigitalOutput.Spec(Arduino.PIN_10)) // RIGHT M1
 		};
 
 		// ---
@@ -200,143 +507,316 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 		private Sequencer.ChannelCueBinary _leftDir = new Sequencer.ChannelCueBinary();
 		private Sequencer.ChannelCueBinary _rightDir = new Sequencer.ChannelCueBinary();
 
+		// ---
+		// The microstep mode pins change together with the step period, so they are cued as well.
+		// ---
+		private Sequencer.ChannelCueBinary _leftM0 = new Sequencer.ChannelCueBinary();
+		private Sequencer.ChannelCueBinary _leftM1 = new Sequencer.ChannelCueBinary();
+		private Sequencer.ChannelCueBinary _rightM0 = new Sequencer.ChannelCueBinary();
+		private Sequencer.ChannelCueBinary _rightM1 = new Sequencer.ChannelCueBinary();
+
 		// ---
 		// The order and type of elements in this array must match the Sequencer.ChannelConfig[] array.
 		// ---
-		private Sequencer.ChannelCue[] _channelCue = { _leftSteps, _leftDir, _rightSteps, _rightDir };
+		private Sequencer.ChannelCue[] _channelCue = { _leftSteps, _leftDir, _leftM0, _leftM1, _rightSteps, _rightDir, _rightM0, _rightM1 };
 
-		private int[] _leftPins = { Arduino.PIN_2, Arduino.PIN_3, Arduino.PIN_4 };
-		private int[] _rightPins = { Arduino.PIN_9, Arduino.PIN_10, Arduino.PIN_11 };
+		private int _leftSleepPin = Arduino.PIN_4;
+		private int _rightSleepPin = Arduino.PIN_11;
 
 		private final DRV8834[] _motors = new DRV8834[2];
-		private static final int SLEEP_MS = 2;
+		private DriveTrain _driveTrain;
 		private Sequencer _sequencer;
+		private MotionPipeline _pipeline;
 		private Uart _uart;
 
 		private UARTServer _uartServer = null;
 
-		private AnalogInput _IRSensor;
-		private int truePulseCounter = 0;
+		private final AnalogSampler _analogSampler = new AnalogSampler();
+		private FilteredAnalogInput _IRSensor;
+		private boolean _obstacle = false;
+
+		private final BalanceLoop _balanceLoop = new BalanceLoop(_controller);
+		private SensorSample _lastSample = null;
+
+		private FlightRecorder _recorder = null;
+		private final FlightRecord _record = new FlightRecord();
+		private byte _controllerOrdinal = (byte) ControllerMode.of(_controller).ordinal();
+		// Gains of the controller in _balanceLoop, with the tweaks applied in place
+		private final float[] _liveGains = new float[GainTweaks.MAX_GAINS];
+		private ControllerMode _liveMode = null;
+
+		// ---
+		// Always-on latency instrumentation: sensor event to control step, control step to the cue being handed to the
+		// Sequencer, and OSC packet arrival to the first cue carrying its command. Dumped on "/L" and on disconnect.
+		// ---
+		private final LatencyHistogram _sensorLatency = new LatencyHistogram("sensor->control");
+		private final LatencyHistogram _actuateLatency = new LatencyHistogram("control->actuate");
+		private final LatencyHistogram _commandLatency = new LatencyHistogram("packet->apply");
+		private final LatencyHistogram _pipelineDelay = new LatencyHistogram("motion->step"); // what TiltPredictor compensates
+		private long _actuationNanos = 0; // moving average of control->actuate
+		private long _lastSampleTimestamp = 0;
+		private long _appliedCommandNanos = 0;
+		private final BalancePointEstimator _balancePoint = new BalancePointEstimator();
+		private float _cycleOffset = 0.0f; // trims plus the learned balance point, for record()
 
 		@Override
 		public void setup() throws ConnectionLostException {
-			_lastTimestamp = 0;
-			_errorSum = 0;
-			_motors[0] = new DRV8834(ioio_, _leftPins, _leftSteps, _leftDir);
-			_motors[1] = new DRV8834(ioio_, _rightPins, _rightSteps, _rightDir);
+			_resetController = true;
+			_motors[0] = new DRV8834(ioio_, _leftSleepPin, _leftSteps, _leftDir, _leftM0, _leftM1);
+			_motors[1] = new DRV8834(ioio_, _rightSleepPin, _rightSteps, _rightDir, _rightM0, _rightM1);
+			_driveTrain = new DriveTrain(_motors[0], _motors[1]);
 			_sequencer = ioio_.openSequencer(_channelConfig);
+			_pipeline = new MotionPipeline(_sequencer, _scheduler.getPeriodNanos());
 
 			if (_uartEnable) {
 				_uart = ioio_.openUart(Arduino.PIN_0, Arduino.PIN_1, 115200, Uart.Parity.NONE, Uart.StopBits.ONE);
-				_uartServer = new UARTServer(_uart, this);
+				_uartServer = new UARTServer(_uart, BARActivity.this, _binaryFrames ? BARActivity.this : null, _uartFraming);
 				new Thread(_uartServer).start();
 			}
-			_IRSensor = ioio_.openAnalogInput(Arduino.PIN_AD4);
+			_IRSensor = null;
+			if (_irEnable) {
+				_IRSensor = _analogSampler.open(ioio_, Arduino.PIN_AD4, IR_MEDIAN, IR_TIME_CONSTANT);
+				_analogSampler.start();
+			}
+			openRecorder();
+			_scheduler.reset();
+			_scheduler.resetStatistics();
 		}
 
 		@Override
 		public void loop() throws ConnectionLostException, InterruptedException {
+			long jitter = _scheduler.awaitNextCycle();
+			long loopTime = System.nanoTime();
+			long period = _scheduler.getPeriodNanos();
+			int flags = 0;
+			int cues = 0;
+			Controller controller = _controller;
+			if (controller != _balanceLoop.getController() || _liveMode == null) {
+				_balanceLoop.setController(controller);
+				_liveMode = ControllerMode.of(controller);
+				_controllerOrdinal = (byte) _liveMode.ordinal();
+				GainProfile gains = _controllerGains; // written before _controller
+				(gains.getMode() == _liveMode ? gains : GainProfile.getDefault(_liveMode)).copyGains(_liveGains);
+				_gainTweaks.publish(_liveMode, _liveGains);
+			}
+			if (_gainTweaks.hasPending() && _gainTweaks.apply(_liveMode, _liveGains)) {
+				GainProfile.applyTo(_liveMode, _liveGains, controller);
+			}
+			if (_saveOffset || (_balancePoint.isEnabled() && !_learnOffset)) {
+				_saveOffset = false;
+				saveBalancePoint(); // switching the learning off keeps what it learned
+			}
+			_balancePoint.setEnabled(_learnOffset);
+			Trims trims = _trims.get(); // one snapshot for the whole cycle
+			float offset = trims.offset + _balancePoint.getCorrection();
+			_cycleOffset = offset;
+			_balanceLoop.setBalanceLimit(trims.balanceLimit);
+			if (_resetController) {
+				_resetController = false;
+				_balanceLoop.reset();
+				_proximity = 0.0f;
+				flags |= FlightRecord.FLAG_RESET;
+			}
 
-			if (_irEnable) {
-				float sensorValue = (_IRSensor.getVoltage() > 1.1) ? _IRSensor.getVoltage() : 0.0f;
-				if (sensorValue > 0.0f && truePulseCounter < 7) {
-					truePulseCounter++;
-				} else if (sensorValue == 0.0f && truePulseCounter > 0) {
-					truePulseCounter--;
+			if (_irEnable && _IRSensor != null) { // turning the IR on takes effect at the next connection
+				// Already median and EMA filtered on the sampler thread; no IOIO access here
+				float sensorValue = _IRSensor.getVoltage();
+				if (sensorValue > IR_THRESHOLD) {
+					_obstacle = true;
+				} else if (sensorValue < IR_RELEASE) {
+					_obstacle = false;
+				}
+				_proximity = _obstacle ? proximityDisplacement(sensorValue, IR_THRESHOLD, trims.irKP, trims.irKI) : 0.0f;
+			}
+
+			long commandNanos = _commands.getReceivedNanos(); // before the snapshot, see CommandState.setReceivedNanos()
+			long commands = _commandTimeout.apply(_commands, loopTime, commandNanos);
+			float throttle = CommandState.throttleOf(commands);
+			float steering = CommandState.steeringOf(commands);
+
+			float proximity = _proximity;
+			SensorSample sample = _sensorMailbox.poll();
+			long controlNanos = 0;
+			if (sample != null) {
+				controlNanos = System.nanoTime();
+				long age = sample.deliveryNanos + (controlNanos - sample.receivedNanos);
+				long interval = (_lastSampleTimestamp != 0) ? sample.timestamp - _lastSampleTimestamp : 0;
+				_lastSampleTimestamp = sample.timestamp;
+				_sensorLatency.record(age);
+				observeDelay(age, interval, period);
+				_balanceLoop.onSample(sample.timestamp, sample.tilt, sample.tiltRate, offset + proximity, throttle);
+				boolean idle = _balanceLoop.isUpright() && throttle == 0.0f && steering == 0.0f && proximity == 0.0f;
+				_balancePoint.update(_balanceLoop.getOutput(), idle, interval * 1e-9f);
+				_lastSample = sample; // ours until the next poll()
+				flags |= FlightRecord.FLAG_FRESH_SAMPLE;
+				if (!Float.isNaN(sample.tiltRate)) {
+					flags |= FlightRecord.FLAG_MEASURED_RATE;
 				}
-				_proximity = (truePulseCounter > 6) ? proximityDisplacement(sensorValue, 1.1f, 0.0065f, 0.03f) : 0.0f;
 			}
 
-			float speed = 0;
-			if (_tiltAngle < BALANCE_LIMIT && _tiltAngle > -BALANCE_LIMIT) {
-				speed = _controlOutput;
-				_motors[0].setEnable(true);
-				_motors[1].setEnable(true);
+			if (_balanceLoop.isUpright()) {
+				flags |= FlightRecord.FLAG_UPRIGHT;
+				// Only queued cues ever play, so the profile takes one step per cue pushed, of that cue's length
+				_pipeline.setPeriodNanos(period);
+				cues = _pipeline.prepare();
+				for (int i = 0; i < cues; i++) {
+					_driveTrain.drive(_balanceLoop.getOutput(), steering, _pipeline.getCueSeconds());
+					_pipeline.push(_channelCue);
+				}
+				_pipeline.start();
+				long actuated = System.nanoTime();
+				if (sample != null) {
+					_actuateLatency.record(actuated - controlNanos);
+					_actuationNanos += (actuated - controlNanos - _actuationNanos) >> 3;
+				}
+				if (commandNanos != _appliedCommandNanos && commandNanos != 0) {
+					_commandLatency.record(actuated - commandNanos);
+				}
 			} else {
-				_motors[0].setEnable(false);
-				_motors[1].setEnable(false);
-				_throttle = 0.0f;
-				_steering = 0.0f;
+				_commands.clear();
 				_proximity = 0.0f;
-				_sequencer.manualStop();
+				_driveTrain.stop();
+				_pipeline.emergencyStop(_channelCue);
 			}
-			_motors[0].setSpeed(-speed - _steering);
-			_motors[1].setSpeed(speed - _steering);
-			_sequencer.manualStart(_channelCue);
 
-			Thread.sleep(SLEEP_MS);
+			TelemetryPublisher telemetry = _telemetry;
+			if (telemetry != null) {
+				BalanceState state = _balanceLoop.getState();
+				telemetry.sample(loopTime, state.tilt, state.wheelSpeed, _balanceLoop.getOutput(), jitter);
+			}
+
+			_appliedCommandNanos = commandNanos; // a command that arrived while down is not counted when the robot gets up
+
+			if (_recorder != null) {
+				record(loopTime, jitter, period, proximity, throttle, steering, flags, cues);
+			}
+			if (_dumpLatency) {
+				_dumpLatency = false;
+				logLatency();
+				resetLatency();
+			}
+		}
+
+		/**
+		 * Everything between the motion and the steps that react to it, as far as it can be measured: the fusion lag,
+		 * the sample's age, half the time its output is held until the next sample, control to actuation, the cues
+		 * already queued in the Sequencer and the USB trip.
+		 */
+		private void observeDelay(long age, long interval, long period) {
+			long delay = _fusionLagNanos + age + interval / 2 + _actuationNanos + _pipeline.getQueued() * period + USB_LATENCY_NANOS;
+			_pipelineDelay.record(delay);
+			TiltPredictor predictor = _balanceLoop.getPredictor();
+			predictor.setEnabled(_predict);
+			predictor.observeDelay(delay);
+		}
+
+		/**
+		 * Moves the learned balance point into the offset, which is persisted like an OSC "/offset", and starts
+		 * learning from there.
+		 */
+		private void saveBalancePoint() {
+			float learned = _balancePoint.getCorrection();
+			_balancePoint.clear();
+			if (learned != 0.0f) {
+				Trims current;
+				Trims updated;
+				do {
+					current = _trims.get();
+					updated = current.withOffset(current.offset + learned);
+				} while (!_trims.compareAndSet(current, updated));
+				schedulePersist();
+				Log.i(_TAG, String.format("Balance point learned: %+.2fº, offset now %.2fº", Math.toDegrees(learned),
+						Math.toDegrees(updated.offset)));
+			}
+		}
+
+		private void logLatency() {
+			Log.i(_TAG, _sensorLatency.toString());
+			Log.i(_TAG, _actuateLatency.toString());
+			Log.i(_TAG, _commandLatency.toString());
+			Log.i(_TAG, _pipelineDelay.toString());
+			TiltPredictor predictor = _balanceLoop.getPredictor();
+			Log.i(_TAG, "Tilt prediction " + (predictor.isEnabled() ? "on" : "off") + ", estimated delay " + predictor.getDelayNanos() / 1000 + "us");
+		}
+
+		private void resetLatency() {
+			_sensorLatency.reset();
+			_actuateLatency.reset();
+			_commandLatency.reset();
+			_pipelineDelay.reset();
+		}
+
+		private void openRecorder() {
+			try {
+				_recorder = new FlightRecorder(new File(getDataDirectory(), FLIGHT_LOG), FLIGHT_RECORDS);
+			} catch (IOException e) {
+				Log.e(_TAG, "Flight recorder disabled: " + e.getMessage());
+			}
+		}
+
+		private void record(long loopTime, long jitter, long period, float proximity, float throttle, float steering, int flags,
+				int cues) {
+			FlightRecord record = _record;
+			record.loopTime = loopTime;
+			record.jitterNanos = (int) Math.min(jitter, Integer.MAX_VALUE);
+			if (_lastSample != null) {
+				record.sensorTimestamp = _lastSample.timestamp;
+				record.rawTilt = _lastSample.tilt;
+				System.arraycopy(_lastSample.quaternion, 0, record.quaternion, 0, 4);
+			}
+			record.offset = _cycleOffset;
+			record.proximity = proximity;
+			record.throttle = throttle;
+			record.steering = steering;
+			BalanceState state = _balanceLoop.getState();
+			record.tiltRate = _balanceLoop.getTiltRate();
+			record.wheelSpeed = state.wheelSpeed;
+			record.output = _balanceLoop.getOutput();
+			record.leftPeriod = _leftSteps.period;
+			record.rightPeriod = _rightSteps.period;
+			record.leftMicrosteps = (byte) _motors[0].getMicrosteps();
+			record.rightMicrosteps = (byte) _motors[1].getMicrosteps();
+			record.queued = (byte) _pipeline.getQueued();
+			record.cues = (byte) cues;
+			record.flags = (byte) flags;
+			record.periodNanos = (int) period;
+			record.controllerMode = _controllerOrdinal;
+			record.orientation = (byte) _orientation.ordinal();
+			record.predictionMicros = _balanceLoop.getPredictor().getHorizonMicros();
+			_recorder.write(record);
 		}
 
 		@Override
 		public void disconnected() {
 			_sequencer.close();
+			if (_IRSensor != null) {
+				Log.i(_TAG, "IR sensor: " + _IRSensor.getSampleCount() + " samples");
+			}
+			_analogSampler.stop();
 			if (_uartServer != null) {
 				_uartServer.abort();
 			}
 			Log.e(_TAG, "IOIO disconnected");
-		}
-
-		@Override
-		public void onInputStreamReceived(InputStream inputStream) {
-			int _inByteIndex = -1; 		// in-coming bytes counter
-			char oscControl; 			// control in TouchOSC sending the message
-			int[] oscMsg = new int[11]; // buffer for incoming OSC packet
-			
-			try {
-				int inByte = inputStream.read();
-				
-				// An OSC address pattern is a string beginning with the character forward slash '/'
-				if (inByte == 47) {
-					_inByteIndex = 0; // a new message received so set array index to 0
-					inByte = inputStream.read();
-				}
-				// Decimal ASCII values for T = 84 | S = 83 | B = 66
-				if (_inByteIndex == 0 && (inByte == 84 || inByte == 83 || inByte == 66)) {
-					switch (inByte) {
-					case (84): // Throttle
-						oscControl = 'T';
-						break;
-					case (83): // Steering
-						oscControl = 'S';
-						break;
-					case (66): // Button
-						oscControl = 'B';
-						break;
-					default:
-						oscControl = ' ';
-					}
-					
-					for(; _inByteIndex < 10; _inByteIndex++) {
-						inByte = inputStream.read();
-						oscMsg[_inByteIndex] = inByte; // add the byte to the array
-					}
-					
-					if (_inByteIndex == 10) { // end of the OSC message
-						byte[] byte_array = new byte[4];
-						byte_array[0] = (byte) oscMsg[9]; // reverse bytes order to decode message
-						byte_array[1] = (byte) oscMsg[8];
-						byte_array[2] = (byte) oscMsg[7];
-						byte_array[3] = (byte) oscMsg[6];
-						ByteBuffer byteBuffer = ByteBuffer.allocate(byte_array.length);
-						byteBuffer.put(byte_array);
-						
-						float value = getOSCValue(byteBuffer.array());
-						
-						switch (oscControl) {
-						case ('T'): // Throttle
-							_throttle = value;
-							break;
-						case ('S'): // Steering
-							_steering = value;
-							break;
-						case ('B'): // Button ON/OFF
-							break;
-						}
-					}
+			Log.i(_TAG, "Control loop " + _scheduler);
+			if (_pipeline != null) {
+				Log.i(_TAG, "Motion pipeline " + _pipeline + " microstep switches=" + _motors[0].getMicrostepSwitchCount() + "/"
+						+ _motors[1].getMicrostepSwitchCount());
+				Log.i(_TAG, "Left profile " + _motors[0].getProfiler());
+				Log.i(_TAG, "Right profile " + _motors[1].getProfiler());
+			}
+			Log.i(_TAG, _balanceLoop.getController().getClass().getSimpleName() + " update ~" + _balanceLoop.getUpdateNanos() + "ns");
+			logLatency();
+			Log.i(_TAG, String.format("Balance point: %+.2fº learned, idle wheel speed %.3f", Math.toDegrees(_balancePoint.getCorrection()),
+					_balancePoint.getEffort()));
+			Log.i(_TAG, "Commands: " + _commands.getDroppedCount() + " dropped as stale, " + _commandTimeout.getExpiredCount() + " expired");
+			if (_recorder != null) {
+				Log.i(_TAG, "Flight recorder: " + _recorder.getWrittenCount() + " records");
+				try {
+					_recorder.close();
+				} catch (IOException e) {
+					Log.e(_TAG, "Flight recorder close: " + e.getMessage());
 				}
-			} catch (IOException e) {
-				// Safely and politely ask the UART thread to stop what it is doing
-				Thread.currentThread().interrupt();
+				_recorder = null;
 			}
 		}
 	}
@@ -350,80 +830,66 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 	public void onAccuracyChanged(Sensor sensor, int accuracy) {
 	}
 
-	private float _kP = 1.49f;
-	private float _kI = 13.9f;
-//	private float _kD = 0.35f;
-
-	private volatile float _tiltAngle = 0.0f;
-	private long _lastTimestamp = 0L;
-	private float _errorSum = 0.0f;
-//	private float _lastError = 0.0f;
-	private volatile float _controlOutput = 0.0f;
+	// Sensor thread only, which is the UI thread
+	private final TiltEstimator _tiltEstimator = new TiltEstimator();
+	private TiltFilter _tiltFilter = null; // null for the rotation vector
+	private long _lastGyroTimestamp = 0;
+	private final float[] _fusedVector = new float[4];
+	private final float[] _fusedQuaternion = new float[4];
 	
 
 	@Override
 	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-			if (_lastTimestamp != 0) {
-				long dT = event.timestamp - _lastTimestamp;
-				float[] quaternion = new float[4];
-
-				SensorManager.getQuaternionFromVector(quaternion, event.values);
-
-				// Roll-Tilt-Angle (landscape mode - 90º degree raised up)
-				_tiltAngle = (float) ((Math.asin(quaternion[0] * quaternion[0] - quaternion[1] * quaternion[1] - quaternion[2] * quaternion[2] + 
-						quaternion[3] * quaternion[3]) - (_offset + _proximity)));
-
-				/* ----------------------- OTHER MODES ---------------------------------------------
-				// Pitch-Tilt-Angle (portrait mode - device flat on its back)
-				_tiltAngle = (float)(Math.atan2(2*(quaternion[2] * quaternion[3] + quaternion[0] * quaternion[1]), 
-						quaternion[0] * quaternion[0] - quaternion[1] * quaternion[1] - quaternion[2] * quaternion[2] + quaternion[3] * quaternion[3]) - _offset);  
-				
-				// Roll-Tilt-Angle (landscape mode - device flat on its back )
-				_tiltAngle = (float)(Math.asin(-2*(quaternion[1] * quaternion[3] - quaternion[2] * quaternion[0])) - _offset );
-				------------------------------------------------------------------------------------ */ 
-				
-				_controlOutput = PI((-1 * (_tiltAngle + _throttle)), (_tiltAngle + _throttle), _kP, _kI, dT);
-				
-//				_tiltAngle = (float) ((Math.asin(quaternion[0] * quaternion[0] - quaternion[1] * quaternion[1] - quaternion[2] * quaternion[2] + 
-//						quaternion[3] * quaternion[3]) - (_offset + _throttle + _proximity)));
-//
-//				_controlOutput = PID((-1 * (_tiltAngle - (_throttle * 0.2f))), _tiltAngle, _kP, _kI, _kD, dT);
-				
-//				try {
-//					_sender.write(String.valueOf(_tiltAngle) + "\n", getApplicationContext());
-//				} catch (IOException e) {
-//					// TODO Auto-generated catch block
-//					e.printStackTrace();
-//				}
-
-			}
-			_lastTimestamp = event.timestamp;
-		}
-	}
-
-//	private float PID(float setpoint, float input, float kP, float kI, float kD, float dT) {
-//		float error = setpoint - input;
-//		_errorSum += 0.99f * error; // low-pass IIR filter
-//		_errorSum = constrain(_errorSum, -1, 1);
-//		float derivative = error - _lastError;
-//		_lastError = error;
-//		return (kP * error + kI * (_errorSum * dT * 1e-9f) + kD * (derivative / dT * 1e-9f));
-//	}
-	
-	private float PI(float setpoint, float input, float kP, float kI, float dT) {
-		float error = setpoint - input;
-		_errorSum += 0.99f * error; // low-pass IIR filter
-		_errorSum = constrain(_errorSum, -1, 1);
-		return (kP * error + kI * (_errorSum * dT * 1e-9f));
+		int type = event.sensor.getType();
+		TiltFilter filter = _tiltFilter;
+		if (type == Sensor.TYPE_ACCELEROMETER) {
+			if (filter != null) {
+				filter.setAcceleration(event.values[0], event.values[1], event.values[2]);
+			}
+		} else if (type == Sensor.TYPE_GYROSCOPE) {
+			if (filter == null) {
+				return;
+			}
+			long last = _lastGyroTimestamp;
+			_lastGyroTimestamp = event.timestamp;
+			if (last == 0) {
+				return;
+			}
+			filter.update(event.values[0], event.values[1], event.values[2], (event.timestamp - last) * 1e-9f);
+			if (!filter.isReady()) {
+				return;
+			}
+			// Through the rotation vector layout (x, y, z, w), so the tilt is computed, recorded and replayed the same way
+			filter.getQuaternion(_fusedQuaternion);
+			_fusedVector[0] = _fusedQuaternion[1];
+			_fusedVector[1] = _fusedQuaternion[2];
+			_fusedVector[2] = _fusedQuaternion[3];
+			_fusedVector[3] = _fusedQuaternion[0];
+			SensorSample sample = claimSample(event);
+			sample.tilt = _tiltEstimator.estimate(_fusedVector);
+			sample.tiltRate = filter.getTiltRate(_tiltEstimator.getOrientation());
+			_tiltEstimator.getQuaternion(sample.quaternion);
+			_sensorMailbox.publish();
+			_scheduler.wakeUp();
+		} else if (type == Sensor.TYPE_ROTATION_VECTOR) {
+			SensorSample sample = claimSample(event);
+			sample.tilt = _tiltEstimator.estimate(event.values);
+			sample.tiltRate = Float.NaN;
+			_tiltEstimator.getQuaternion(sample.quaternion);
+
+			_sensorMailbox.publish();
+			_scheduler.wakeUp();
+		}
+	}
+
+	private SensorSample claimSample(SensorEvent event) {
+		SensorSample sample = _sensorMailbox.claim();
+		sample.timestamp = event.timestamp;
+		sample.receivedNanos = System.nanoTime();
+		// Sensor timestamps are on the elapsedRealtimeNanos() clock, which System.nanoTime() drifts from after a deep sleep
+		sample.deliveryNanos = SystemClock.elapsedRealtimeNanos() - event.timestamp;
+		return sample;
 	}
-	
-//	private float PD(float setpoint, float input, float kP, float kD, float dT) {
-//		float error = setpoint - input;
-//		float derivative = error - _lastError;
-//		_lastError = error;
-//		return (kP * error + kD * (derivative / dT * 1e-9f));
-//	}
 
 	private float proximityDisplacement(float current, float previous, float kP, float kI) {
 		float displacement = current - previous;
@@ -438,87 +904,109 @@ public class BARActivity extends IOIOActivity implements SensorEventListener, UD
 	            | View.SYSTEM_UI_FLAG_FULLSCREEN);
 	}
 
-	private float constrain(final float value, final float min, final float max) {
-		if (value < min)
-			return min;
-		if (value > max)
-			return max;
-		return value;
+	@Override
+	public void onMessageReceived(OSCMessage message) {
+		if (message.addressEquals("/L")) { // Dump and reset the latency histograms
+			_dumpLatency = true;
+			return;
+		} else if (message.addressEquals("/offset/save")) {
+			_saveOffset = true;
+			return;
+		}
+		// The other addresses carry their value as the first argument
+		if (message.getArgumentCount() < 1 || !message.isNumeric(0)) {
+			return;
+		}
+		if (message.addressEquals("/T")) { // Throttle
+			if (!_commands.acceptTimeTag(CommandState.THROTTLE, message.getTimeTag(), message.getReceivedNanos())) {
+				return;
+			}
+			_commands.setThrottle(message.getFloat(0));
+			_commands.setReceivedNanos(message.getReceivedNanos());
+		} else if (message.addressEquals("/S")) { // Steering
+			if (!_commands.acceptTimeTag(CommandState.STEERING, message.getTimeTag(), message.getReceivedNanos())) {
+				return;
+			}
+			_commands.setSteering(message.getFloat(0));
+			_commands.setReceivedNanos(message.getReceivedNanos());
+		} else if (message.addressStartsWith("/gain/")) {
+			onGainMessage(message);
+		} else if (message.addressEquals("/offset") || message.addressEquals("/limit") || message.addressStartsWith("/ir/")) {
+			onTrimMessage(message);
+		} else if (message.addressEquals("/rate")) { // Hz, one of the rates in the settings
+			int rate = Math.round(message.getFloat(0));
+			if (rate == 250 || rate == 500 || rate == 1000) {
+				_scheduler.setPeriodNanos(LoopScheduler.periodFromRate(rate));
+				schedulePersist();
+			}
+		}
+		// "/B" (Button ON/OFF) is sent by the layout but not mapped to anything yet
 	}
 
-	@Override
-	public void onPacketReceived(DatagramPacket packet) {
-		int _inByteIndex = -1; 		// in-coming bytes counter
-		char oscControl; 			// control in TouchOSC sending the message
-		int[] oscMsg = new int[11]; // buffer for incoming OSC packet
+	/**
+	 * "/offset" and "/limit" in degrees, "/ir/kP" and "/ir/kI". NaN and infinite values are dropped before they can be
+	 * persisted, like GainTweaks does for gains; the rest is clamped by Trims.
+	 */
+	private void onTrimMessage(OSCMessage message) {
+		float value = message.getFloat(0);
+		if (!Trims.isFinite(value)) {
+			return;
+		}
+		Trims current;
+		Trims updated;
+		do {
+			current = _trims.get();
+			updated = withTrim(current, message, value);
+			if (updated == null) {
+				return;
+			}
+		} while (!_trims.compareAndSet(current, updated));
+		schedulePersist();
+	}
 
-		try {
-			InputStream inputStream = new ByteArrayInputStream(packet.getData(), 0, packet.getLength());
-			int inByte = inputStream.read();
-
-			// An OSC address pattern is a string beginning with the character forward slash '/'
-			if (inByte == 47) {
-				_inByteIndex = 0; // a new message received so set array index to 0
-				inByte = inputStream.read();
-			}
-			// Decimal ASCII values for T = 84 | S = 83 | B = 66
-			if (_inByteIndex == 0 && (inByte == 84 || inByte == 83 || inByte == 66)) {
-				switch (inByte) {
-				case (84): // Throttle
-					oscControl = 'T';
-					break;
-				case (83): // Steering
-					oscControl = 'S';
-					break;
-				case (66): // Button
-					oscControl = 'B';
-					break;
-				default:
-					oscControl = ' ';
-				}
+	/**
+	 * {@code trims} with the field the message sets, or null for an address that is not a trim.
+	 */
+	private static Trims withTrim(Trims trims, OSCMessage message, float value) {
+		if (message.addressEquals("/offset")) {
+			return trims.withOffset(value * DEGREES_RADIANS);
+		} else if (message.addressEquals("/limit")) {
+			return trims.withBalanceLimit(value * DEGREES_RADIANS);
+		} else if (message.addressEquals("/ir/kP")) {
+			return trims.withIRGains(value, trims.irKI);
+		} else if (message.addressEquals("/ir/kI")) {
+			return trims.withIRGains(trims.irKP, value);
+		}
+		return null;
+	}
 
-				for (; _inByteIndex < 10; _inByteIndex++) {
-					inByte = inputStream.read();
-					oscMsg[_inByteIndex] = inByte; // add the byte to the array
-				}
-				
-				if (_inByteIndex == 10) { // end of the OSC message
-					byte[] byte_array = new byte[4];
-					byte_array[0] = (byte) oscMsg[9]; // reverse bytes order to decode message
-					byte_array[1] = (byte) oscMsg[8];
-					byte_array[2] = (byte) oscMsg[7];
-					byte_array[3] = (byte) oscMsg[6];
-					ByteBuffer byteBuffer = ByteBuffer.allocate(byte_array.length);
-					byteBuffer.put(byte_array);
-					
-					float value = getOSCValue(byteBuffer.array());
-					
-					switch (oscControl) {
-					case ('T'): // Throttle
-						_throttle = value;
-						break;
-					case ('S'): // Steering
-						_steering = value;
-						break;
-					case ('B'): // Button ON/OFF
-						break;
-					}
-				}
+	/**
+	 * "/gain/kP" and so on, with the names of GainProfile.getGainNames() for the running controller. Applied by the
+	 * looper between two cycles, like the gains of binary control frames, unless the controller changed in between.
+	 */
+	private void onGainMessage(OSCMessage message) {
+		ControllerMode mode = _controllerGains.getMode();
+		String[] addresses = GAIN_ADDRESSES[mode.ordinal()];
+		for (int i = 0; i < addresses.length; i++) {
+			if (message.addressEquals(addresses[i])) {
+				_gainTweaks.set(mode, i, message.getFloat(0));
+				schedulePersist();
+				return;
 			}
-		} catch (IOException e) {
-			Log.e("onPacketReceived()", e.getMessage());
 		}
 	}
-	
-	private float getOSCValue(byte[] byte_array_4) {
-		int ret = 0;
-		for (int i = 0; i < 4; i++) {
-			int b = (int) byte_array_4[i];
-			if (i < 3 && b < 0) {
-				b = 256 + b;
-			}
-			ret += b << (i * 8);
+
+	@Override
+	public void onControlFrame(ControlFrame frame) {
+		if (!_commands.acceptSequence(frame.sequence, frame.receivedNanos)) {
+			return; // stale, duplicated or reordered, gain tweak included
+		}
+		_commands.set(frame.throttle, frame.steering);
+		_commands.setReceivedNanos(frame.receivedNanos);
+		if (frame.gain != ControlFrame.NO_GAIN) {
+			_gainTweaks.set(_controllerGains.getMode(), frame.gain, frame.gainValue);
+			schedulePersist();
 		}
-		return Float.intBitsToFloat(ret);
+		// Like "/B", the buttons are not mapped to anything yet
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * The part of the balance loop that does not touch the hardware: it turns each new tilt sample into a wheel speed
+ * command with the selected {@link Controller}. The looper drives the steppers with the result, the simulator and
+ * the tools run it on a plain JVM.
+ */
+public class BalanceLoop {
+
+	public static final float BALANCE_LIMIT = 0.610865238f; // Shutdown motors @ 35º
+
+	private final BalanceState _state = new BalanceState();
+	private Controller _controller;
+
+	private long _lastTimestamp = 0L;
+	private float _lastRawTilt = 0.0f;
+	private float _tilt = 0.0f;
+	private float _tiltRate = 0.0f;
+	private float _output = 0.0f;
+	private long _updateNanos = 0L; // moving average of the cost of one update()
+	private float _balanceLimit = BALANCE_LIMIT;
+	private final TiltPredictor _predictor = new TiltPredictor();
+
+	public BalanceLoop(Controller controller) {
+		_controller = controller;
+	}
+
+	public Controller getController() {
+		return _controller;
+	}
+
+	/**
+	 * Swaps the control law; the new one starts from a clean state.
+	 */
+	public void setController(Controller controller) {
+		_controller = controller;
+		reset();
+	}
+
+	/**
+	 * Tilt, either way and in radians, past which {@link #isUpright()} is false. {@link #BALANCE_LIMIT} by default.
+	 */
+	public void setBalanceLimit(float balanceLimit) {
+		_balanceLimit = balanceLimit;
+	}
+
+	/**
+	 * Disabled by default. The balance limit is still checked against the measured tilt.
+	 */
+	public TiltPredictor getPredictor() {
+		return _predictor;
+	}
+
+	public void reset() {
+		_controller.reset();
+		_predictor.reset();
+		_lastTimestamp = 0L;
+		_output = 0.0f;
+	}
+
+	/**
+	 * Runs one control step. The first sample after a reset, or one whose timestamp is not later than the last, only
+	 * primes the timestamps.
+	 *
+	 * @param timestamp sensor timestamp, in nanoseconds
+	 * @param rawTilt tilt straight from the {@link TiltEstimator}
+	 * @param offset balance offset plus proximity displacement, subtracted from the raw tilt
+	 */
+	public void onSample(long timestamp, float rawTilt, float offset, float throttle) {
+		onSample(timestamp, rawTilt, Float.NaN, offset, throttle);
+	}
+
+	/**
+	 * Same, with a measured tilt rate, e.g. from the gyroscope, instead of the difference of the last two tilts.
+	 *
+	 * @param tiltRate radians per second, or NaN to derive it from the tilts
+	 */
+	public void onSample(long timestamp, float rawTilt, float tiltRate, float offset, float throttle) {
+		_tilt = rawTilt - offset; // also on the first sample, so isUpright() never judges a tilt from before the reset
+		// A sample that does not move the time forward (a duplicate, or timestamps restarting after a resume) has no
+		// rate to give; it only primes the next one, and the last output is held.
+		if (_lastTimestamp != 0 && timestamp > _lastTimestamp) {
+			float dt = (timestamp - _lastTimestamp) * 1e-9f;
+			_state.tilt = _tilt;
+			_tiltRate = Float.isNaN(tiltRate) ? (rawTilt - _lastRawTilt) / dt : tiltRate;
+			_state.tiltRate = _tiltRate;
+			_state.wheelSpeed = _output;
+			_state.throttle = throttle;
+			_predictor.predict(_state, dt);
+
+			long start = System.nanoTime();
+			_output = _controller.update(_state, dt);
+			_updateNanos += (System.nanoTime() - start - _updateNanos) >> 4;
+		}
+		_lastTimestamp = timestamp;
+		_lastRawTilt = rawTilt;
+	}
+
+	public boolean isUpright() {
+		return _tilt < _balanceLimit && _tilt > -_balanceLimit;
+	}
+
+	/**
+	 * Inputs of the last controller update. Read-only, and only valid on the thread running the loop.
+	 */
+	public BalanceState getState() {
+		return _state;
+	}
+
+	public float getTilt() {
+		return _tilt;
+	}
+
+	/**
+	 * Tilt rate of the last sample, before the prediction.
+	 */
+	public float getTiltRate() {
+		return _tiltRate;
+	}
+
+	/**
+	 * Wheel speed command, in the units DRV8834.setSpeed() takes.
+	 */
+	public float getOutput() {
+		return _output;
+	}
+
+	public long getUpdateNanos() {
+		return _updateNanos;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Learns the balance point while the robot stands still, on top of the offset from the settings. A wrong offset
+ * makes the controller hold the robot off its true balance point, which it can only do by keeping the wheels rolling
+ * towards the lean: the wheel speed command, integrator bias included, drifts one way. The estimator averages that
+ * command over {@link #EFFORT_TIME_CONSTANT} and moves the correction against it, integrating at most
+ * {@link #MAX_RATE} so the controller never sees a step, plus a proportional part that damps the PI controllers,
+ * whose output already integrates the error. The correction settles where the wheels average zero.
+ *
+ * It only learns while the caller says the robot is idle: upright and with no throttle, steering or obstacle
+ * pushing it, since any of those moves the wheels on purpose. Control loop only.
+ */
+public class BalancePointEstimator {
+
+	/** Largest correction either way, in radians (5º). */
+	public static final float MAX_CORRECTION = 0.08726646f;
+
+	private static final float EFFORT_TIME_CONSTANT = 2.0f; // seconds
+	private static final float SETTLE_TIME = 2.0f; // seconds idle before learning, past the first recovery
+	private static final float MAX_RATE = 0.0034906585f; // radians per second (0.2º/s)
+	// Per unit of wheel speed command; picked with BalancePointCheck
+	private static final float LEARNING_RATE = 0.002f; // radians per second
+	private static final float PROPORTIONAL = 0.005f; // radians
+
+	private boolean _enabled = false;
+	private float _learned = 0.0f;
+	private float _effort = 0.0f;
+	private float _idleTime = 0.0f;
+
+	public void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * What to add to the offset, in radians; 0 when disabled.
+	 */
+	public float getCorrection() {
+		if (!_enabled) {
+			return 0.0f;
+		}
+		return Math.max(-MAX_CORRECTION, Math.min(MAX_CORRECTION, _learned + PROPORTIONAL * _effort));
+	}
+
+	/**
+	 * Average wheel speed command while idle, what the correction is driving to zero.
+	 */
+	public float getEffort() {
+		return _effort;
+	}
+
+	/**
+	 * Starts learning from zero again, e.g. once the correction has been folded into the offset.
+	 */
+	public void clear() {
+		_learned = 0.0f;
+		_effort = 0.0f;
+		_idleTime = 0.0f;
+	}
+
+	/**
+	 * One sample of the loop.
+	 *
+	 * @param output the wheel speed command of this sample
+	 * @param idle upright, with nothing commanding the wheels to move
+	 * @param dt seconds since the previous sample
+	 */
+	public void update(float output, boolean idle, float dt) {
+		if (!_enabled || !idle || dt <= 0.0f) {
+			_idleTime = 0.0f;
+			return;
+		}
+		_idleTime += dt;
+		if (_idleTime < SETTLE_TIME) {
+			return;
+		}
+		_effort += dt / (EFFORT_TIME_CONSTANT + dt) * (output - _effort);
+		float maxStep = MAX_RATE * dt;
+		float step = Math.max(-maxStep, Math.min(maxStep, LEARNING_RATE * _effort * dt));
+		_learned = Math.max(-MAX_CORRECTION, Math.min(MAX_CORRECTION, _learned + step));
+	}
+}
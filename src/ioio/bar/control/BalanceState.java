@@ -0,0 +1,43 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * What the control loop knows about the robot at the time of a control step. The looper owns a single instance and
+ * refills it every cycle, so controllers must not hold on to it.
+ */
+public class BalanceState {
+
+	/** Tilt in radians, with the balance offset and proximity displacement already applied. */
+	public float tilt;
+
+	/** Tilt rate in radians per second. */
+	public float tiltRate;
+
+	/** Wheel speed last commanded to the drivers, in the units DRV8834.setSpeed() takes. */
+	public float wheelSpeed;
+
+	/** Throttle from the remote. The tilt controllers lean by -throttle, the cascaded one turns it into a speed. */
+	public float throttle;
+}
@@ -0,0 +1,92 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Two loops: an outer PI turns the throttle into a wheel speed target and picks the lean needed to reach it, and an
+ * inner tilt controller holds that lean. Unlike adding the throttle straight to the tilt, the robot settles at a
+ * speed proportional to the throttle instead of creeping off while the integrator catches up.
+ *
+ * Positive lean makes the robot drive towards negative speed, hence the sign of the outer loop.
+ */
+public class CascadeController implements Controller {
+
+	private final Controller _inner;
+	private final BalanceState _innerState = new BalanceState();
+
+	private float _throttleSpeed = 2.0f; // speed target per unit of throttle
+	private float _kP = 0.05f;
+	private float _kI = 0.01f;
+	private float _maxLean = 0.1f; // radians
+
+	private float _integral = 0.0f;
+
+	public CascadeController(Controller inner) {
+		_inner = inner;
+	}
+
+	public void setGains(float kP, float kI) {
+		_kP = kP;
+		_kI = kI;
+	}
+
+	public void setThrottleSpeed(float throttleSpeed) {
+		_throttleSpeed = throttleSpeed;
+	}
+
+	public void setMaxLean(float maxLean) {
+		_maxLean = maxLean;
+	}
+
+	public Controller getInner() {
+		return _inner;
+	}
+
+	@Override
+	public float update(BalanceState state, float dt) {
+		float speedError = _throttleSpeed * state.throttle - state.wheelSpeed;
+		float integral = _integral + speedError * dt;
+		float lean = -(_kP * speedError + _kI * integral);
+		if (lean > _maxLean) {
+			lean = _maxLean;
+		} else if (lean < -_maxLean) {
+			lean = -_maxLean;
+		} else {
+			_integral = integral;
+		}
+
+		// The inner controllers lean by -throttle
+		_innerState.tilt = state.tilt;
+		_innerState.tiltRate = state.tiltRate;
+		_innerState.wheelSpeed = state.wheelSpeed;
+		_innerState.throttle = -lean;
+		return _inner.update(_innerState, dt);
+	}
+
+	@Override
+	public void reset() {
+		_integral = 0.0f;
+		_inner.reset();
+	}
+}
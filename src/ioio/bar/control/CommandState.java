@@ -0,0 +1,166 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throttle and steering packed into a single atomic word, so the control loop always reads a pair that was current
+ * at the same instant. Any thread may write (the UDP or UART server, or the loop itself when it zeroes the commands
+ * after a fall) without locks.
+ */
+public class CommandState {
+
+	/** Silence after which the sequence numbers and time tags start over. */
+	public static final long RESYNC_NANOS = 1000000000L;
+
+	/** Commands that are ordered by their own time tags, see {@link #acceptTimeTag(int, long, long)}. */
+	public static final int THROTTLE = 0;
+	public static final int STEERING = 1;
+
+	private static final long IMMEDIATELY = 1L; // OSCMessage.IMMEDIATELY
+
+	private final AtomicLong _packed = new AtomicLong(pack(0.0f, 0.0f));
+	private volatile long _receivedNanos = 0;
+
+	// Ordering state of the receiving thread: only one server (UDP or UART) runs at a time
+	private int _lastSequence = -1;
+	private final long[] _lastTimeTags = new long[2]; // per command, 0 until one is accepted
+	private long _lastAcceptedNanos = 0;
+	private volatile long _dropped = 0;
+
+	public void set(float throttle, float steering) {
+		_packed.set(pack(throttle, steering));
+	}
+
+	public void setThrottle(float throttle) {
+		long current;
+		do {
+			current = _packed.get();
+		} while (!_packed.compareAndSet(current, pack(throttle, steeringOf(current))));
+	}
+
+	public void setSteering(float steering) {
+		long current;
+		do {
+			current = _packed.get();
+		} while (!_packed.compareAndSet(current, pack(throttleOf(current), steering)));
+	}
+
+	/**
+	 * When the command last set was received, as System.nanoTime(); see OSCMessage.getReceivedNanos(). Set it after
+	 * the command itself, so that whoever reads it before {@link #snapshot()} gets a snapshot at least that recent.
+	 */
+	public void setReceivedNanos(long receivedNanos) {
+		_receivedNanos = receivedNanos;
+	}
+
+	public long getReceivedNanos() {
+		return _receivedNanos;
+	}
+
+	/**
+	 * Whether a binary control frame is newer than the last one accepted, in 16-bit serial number arithmetic (RFC
+	 * 1982): up to half the sequence space ahead counts as newer, so duplicates, Wi-Fi retransmits and reordered frames
+	 * are dropped. After {@link #RESYNC_NANOS} without an accepted command any sequence is taken, e.g. from a
+	 * restarted sender.
+	 */
+	public boolean acceptSequence(int sequence, long receivedNanos) {
+		sequence &= 0xFFFF;
+		if (_lastSequence >= 0 && !isResync(receivedNanos)) {
+			int ahead = (sequence - _lastSequence) & 0xFFFF;
+			if (ahead == 0 || ahead >= 0x8000) {
+				_dropped++;
+				return false;
+			}
+		}
+		_lastSequence = sequence;
+		_lastAcceptedNanos = receivedNanos;
+		return true;
+	}
+
+	/**
+	 * Same for OSC messages, by the time tag of their bundle: one older than the last accepted for the same command is
+	 * dropped. Each command is ordered on its own, so a bundle with only /S is not dropped for coming after a newer one
+	 * with /T. Messages sent outside a bundle (OSCMessage.IMMEDIATELY) carry no order and are always taken.
+	 *
+	 * @param command {@link #THROTTLE} or {@link #STEERING}
+	 */
+	public boolean acceptTimeTag(int command, long timeTag, long receivedNanos) {
+		if (timeTag != IMMEDIATELY) {
+			// Time tags are unsigned NTP timestamps
+			long last = _lastTimeTags[command];
+			if (last != 0 && !isResync(receivedNanos) && (timeTag ^ Long.MIN_VALUE) < (last ^ Long.MIN_VALUE)) {
+				_dropped++;
+				return false;
+			}
+			_lastTimeTags[command] = timeTag;
+		}
+		_lastAcceptedNanos = receivedNanos;
+		return true;
+	}
+
+	/**
+	 * Commands dropped as stale or out of order.
+	 */
+	public long getDroppedCount() {
+		return _dropped;
+	}
+
+	private boolean isResync(long receivedNanos) {
+		return receivedNanos - _lastAcceptedNanos > RESYNC_NANOS;
+	}
+
+	public void clear() {
+		set(0.0f, 0.0f);
+	}
+
+	/**
+	 * Clears the commands if they are still the snapshot received at {@code receivedNanos}, so that one arriving
+	 * meanwhile is kept. Used once they time out, so that a later message setting only one of them cannot bring the
+	 * other back.
+	 */
+	public boolean expire(long receivedNanos, long snapshot) {
+		return _receivedNanos == receivedNanos && _packed.compareAndSet(snapshot, pack(0.0f, 0.0f));
+	}
+
+	/**
+	 * A consistent snapshot; decode it with {@link #throttleOf(long)} and {@link #steeringOf(long)}.
+	 */
+	public long snapshot() {
+		return _packed.get();
+	}
+
+	public static float throttleOf(long snapshot) {
+		return Float.intBitsToFloat((int) (snapshot >>> 32));
+	}
+
+	public static float steeringOf(long snapshot) {
+		return Float.intBitsToFloat((int) snapshot);
+	}
+
+	public static long pack(float throttle, float steering) {
+		return ((long) Float.floatToRawIntBits(throttle) << 32) | (Float.floatToRawIntBits(steering) & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Fades throttle and steering out when no command has been accepted for a while, so the robot does not keep driving
+ * on the last command after the link drops. Past the timeout the commands ramp down to zero over
+ * {@link #DECAY_NANOS} instead of being cut, which would kick the balance loop. The stored commands are cleared as the
+ * ramp starts, so a message that later sets only the steering does not bring the old throttle back. Control loop
+ * only, apart from {@link #setTimeoutNanos(long)}.
+ */
+public class CommandTimeout {
+
+	public static final long DECAY_NANOS = 500000000L;
+
+	private volatile long _timeoutNanos;
+	private long _expiredNanos = 0; // receive time of the last command counted as expired
+	private long _expired = 0;
+	private long _fadingNanos = 0; // receive time of the commands being faded out
+	private long _fading = 0; // and their snapshot
+
+	/**
+	 * @param timeoutNanos 0 disables the timeout
+	 */
+	public CommandTimeout(long timeoutNanos) {
+		_timeoutNanos = timeoutNanos;
+	}
+
+	public void setTimeoutNanos(long timeoutNanos) {
+		_timeoutNanos = timeoutNanos;
+	}
+
+	public long getTimeoutNanos() {
+		return _timeoutNanos;
+	}
+
+	/**
+	 * Factor to scale the commands by: 1 while the last one is younger than the timeout, then down to 0.
+	 *
+	 * @param receivedNanos System.nanoTime() when the last command arrived, 0 if none has
+	 */
+	public float scale(long nowNanos, long receivedNanos) {
+		long timeout = _timeoutNanos;
+		if (timeout <= 0 || receivedNanos == 0) {
+			return 1.0f;
+		}
+		long late = nowNanos - receivedNanos - timeout;
+		if (late <= 0) {
+			return 1.0f;
+		}
+		if (receivedNanos != _expiredNanos) {
+			_expiredNanos = receivedNanos;
+			_expired++;
+		}
+		return (late >= DECAY_NANOS) ? 0.0f : 1.0f - (float) late / DECAY_NANOS;
+	}
+
+	/**
+	 * The commands to apply now, as a CommandState snapshot: the stored ones while fresh, then what they were at the
+	 * timeout scaled by {@link #scale(long, long)}. The first time a command is found expired, it is cleared from
+	 * {@code commands}.
+	 *
+	 * @param receivedNanos CommandState.getReceivedNanos(), read before this takes the snapshot
+	 */
+	public long apply(CommandState commands, long nowNanos, long receivedNanos) {
+		long snapshot = commands.snapshot();
+		float scale = scale(nowNanos, receivedNanos);
+		if (scale == 1.0f) {
+			return snapshot;
+		}
+		if (receivedNanos != _fadingNanos) {
+			_fadingNanos = receivedNanos;
+			_fading = snapshot;
+			commands.expire(receivedNanos, snapshot);
+		}
+		return CommandState.pack(CommandState.throttleOf(_fading) * scale, CommandState.steeringOf(_fading) * scale);
+	}
+
+	/**
+	 * Commands that timed out, each counted once.
+	 */
+	public long getExpiredCount() {
+		return _expired;
+	}
+}
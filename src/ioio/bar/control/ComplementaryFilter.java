@@ -0,0 +1,119 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * First-order complementary filter on the tilt axis alone: the integrated gyroscope rate, high-passed, plus the
+ * accelerometer's tilt, low-passed, with the same time constant. The phone is mounted in landscape and raised up 90º,
+ * so the robot tilts about the device's x axis: the accelerometer gives the tilt as atan2(az, ay) and the tilt rate
+ * is -gx.
+ *
+ * Accelerometer readings more than {@link #MAX_ACCELERATION_ERROR} away from 1 g are mostly the robot accelerating
+ * and are left out.
+ */
+public class ComplementaryFilter implements TiltFilter {
+
+	public static final float TIME_CONSTANT = 1.0f; // seconds
+	public static final float MAX_ACCELERATION_ERROR = 0.2f; // fraction of 1 g
+
+	private static final float GRAVITY = 9.80665f;
+
+	private final float _timeConstant;
+
+	private float _tilt = 0.0f;
+	private float _tiltRate = 0.0f;
+	private float _ay = 0.0f;
+	private float _az = 0.0f;
+	private boolean _trusted = false; // the last acceleration is close enough to 1 g
+	private boolean _ready = false;
+
+	public ComplementaryFilter() {
+		this(TIME_CONSTANT);
+	}
+
+	public ComplementaryFilter(float timeConstant) {
+		_timeConstant = timeConstant;
+	}
+
+	@Override
+	public void reset() {
+		_tilt = 0.0f;
+		_tiltRate = 0.0f;
+		_ready = false;
+	}
+
+	@Override
+	public void setAcceleration(float ax, float ay, float az) {
+		_ay = ay;
+		_az = az;
+		float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		_trusted = Math.abs(norm - GRAVITY) < MAX_ACCELERATION_ERROR * GRAVITY;
+		if (!_ready && _trusted) {
+			_tilt = (float) Math.atan2(az, ay);
+			_ready = true;
+		}
+	}
+
+	@Override
+	public void update(float gx, float gy, float gz, float dt) {
+		if (!_ready) {
+			return;
+		}
+		_tiltRate = -gx;
+		_tilt += _tiltRate * dt;
+		if (_trusted) {
+			float alpha = dt / (_timeConstant + dt);
+			_tilt += alpha * ((float) Math.atan2(_az, _ay) - _tilt);
+		}
+	}
+
+	@Override
+	public boolean isReady() {
+		return _ready;
+	}
+
+	public float getTilt() {
+		return _tilt;
+	}
+
+	/**
+	 * NaN for any mount other than landscape raised, whose axis is the only one this filter follows.
+	 */
+	@Override
+	public float getTiltRate(MountOrientation orientation) {
+		return (orientation == MountOrientation.LANDSCAPE_RAISED) ? _tiltRate : Float.NaN;
+	}
+
+	/**
+	 * A rotation about x by (90º - tilt), like PendulumSimulator.toRotationVector().
+	 */
+	@Override
+	public void getQuaternion(float[] destination) {
+		double half = 0.5 * (0.5 * Math.PI - _tilt);
+		destination[0] = (float) Math.cos(half);
+		destination[1] = (float) Math.sin(half);
+		destination[2] = 0.0f;
+		destination[3] = 0.0f;
+	}
+}
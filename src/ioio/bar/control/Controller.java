@@ -0,0 +1,47 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * A balance control law. Implementations keep all their state in fields, so {@link #update(BalanceState, float)}
+ * does not allocate and can run on the looper thread every cycle.
+ */
+public interface Controller {
+
+	/**
+	 * Largest speed the DRV8834 drivers accept (DRV8834.MAX_SPEED, 7240 steps/s), in controller output units.
+	 */
+	public static final float DEFAULT_OUTPUT_LIMIT = 0.724f;
+
+	/**
+	 * @param dt seconds since the previous update
+	 * @return the wheel speed command, in the units DRV8834.setSpeed() takes
+	 */
+	public float update(BalanceState state, float dt);
+
+	/**
+	 * Clears integrators and filters, e.g. after a fall or when the controller is swapped in.
+	 */
+	public void reset();
+}
@@ -0,0 +1,70 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * The control laws that can be picked at runtime from the settings ("controller_key").
+ */
+public enum ControllerMode {
+	PI, PID, LQR, CASCADE;
+
+	public Controller create() {
+		switch (this) {
+		case PID:
+			return new PIDController();
+		case LQR:
+			return new StateFeedbackController();
+		case CASCADE:
+			return new CascadeController(new PIDController());
+		default:
+			return new PIController();
+		}
+	}
+
+	/**
+	 * Falls back to PI for unknown names, e.g. a value persisted by a newer build.
+	 */
+	public static ControllerMode fromName(String name) {
+		for (ControllerMode mode : values()) {
+			if (mode.name().equals(name)) {
+				return mode;
+			}
+		}
+		return PI;
+	}
+
+	/**
+	 * The mode a controller was created for, e.g. to tag recorded cycles.
+	 */
+	public static ControllerMode of(Controller controller) {
+		if (controller instanceof CascadeController) {
+			return CASCADE;
+		} else if (controller instanceof StateFeedbackController) {
+			return LQR;
+		} else if (controller instanceof PIDController) {
+			return PID;
+		}
+		return PI;
+	}
+}
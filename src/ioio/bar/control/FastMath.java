@@ -0,0 +1,94 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Float approximations of the inverse trigonometric functions for the per-sample tilt computation, a few times
+ * cheaper than java.lang.Math's double versions. Maximum errors over the whole domain, as measured by
+ * ioio.bar.bench.FastMathCheck against Math:
+ *
+ * <pre>
+ * asin   3e-7 rad
+ * atan2  3e-6 rad (0.0002º)
+ * </pre>
+ *
+ * Both are well under the noise of the phone's orientation sensors.
+ */
+public final class FastMath {
+
+	public static final float PI = (float) Math.PI;
+	public static final float HALF_PI = (float) (0.5 * Math.PI);
+
+	private FastMath() {
+	}
+
+	/**
+	 * Odd polynomial up to |x| = 0.5 (about 30º of tilt, so the balancing range never takes a square root), and
+	 * asin(x) = PI/2 - 2 asin(sqrt((1 - x) / 2)) beyond; the coefficients are Cephes' asinf. Arguments are clamped to
+	 * [-1, 1], so rounding just past 1 gives ±PI/2 instead of NaN.
+	 */
+	public static float asin(float x) {
+		boolean negative = x < 0.0f;
+		float a = negative ? -x : x;
+		if (a > 1.0f) {
+			a = 1.0f;
+		}
+		float result;
+		if (a <= 0.5f) {
+			float z = a * a;
+			result = a + a * z * polynomial(z);
+		} else {
+			float z = 0.5f * (1.0f - a);
+			float s = (float) Math.sqrt(z);
+			result = HALF_PI - 2.0f * (s + s * z * polynomial(z));
+		}
+		return negative ? -result : result;
+	}
+
+	private static float polynomial(float z) {
+		return (((4.2163199048e-2f * z + 2.4181311049e-2f) * z + 4.5470025998e-2f) * z + 7.4953002686e-2f) * z + 1.6666752422e-1f;
+	}
+
+	/**
+	 * Odd minimax polynomial for atan on [0, 1], extended to the four quadrants. atan2(0, 0) is 0, like Math.
+	 */
+	public static float atan2(float y, float x) {
+		float ax = Math.abs(x);
+		float ay = Math.abs(y);
+		float max = Math.max(ax, ay);
+		if (max == 0.0f) {
+			return 0.0f;
+		}
+		float z = Math.min(ax, ay) / max;
+		float z2 = z * z;
+		float r = z * (0.99997726f + z2 * (-0.33262347f + z2 * (0.19354346f + z2 * (-0.11643287f + z2 * (0.05265332f + z2 * -0.01172120f)))));
+		if (ay > ax) {
+			r = HALF_PI - r;
+		}
+		if (x < 0.0f) {
+			r = PI - r;
+		}
+		return (y < 0.0f) ? -r : r;
+	}
+}
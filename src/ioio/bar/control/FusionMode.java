@@ -0,0 +1,67 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Where the tilt comes from, picked in the settings ("fusion_key"): the vendor's rotation vector, or one of the
+ * in-app {@link TiltFilter}s over the raw gyroscope and accelerometer.
+ */
+public enum FusionMode {
+	ROTATION_VECTOR, COMPLEMENTARY, MAHONY;
+
+	/**
+	 * Null for ROTATION_VECTOR.
+	 */
+	public TiltFilter create() {
+		switch (this) {
+		case COMPLEMENTARY:
+			return new ComplementaryFilter();
+		case MAHONY:
+			return new MahonyFilter();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Lag of the tilt behind the motion that no timestamp shows, in nanoseconds: the vendor's filtering, which varies
+	 * by manufacturer (10 ms is typical), or none for the in-app filters, which take the rate straight from the
+	 * gyroscope.
+	 */
+	public long getLagNanos() {
+		return (this == ROTATION_VECTOR) ? 10000000L : 0L;
+	}
+
+	/**
+	 * Falls back to ROTATION_VECTOR for unknown names.
+	 */
+	public static FusionMode fromName(String name) {
+		for (FusionMode mode : values()) {
+			if (mode.name().equals(name)) {
+				return mode;
+			}
+		}
+		return ROTATION_VECTOR;
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Controller gains and balance offset for one {@link ControllerMode}, as a properties file. The gain auto-tuner in
+ * tools writes them; the app loads {@link #FILE_NAME} from its files directory and uses it instead of the built-in
+ * gains whenever the selected controller matches.
+ *
+ * <pre>
+ * controller=PI
+ * kP=2.98
+ * kI=27.8
+ * offset_degrees=1.5
+ * </pre>
+ *
+ * The offset is optional; without it the one set in the settings is kept.
+ */
+public class GainProfile {
+
+	public static final String FILE_NAME = "gains.properties";
+
+	private static final String CONTROLLER_KEY = "controller";
+	private static final String OFFSET_KEY = "offset_degrees";
+
+	private static final String[] PI_GAINS = { "kP", "kI" };
+	private static final String[] PID_GAINS = { "kP", "kI", "kD" };
+	private static final String[] LQR_GAINS = { "kTilt", "kRate", "kSpeed" };
+	private static final String[] CASCADE_GAINS = { "kP", "kI", "inner.kP", "inner.kI", "inner.kD" };
+
+	private final ControllerMode _mode;
+	private final float[] _gains;
+	private final boolean _hasOffset;
+	private final float _offset;
+
+	/**
+	 * @param gains in the order of {@link #getGainNames(ControllerMode)}
+	 * @param offset radians, or NaN to keep the offset from the settings
+	 */
+	public GainProfile(ControllerMode mode, float[] gains, float offset) {
+		if (gains.length != getGainNames(mode).length) {
+			throw new IllegalArgumentException(mode + " takes " + getGainNames(mode).length + " gains, not " + gains.length);
+		}
+		_mode = mode;
+		_gains = gains.clone();
+		_hasOffset = !Float.isNaN(offset);
+		_offset = offset;
+	}
+
+	/**
+	 * The gains each mode takes, in the order of its setGains() arguments. A cascade has the speed loop gains first,
+	 * then those of its inner PID.
+	 */
+	public static String[] getGainNames(ControllerMode mode) {
+		switch (mode) {
+		case PID:
+			return PID_GAINS.clone();
+		case LQR:
+			return LQR_GAINS.clone();
+		case CASCADE:
+			return CASCADE_GAINS.clone();
+		default:
+			return PI_GAINS.clone();
+		}
+	}
+
+	/**
+	 * Length of {@link #getGainNames(ControllerMode)}, without the copy.
+	 */
+	public static int getGainCount(ControllerMode mode) {
+		switch (mode) {
+		case PID:
+			return PID_GAINS.length;
+		case LQR:
+			return LQR_GAINS.length;
+		case CASCADE:
+			return CASCADE_GAINS.length;
+		default:
+			return PI_GAINS.length;
+		}
+	}
+
+	/**
+	 * The gains the mode's controller is built with, and no offset.
+	 */
+	public static GainProfile getDefault(ControllerMode mode) {
+		switch (mode) {
+		case PID:
+			return new GainProfile(mode, new float[] { 2.98f, 27.8f, 0.05f }, Float.NaN);
+		case LQR:
+			return new GainProfile(mode, new float[] { 28.8f, 5.36f, -2.57f }, Float.NaN);
+		case CASCADE:
+			return new GainProfile(mode, new float[] { 0.05f, 0.01f, 2.98f, 27.8f, 0.05f }, Float.NaN);
+		default:
+			return new GainProfile(mode, new float[] { 2.98f, 27.8f }, Float.NaN);
+		}
+	}
+
+	/**
+	 * A copy with one gain changed.
+	 */
+	public GainProfile withGain(int index, float value) {
+		float[] gains = _gains.clone();
+		gains[index] = value;
+		return new GainProfile(_mode, gains, _offset);
+	}
+
+	public ControllerMode getMode() {
+		return _mode;
+	}
+
+	public float[] getGains() {
+		return _gains.clone();
+	}
+
+	/**
+	 * Copies the gains into the start of {@code destination}, without allocating.
+	 */
+	public void copyGains(float[] destination) {
+		System.arraycopy(_gains, 0, destination, 0, _gains.length);
+	}
+
+	public boolean hasOffset() {
+		return _hasOffset;
+	}
+
+	/**
+	 * Balance offset in radians, as BARActivity._offset; NaN if the profile has none.
+	 */
+	public float getOffset() {
+		return _offset;
+	}
+
+	/**
+	 * A new controller of the profile's mode with the profile's gains.
+	 */
+	public Controller create() {
+		Controller controller = _mode.create();
+		applyTo(controller);
+		return controller;
+	}
+
+	/**
+	 * Sets the gains of a controller of the profile's mode, keeping its integrators and filters, e.g. to tune it while
+	 * it balances. Call it from the thread that runs the controller.
+	 */
+	public void applyTo(Controller controller) {
+		applyTo(_mode, _gains, controller);
+	}
+
+	/**
+	 * Same, from gains in {@link #getGainNames(ControllerMode)} order, which may be followed by unused entries.
+	 */
+	public static void applyTo(ControllerMode mode, float[] gains, Controller controller) {
+		switch (mode) {
+		case PID:
+			((PIDController) controller).setGains(gains[0], gains[1], gains[2]);
+			break;
+		case LQR:
+			((StateFeedbackController) controller).setGains(gains[0], gains[1], gains[2]);
+			break;
+		case CASCADE:
+			CascadeController cascade = (CascadeController) controller;
+			cascade.setGains(gains[0], gains[1]);
+			((PIDController) cascade.getInner()).setGains(gains[2], gains[3], gains[4]);
+			break;
+		default:
+			((PIController) controller).setGains(gains[0], gains[1]);
+			break;
+		}
+	}
+
+	/**
+	 * @throws IOException if the file cannot be read or a gain is missing or not a number
+	 */
+	public static GainProfile load(InputStream in) throws IOException {
+		Properties properties = new Properties();
+		properties.load(in);
+		String name = properties.getProperty(CONTROLLER_KEY);
+		if (name == null) {
+			throw new IOException("No " + CONTROLLER_KEY + " in gain profile");
+		}
+		ControllerMode mode = ControllerMode.fromName(name.trim());
+		if (!mode.name().equals(name.trim())) {
+			throw new IOException("Unknown controller " + name + " in gain profile");
+		}
+		String[] names = getGainNames(mode);
+		float[] gains = new float[names.length];
+		for (int i = 0; i < names.length; i++) {
+			gains[i] = parse(properties, names[i]);
+		}
+		float offset = Float.NaN;
+		if (properties.getProperty(OFFSET_KEY) != null) {
+			offset = (float) Math.toRadians(parse(properties, OFFSET_KEY));
+		}
+		return new GainProfile(mode, gains, offset);
+	}
+
+	public void store(OutputStream out, String comments) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty(CONTROLLER_KEY, _mode.name());
+		String[] names = getGainNames(_mode);
+		for (int i = 0; i < names.length; i++) {
+			properties.setProperty(names[i], Float.toString(_gains[i]));
+		}
+		if (_hasOffset) {
+			properties.setProperty(OFFSET_KEY, Float.toString((float) Math.toDegrees(_offset)));
+		}
+		properties.store(out, comments);
+	}
+
+	private static float parse(Properties properties, String key) throws IOException {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			throw new IOException("No " + key + " in gain profile");
+		}
+		try {
+			float number = Float.parseFloat(value.trim());
+			if (Float.isNaN(number) || Float.isInfinite(number)) {
+				throw new NumberFormatException();
+			}
+			return number;
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad " + key + " in gain profile: " + value);
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof GainProfile)) {
+			return false;
+		}
+		GainProfile profile = (GainProfile) other;
+		return _mode == profile._mode && Arrays.equals(_gains, profile._gains) && _hasOffset == profile._hasOffset
+				&& (!_hasOffset || Float.compare(_offset, profile._offset) == 0);
+	}
+
+	@Override
+	public int hashCode() {
+		return _mode.hashCode() * 31 + Arrays.hashCode(_gains);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(_mode.name());
+		String[] names = getGainNames(_mode);
+		for (int i = 0; i < names.length; i++) {
+			builder.append(' ').append(names[i]).append('=').append(_gains[i]);
+		}
+		if (_hasOffset) {
+			builder.append(" offset=").append(Math.toDegrees(_offset)).append('º');
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands gain changes from the network threads to the control loop, which applies them between two cycles so a
+ * controller never runs with half-updated gains. Each gain keeps only its newest pending value.
+ *
+ * A change is tagged with the controller mode it was meant for, since gain indexes mean something else in every
+ * mode: one that arrives for a controller that has since been swapped out is dropped instead of changing the wrong
+ * gain. The loop folds the changes into its own gain array in place and mirrors the result here for the settings,
+ * so applying a change allocates nothing on the control thread.
+ */
+public class GainTweaks {
+
+	public static final int MAX_GAINS = 8;
+
+	// Both arrays hold (mode ordinal + 1) << 32 | float bits per gain; 0 is nothing
+	private final AtomicLongArray _pending = new AtomicLongArray(MAX_GAINS);
+	private final AtomicLongArray _applied = new AtomicLongArray(MAX_GAINS);
+	private volatile boolean _dirty = false;
+
+	/**
+	 * @param index in GainProfile.getGainNames(mode) order; out of range indexes and non-finite values are ignored
+	 */
+	public void set(ControllerMode mode, int index, float value) {
+		if (index < 0 || index >= GainProfile.getGainCount(mode) || Float.isNaN(value) || Float.isInfinite(value)) {
+			return;
+		}
+		_pending.set(index, pack(mode, value));
+		_dirty = true; // after the value, see apply()
+	}
+
+	/**
+	 * Cheap enough to call every cycle.
+	 */
+	public boolean hasPending() {
+		return _dirty;
+	}
+
+	/**
+	 * Takes the pending values and folds those meant for {@code mode} into {@code gains}, which are then published
+	 * for {@link #getApplied()}. Control loop only.
+	 *
+	 * @return whether a gain changed
+	 */
+	public boolean apply(ControllerMode mode, float[] gains) {
+		if (!_dirty) {
+			return false;
+		}
+		// Cleared before the scan: a value set during the scan is either picked up now or flags the next call
+		_dirty = false;
+		long tag = tag(mode);
+		boolean changed = false;
+		for (int i = 0; i < MAX_GAINS; i++) {
+			long pending = _pending.getAndSet(i, 0);
+			if (pending != 0 && (pending & ~0xFFFFFFFFL) == tag) {
+				gains[i] = Float.intBitsToFloat((int) pending);
+				changed = true;
+			}
+		}
+		if (changed) {
+			publish(mode, gains);
+		}
+		return changed;
+	}
+
+	/**
+	 * Makes {@code gains} the ones {@link #getApplied()} reports, e.g. when the loop switches controllers.
+	 */
+	public void publish(ControllerMode mode, float[] gains) {
+		int count = GainProfile.getGainCount(mode);
+		for (int i = 0; i < MAX_GAINS; i++) {
+			_applied.set(i, (i < count) ? pack(mode, gains[i]) : 0);
+		}
+	}
+
+	/**
+	 * The gains the loop runs with, for persisting them; null before the loop has published any, or while it is
+	 * publishing another controller's.
+	 */
+	public GainProfile getApplied() {
+		long first = _applied.get(0);
+		if (first == 0) {
+			return null;
+		}
+		ControllerMode mode = ControllerMode.values()[(int) (first >>> 32) - 1];
+		float[] gains = new float[GainProfile.getGainCount(mode)];
+		for (int i = 0; i < gains.length; i++) {
+			long applied = _applied.get(i);
+			if ((applied & ~0xFFFFFFFFL) != tag(mode)) {
+				return null;
+			}
+			gains[i] = Float.intBitsToFloat((int) applied);
+		}
+		return new GainProfile(mode, gains, Float.NaN);
+	}
+
+	private static long tag(ControllerMode mode) {
+		return (long) (mode.ordinal() + 1) << 32;
+	}
+
+	private static long pack(ControllerMode mode, float value) {
+		return tag(mode) | (Float.floatToRawIntBits(value) & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.util.Arrays;
+
+/**
+ * Log-bucketed histogram of latencies in nanoseconds, in the manner of HdrHistogram: values below 64 ns get a bucket
+ * each, and every power of two above that is split into 32 linear sub-buckets, so a percentile is never off by more
+ * than about 3%. Values up to 2^36 ns (68 s) fit; longer ones are counted in the last bucket.
+ *
+ * Recording is a few shifts and an increment, with nothing allocated. It is not thread safe: record, read and reset a
+ * histogram on one thread, as the looper does.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 32
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS; // 64
+	private static final int MAX_EXPONENT = 35;
+	private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String _name;
+	private final long[] _counts = new long[BUCKETS];
+	private long _count = 0;
+	private long _sum = 0;
+	private long _min = Long.MAX_VALUE;
+	private long _max = 0;
+
+	public LatencyHistogram(String name) {
+		_name = name;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * @param nanos negative values, e.g. from timestamps of two different clocks, are counted as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		_counts[indexOf(nanos)]++;
+		_count++;
+		_sum += nanos;
+		if (nanos < _min) {
+			_min = nanos;
+		}
+		if (nanos > _max) {
+			_max = nanos;
+		}
+	}
+
+	public void reset() {
+		Arrays.fill(_counts, 0);
+		_count = 0;
+		_sum = 0;
+		_min = Long.MAX_VALUE;
+		_max = 0;
+	}
+
+	public long getCount() {
+		return _count;
+	}
+
+	public long getMin() {
+		return (_count > 0) ? _min : 0;
+	}
+
+	public long getMax() {
+		return _max;
+	}
+
+	public double getMean() {
+		return (_count > 0) ? (double) _sum / _count : 0.0;
+	}
+
+	/**
+	 * The latency that {@code percentile} percent of the recorded values do not exceed, to the bucket resolution.
+	 */
+	public long getPercentile(double percentile) {
+		if (_count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * _count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), _max);
+			}
+		}
+		return _max;
+	}
+
+	static int indexOf(long nanos) {
+		if (nanos < LINEAR_LIMIT) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Count, mean, p50, p90, p99, p99.9 and max, in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", _name, _count,
+				getMean() / 1000.0, getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0,
+				getPercentile(99.9) / 1000.0, _max / 1000.0);
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a control loop against absolute System.nanoTime() deadlines, so the period does not stretch by however
+ * long the loop body took. Call {@link #awaitNextCycle()} once at the top of every iteration.
+ *
+ * When the body runs past its deadline the cycle is counted as an overrun and the next one starts immediately.
+ * Whole periods lost in the process are counted as skipped rather than being run back to back to catch up.
+ *
+ * Another thread can cut a wait short with {@link #wakeUp()}, e.g. as soon as a fresh sensor sample is published.
+ * The schedule is then re-phased to that instant, so the deadline acts as an upper bound on the wait rather than a
+ * fixed grid.
+ *
+ * Only the loop thread may call awaitNextCycle(); wakeUp() and the statistics can be used from any thread.
+ */
+public class LoopScheduler {
+
+	// Park until this close to the deadline and then spin, since parkNanos() may oversleep by tens of microseconds
+	private static final long SPIN_NANOS = 50000L;
+
+	private volatile long _periodNanos;
+	private long _deadline = 0L;
+	private volatile Thread _thread;
+	private volatile boolean _woken = false;
+
+	private volatile long _cycles = 0L;
+	private volatile long _overruns = 0L;
+	private volatile long _skipped = 0L;
+	private volatile long _wakeups = 0L;
+	private volatile long _lastJitterNanos = 0L;
+	private volatile long _maxJitterNanos = 0L;
+
+	public LoopScheduler(long periodNanos) {
+		setPeriodNanos(periodNanos);
+	}
+
+	public static long periodFromRate(int rateHz) {
+		return 1000000000L / rateHz;
+	}
+
+	public static int rateFromPeriod(long periodNanos) {
+		return (int) Math.round(1e9 / periodNanos);
+	}
+
+	public long getPeriodNanos() {
+		return _periodNanos;
+	}
+
+	/**
+	 * Takes effect from the next deadline on.
+	 */
+	public void setPeriodNanos(long periodNanos) {
+		if (periodNanos <= 0) {
+			throw new IllegalArgumentException("Period must be positive: " + periodNanos);
+		}
+		_periodNanos = periodNanos;
+	}
+
+	/**
+	 * Restarts the schedule so that the first cycle runs right away.
+	 */
+	public void reset() {
+		_deadline = 0L;
+	}
+
+	/**
+	 * Ends the current wait of the loop thread, or makes the next one return immediately.
+	 */
+	public void wakeUp() {
+		_woken = true;
+		Thread thread = _thread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Blocks until the next deadline, or until {@link #wakeUp()}, and returns how late the wakeup was, in
+	 * nanoseconds.
+	 */
+	public long awaitNextCycle() throws InterruptedException {
+		Thread current = Thread.currentThread();
+		if (_thread != current) {
+			_thread = current;
+		}
+		long period = _periodNanos;
+		long now = System.nanoTime();
+		long late = now - _deadline;
+		if (_deadline == 0L) {
+			_deadline = now;
+		} else if (late > 0) {
+			_overruns++;
+			long missed = late / period;
+			if (missed > 0) {
+				_skipped += missed;
+				_deadline += missed * period;
+			}
+		} else {
+			now = sleepUntil(_deadline);
+			if (now - _deadline < 0) {
+				_wakeups++;
+				_deadline = now;
+			}
+		}
+		_woken = false;
+
+		long jitter = now - _deadline;
+		_lastJitterNanos = jitter;
+		if (jitter > _maxJitterNanos) {
+			_maxJitterNanos = jitter;
+		}
+		_cycles++;
+		_deadline += period;
+		return jitter;
+	}
+
+	private long sleepUntil(long deadline) throws InterruptedException {
+		long now = System.nanoTime();
+		while (deadline - now > SPIN_NANOS && !_woken) {
+			LockSupport.parkNanos(deadline - now - SPIN_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			now = System.nanoTime();
+		}
+		while (deadline - now > 0 && !_woken) {
+			now = System.nanoTime();
+		}
+		return now;
+	}
+
+	public long getCycleCount() {
+		return _cycles;
+	}
+
+	public long getOverrunCount() {
+		return _overruns;
+	}
+
+	public long getSkippedCount() {
+		return _skipped;
+	}
+
+	/**
+	 * Cycles started early by {@link #wakeUp()}.
+	 */
+	public long getWakeUpCount() {
+		return _wakeups;
+	}
+
+	public long getLastJitterNanos() {
+		return _lastJitterNanos;
+	}
+
+	public long getMaxJitterNanos() {
+		return _maxJitterNanos;
+	}
+
+	public void resetStatistics() {
+		_cycles = 0L;
+		_overruns = 0L;
+		_skipped = 0L;
+		_wakeups = 0L;
+		_lastJitterNanos = 0L;
+		_maxJitterNanos = 0L;
+	}
+
+	@Override
+	public String toString() {
+		return "period=" + _periodNanos + "ns cycles=" + _cycles + " overruns=" + _overruns + " skipped=" + _skipped
+				+ " wakeups=" + _wakeups + " maxJitter=" + _maxJitterNanos + "ns";
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Mahony's nonlinear complementary filter on the full attitude quaternion. The gravity direction predicted by the
+ * quaternion is compared with the measured acceleration; their cross product feeds back into the gyroscope rates
+ * through a proportional gain and an integral one, which estimates the gyroscope bias. Without a magnetometer the
+ * heading drifts freely, which does not matter for the tilt.
+ *
+ * Same acceleration gating as {@link ComplementaryFilter}.
+ */
+public class MahonyFilter implements TiltFilter {
+
+	public static final float KP = 0.3f;
+	public static final float KI = 0.05f;
+
+	private static final float GRAVITY = 9.80665f;
+
+	private final float _kP;
+	private final float _kI;
+
+	// World-from-device rotation, w, x, y, z
+	private float _qw = 1.0f, _qx = 0.0f, _qy = 0.0f, _qz = 0.0f;
+	private float _biasX = 0.0f, _biasY = 0.0f, _biasZ = 0.0f; // negated integral term, rad/s
+	private float _ax = 0.0f, _ay = 0.0f, _az = 0.0f; // unit vector
+	private boolean _trusted = false;
+	private boolean _ready = false;
+	private float _rateX = 0.0f, _rateY = 0.0f, _rateZ = 0.0f; // last gyroscope reading less the bias
+
+	public MahonyFilter() {
+		this(KP, KI);
+	}
+
+	public MahonyFilter(float kP, float kI) {
+		_kP = kP;
+		_kI = kI;
+	}
+
+	@Override
+	public void reset() {
+		_qw = 1.0f;
+		_qx = _qy = _qz = 0.0f;
+		_biasX = _biasY = _biasZ = 0.0f;
+		_rateX = _rateY = _rateZ = 0.0f;
+		_ready = false;
+	}
+
+	@Override
+	public void setAcceleration(float ax, float ay, float az) {
+		float norm = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		_trusted = Math.abs(norm - GRAVITY) < ComplementaryFilter.MAX_ACCELERATION_ERROR * GRAVITY;
+		if (!_trusted) {
+			return;
+		}
+		_ax = ax / norm;
+		_ay = ay / norm;
+		_az = az / norm;
+		if (!_ready && _az > -0.99f) {
+			// Shortest rotation taking the measured gravity to the world's z axis: (1 + a.z, a x z), normalised
+			float w = 1.0f + _az;
+			float n = (float) Math.sqrt(w * w + _ay * _ay + _ax * _ax);
+			_qw = w / n;
+			_qx = _ay / n;
+			_qy = -_ax / n;
+			_qz = 0.0f;
+			_ready = true;
+		}
+	}
+
+	@Override
+	public void update(float gx, float gy, float gz, float dt) {
+		if (!_ready) {
+			return;
+		}
+		float qw = _qw, qx = _qx, qy = _qy, qz = _qz;
+		_rateX = gx + _biasX;
+		_rateY = gy + _biasY;
+		_rateZ = gz + _biasZ;
+		if (_trusted) {
+			// Gravity direction in device axes, the third row of the rotation matrix
+			float vx = 2.0f * (qx * qz - qw * qy);
+			float vy = 2.0f * (qw * qx + qy * qz);
+			float vz = qw * qw - qx * qx - qy * qy + qz * qz;
+			float ex = _ay * vz - _az * vy;
+			float ey = _az * vx - _ax * vz;
+			float ez = _ax * vy - _ay * vx;
+			_biasX += _kI * ex * dt;
+			_biasY += _kI * ey * dt;
+			_biasZ += _kI * ez * dt;
+			gx += _kP * ex + _biasX;
+			gy += _kP * ey + _biasY;
+			gz += _kP * ez + _biasZ;
+		} else {
+			gx += _biasX;
+			gy += _biasY;
+			gz += _biasZ;
+		}
+
+		// q' = q + 0.5 q (0, g) dt
+		float h = 0.5f * dt;
+		_qw = qw + h * (-qx * gx - qy * gy - qz * gz);
+		_qx = qx + h * (qw * gx + qy * gz - qz * gy);
+		_qy = qy + h * (qw * gy - qx * gz + qz * gx);
+		_qz = qz + h * (qw * gz + qx * gy - qy * gx);
+		float n = (float) (1.0 / Math.sqrt(_qw * _qw + _qx * _qx + _qy * _qy + _qz * _qz));
+		_qw *= n;
+		_qx *= n;
+		_qy *= n;
+		_qz *= n;
+	}
+
+	@Override
+	public boolean isReady() {
+		return _ready;
+	}
+
+	@Override
+	public float getTiltRate(MountOrientation orientation) {
+		return orientation.tiltRate(_qw, _qx, _qy, _qz, _rateX, _rateY, _rateZ);
+	}
+
+	@Override
+	public void getQuaternion(float[] destination) {
+		destination[0] = _qw;
+		destination[1] = _qx;
+		destination[2] = _qy;
+		destination[3] = _qz;
+	}
+}
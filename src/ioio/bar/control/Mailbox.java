@@ -0,0 +1,105 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single-producer/single-consumer handoff of the latest value (triple buffering). The producer fills the slot
+ * returned by {@link #claim()} and calls {@link #publish()}; the consumer calls {@link #poll()} to take the newest
+ * published slot. Neither side ever blocks or allocates, and the consumer never sees a half-written slot.
+ *
+ * Values published while the consumer was busy are overwritten by newer ones, so the consumer always gets the
+ * latest sample rather than a backlog.
+ */
+public class Mailbox<T> {
+
+	private static final int FRESH = 4;
+	private static final int INDEX = 3;
+
+	private final T[] _slots;
+	private final AtomicInteger _middle = new AtomicInteger(1);
+	private int _back = 0; // owned by the producer
+	private int _front = 2; // owned by the consumer
+
+	private volatile long _published = 0L;
+	private volatile long _overwritten = 0L;
+
+	/**
+	 * The three instances are the only storage the mailbox ever uses.
+	 */
+	public Mailbox(T first, T second, T third) {
+		@SuppressWarnings("unchecked")
+		T[] slots = (T[]) new Object[] { first, second, third };
+		_slots = slots;
+	}
+
+	/**
+	 * Producer side: the slot to fill before calling {@link #publish()}. It may hold stale data from an older value.
+	 */
+	public T claim() {
+		return _slots[_back];
+	}
+
+	/**
+	 * Producer side: makes the claimed slot the latest value.
+	 */
+	public void publish() {
+		int previous = _middle.getAndSet(_back | FRESH);
+		if ((previous & FRESH) != 0) {
+			_overwritten++;
+		}
+		_back = previous & INDEX;
+		_published++;
+	}
+
+	/**
+	 * Consumer side: the latest value if one was published since the last call, or null.
+	 */
+	public T poll() {
+		if ((_middle.get() & FRESH) == 0) {
+			return null;
+		}
+		_front = _middle.getAndSet(_front) & INDEX;
+		return _slots[_front];
+	}
+
+	/**
+	 * Consumer side: true if a value is waiting to be polled.
+	 */
+	public boolean hasFresh() {
+		return (_middle.get() & FRESH) != 0;
+	}
+
+	public long getPublishedCount() {
+		return _published;
+	}
+
+	/**
+	 * Values the consumer never saw because a newer one replaced them first.
+	 */
+	public long getOverwrittenCount() {
+		return _overwritten;
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * How the phone is mounted on the robot, picked in the settings ("orientation_key"). Each one reads the tilt off a
+ * different element of the rotation matrix of the (w, x, y, z) rotation vector quaternion.
+ */
+public enum MountOrientation {
+
+	/** Landscape, raised up 90º: roll about the device's x axis. The original mount, and the default. */
+	LANDSCAPE_RAISED,
+
+	/** Portrait, flat on its back: pitch about the device's x axis. */
+	PORTRAIT_FLAT,
+
+	/** Landscape, flat on its back: roll about the device's y axis. */
+	LANDSCAPE_FLAT;
+
+	/**
+	 * Tilt in radians for the rotation vector quaternion (w, x, y, z).
+	 */
+	public float tilt(float w, float x, float y, float z) {
+		switch (this) {
+		case PORTRAIT_FLAT:
+			return FastMath.atan2(2.0f * (y * z + w * x), w * w - x * x - y * y + z * z);
+		case LANDSCAPE_FLAT:
+			return FastMath.asin(-2.0f * (x * z - y * w));
+		default:
+			return FastMath.asin(w * w - x * x - y * y + z * z);
+		}
+	}
+
+	/**
+	 * Rate of the same tilt, in radians per second, for the attitude quaternion (w, x, y, z) and the gyroscope rates in
+	 * device axes. The world's up axis in device axes, the third row of the rotation matrix, turns at v x g; each mount
+	 * differentiates its own tilt formula along it. Landscape raised is -gx when upright, portrait flat +gx and
+	 * landscape flat +gy.
+	 */
+	public float tiltRate(float w, float x, float y, float z, float gx, float gy, float gz) {
+		float vx = 2.0f * (x * z - w * y);
+		float vy = 2.0f * (y * z + w * x);
+		float vz = w * w - x * x - y * y + z * z;
+		switch (this) {
+		case PORTRAIT_FLAT:
+			// d/dt atan2(vy, vz)
+			return (vz * (vz * gx - vx * gz) - vy * (vx * gy - vy * gx)) / Math.max(vy * vy + vz * vz, 1e-6f);
+		case LANDSCAPE_FLAT:
+			// d/dt asin(-vx)
+			return (vz * gy - vy * gz) / (float) Math.sqrt(Math.max(vy * vy + vz * vz, 1e-12f));
+		default:
+			// d/dt asin(vz)
+			return (vx * gy - vy * gx) / (float) Math.sqrt(Math.max(vx * vx + vy * vy, 1e-12f));
+		}
+	}
+
+	/**
+	 * Falls back to LANDSCAPE_RAISED for unknown names.
+	 */
+	public static MountOrientation fromName(String name) {
+		for (MountOrientation orientation : values()) {
+			if (orientation.name().equals(name)) {
+				return orientation;
+			}
+		}
+		return LANDSCAPE_RAISED;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * PI on the tilt error with anti-windup: the integrator is bounded so that its share alone cannot exceed the output
+ * limit, and it stops integrating while the output is saturated in the direction of the error.
+ *
+ * The old PI() in BARActivity mirrored setpoint and input and so doubled the error; the default gains are its
+ * 1.49 / 13.9 expressed against the plain error.
+ */
+public class PIController implements Controller {
+
+	private float _kP = 2.98f;
+	private float _kI = 27.8f;
+	private float _outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+	private float _integral = 0.0f;
+
+	public void setGains(float kP, float kI) {
+		_kP = kP;
+		_kI = kI;
+	}
+
+	public void setOutputLimit(float outputLimit) {
+		_outputLimit = outputLimit;
+	}
+
+	public float getIntegral() {
+		return _integral;
+	}
+
+	@Override
+	public float update(BalanceState state, float dt) {
+		float error = -state.throttle - state.tilt;
+		float integral = _integral + error * dt;
+		if (_kI != 0.0f) {
+			float integralLimit = _outputLimit / Math.abs(_kI);
+			integral = Math.max(-integralLimit, Math.min(integralLimit, integral));
+		}
+
+		float unclamped = _kP * error + _kI * integral;
+		float output = Math.max(-_outputLimit, Math.min(_outputLimit, unclamped));
+		// Conditional integration: keep the new integral unless it pushes further into saturation
+		if (output == unclamped || (error > 0.0f) != (unclamped > 0.0f)) {
+			_integral = integral;
+		}
+		return output;
+	}
+
+	@Override
+	public void reset() {
+		_integral = 0.0f;
+	}
+}
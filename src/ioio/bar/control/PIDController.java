@@ -0,0 +1,81 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * PID on the tilt error. The derivative acts on the measured tilt rate rather than on the error, so throttle steps
+ * do not kick the output, and it goes through a first-order low-pass filter to keep sensor noise out of the
+ * steppers. The integrator has the same anti-windup as {@link PIController}.
+ */
+public class PIDController implements Controller {
+
+	private float _kP = 2.98f;
+	private float _kI = 27.8f;
+	private float _kD = 0.05f;
+	private float _filterSeconds = 0.01f; // derivative low-pass time constant
+	private float _outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+	private float _integral = 0.0f;
+	private float _derivative = 0.0f;
+
+	public void setGains(float kP, float kI, float kD) {
+		_kP = kP;
+		_kI = kI;
+		_kD = kD;
+	}
+
+	public void setDerivativeFilter(float seconds) {
+		_filterSeconds = seconds;
+	}
+
+	public void setOutputLimit(float outputLimit) {
+		_outputLimit = outputLimit;
+	}
+
+	@Override
+	public float update(BalanceState state, float dt) {
+		float error = -state.throttle - state.tilt;
+
+		_derivative += (dt / (_filterSeconds + dt)) * (-state.tiltRate - _derivative);
+
+		float integral = _integral + error * dt;
+		if (_kI != 0.0f) {
+			float integralLimit = _outputLimit / Math.abs(_kI);
+			integral = Math.max(-integralLimit, Math.min(integralLimit, integral));
+		}
+
+		float unclamped = _kP * error + _kI * integral + _kD * _derivative;
+		float output = Math.max(-_outputLimit, Math.min(_outputLimit, unclamped));
+		if (output == unclamped || (error > 0.0f) != (unclamped > 0.0f)) {
+			_integral = integral;
+		}
+		return output;
+	}
+
+	@Override
+	public void reset() {
+		_integral = 0.0f;
+		_derivative = 0.0f;
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * One orientation sample as handed from the sensor thread to the control loop through a {@link Mailbox}.
+ */
+public class SensorSample {
+
+	/** SensorEvent.timestamp, in nanoseconds. */
+	public long timestamp;
+
+	/** System.nanoTime() when onSensorChanged() got the event. */
+	public long receivedNanos;
+
+	/** How old the event already was when onSensorChanged() got it, in nanoseconds. */
+	public long deliveryNanos;
+
+	/** Tilt in radians straight from the sensor, before the balance offset and proximity displacement are applied. */
+	public float tilt;
+
+	/** Tilt rate in radians per second from the gyroscope, or NaN when only the rotation vector is used. */
+	public float tiltRate = Float.NaN;
+
+	/** Rotation vector quaternion the tilt was computed from: w, x, y, z. */
+	public final float[] quaternion = new float[4];
+}
@@ -0,0 +1,66 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Full state feedback (LQR-style) on tilt, tilt rate and wheel speed. The steppers are speed controlled, so the
+ * feedback sets the wheel acceleration and the command is the integrated speed:
+ *
+ * <pre>
+ * d(speed)/dt = -(kTilt * (tilt + throttle) + kRate * tiltRate + kSpeed * speed)
+ * </pre>
+ *
+ * The default gains place the closed-loop poles at -8, -6 and -1.5 rad/s for a linearised pendulum with the centre
+ * of mass 0.35 m above the axle, 0.06 m wheels and 1/16 microstepping (1 output unit = 1.18 m/s). The speed gain
+ * is negative: to slow down the robot first has to lean back, which it gets by briefly speeding up.
+ */
+public class StateFeedbackController implements Controller {
+
+	private float _kTilt = 28.8f;
+	private float _kRate = 5.36f;
+	private float _kSpeed = -2.57f;
+	private float _outputLimit = DEFAULT_OUTPUT_LIMIT;
+
+	public void setGains(float kTilt, float kRate, float kSpeed) {
+		_kTilt = kTilt;
+		_kRate = kRate;
+		_kSpeed = kSpeed;
+	}
+
+	public void setOutputLimit(float outputLimit) {
+		_outputLimit = outputLimit;
+	}
+
+	@Override
+	public float update(BalanceState state, float dt) {
+		float acceleration = -(_kTilt * (state.tilt + state.throttle) + _kRate * state.tiltRate + _kSpeed * state.wheelSpeed);
+		float speed = state.wheelSpeed + acceleration * dt;
+		return Math.max(-_outputLimit, Math.min(_outputLimit, speed));
+	}
+
+	@Override
+	public void reset() {
+		// Stateless: the speed being integrated is the one fed back in BalanceState
+	}
+}
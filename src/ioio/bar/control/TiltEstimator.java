@@ -0,0 +1,77 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Turns a TYPE_ROTATION_VECTOR sample into the robot's tilt for the {@link MountOrientation} the phone is mounted in.
+ * This is plain Java (it does the same conversion as SensorManager.getQuaternionFromVector) so the exact same code
+ * runs on the phone and in the simulator, in float with the {@link FastMath} approximations.
+ *
+ * Not thread-safe: the quaternion buffer is reused from one sample to the next.
+ */
+public class TiltEstimator {
+
+	private final float[] _quaternion = new float[4];
+	private MountOrientation _orientation = MountOrientation.LANDSCAPE_RAISED;
+
+	public void setOrientation(MountOrientation orientation) {
+		_orientation = orientation;
+	}
+
+	public MountOrientation getOrientation() {
+		return _orientation;
+	}
+
+	/**
+	 * Tilt in radians; for the default orientation, the roll of the phone mounted in landscape mode raised up 90º.
+	 */
+	public float estimate(float[] rotationVector) {
+		toQuaternion(rotationVector, _quaternion);
+		float[] q = _quaternion;
+		return _orientation.tilt(q[0], q[1], q[2], q[3]);
+	}
+
+	/**
+	 * Copies the quaternion (w, x, y, z) of the last sample passed to {@link #estimate(float[])}.
+	 */
+	public void getQuaternion(float[] destination) {
+		System.arraycopy(_quaternion, 0, destination, 0, 4);
+	}
+
+	/**
+	 * Same result as SensorManager.getQuaternionFromVector(): w, x, y, z. The w component is optional in the sensor
+	 * output and is derived from the unit norm when missing.
+	 */
+	public static void toQuaternion(float[] rotationVector, float[] quaternion) {
+		if (rotationVector.length >= 4) {
+			quaternion[0] = rotationVector[3];
+		} else {
+			float w = 1 - rotationVector[0] * rotationVector[0] - rotationVector[1] * rotationVector[1] - rotationVector[2] * rotationVector[2];
+			quaternion[0] = (w > 0) ? (float) Math.sqrt(w) : 0;
+		}
+		quaternion[1] = rotationVector[0];
+		quaternion[2] = rotationVector[1];
+		quaternion[3] = rotationVector[2];
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * In-app sensor fusion from raw TYPE_GYROSCOPE and TYPE_ACCELEROMETER samples, as an alternative to the vendor's
+ * TYPE_ROTATION_VECTOR. The accelerometer only corrects the drift; the gyroscope drives the output, so a new estimate
+ * is ready as soon as each gyroscope sample arrives. Implementations neither allocate nor lock and are confined to
+ * the sensor thread.
+ *
+ * Axes are the device's, in SensorEvent units (rad/s and m/s^2).
+ */
+public interface TiltFilter {
+
+	void reset();
+
+	/**
+	 * Latest accelerometer reading, used by the next {@link #update}.
+	 */
+	void setAcceleration(float ax, float ay, float az);
+
+	/**
+	 * Integrates one gyroscope reading over {@code dt} seconds. Does nothing before the first accelerometer reading,
+	 * which gives the initial attitude.
+	 */
+	void update(float gx, float gy, float gz, float dt);
+
+	/**
+	 * False until the first accelerometer reading.
+	 */
+	boolean isReady();
+
+	/**
+	 * Rate of the robot's tilt for the phone mounted this way, in radians per second, from the last gyroscope reading
+	 * with its estimated bias removed. NaN if the filter does not support the mount.
+	 */
+	float getTiltRate(MountOrientation orientation);
+
+	/**
+	 * Attitude as a (w, x, y, z) quaternion in the rotation vector's convention, so {@link TiltEstimator} turns it
+	 * into the same tilt and a flight log replays it like a rotation vector sample.
+	 */
+	void getQuaternion(float[] destination);
+}
@@ -0,0 +1,134 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Compensates the delay between the motion the sensor saw and the step pulses that react to it: vendor fusion lag,
+ * the age of the sample when the loop picks it up, the hold until the next sample, the Sequencer queue and the USB
+ * trip to the IOIO. The looper measures what it can of that delay for every sample and feeds it to
+ * {@link #observeDelay(long)}; {@link #predict} then extrapolates the tilt that far ahead before the controller runs.
+ *
+ * The extrapolation uses the tilt rate smoothed over {@link #RATE_TIME_CONSTANT}: a rate differentiated from 100 Hz
+ * rotation vector tilts carries 0.3 rad/s of noise, which over a 15 ms horizon is more tilt than the robot shows while
+ * balancing. The same goes twice over for a tilt acceleration, so the rate itself is passed through as measured.
+ *
+ * The horizon is whole microseconds and capped at {@link #MAX_HORIZON_MICROS}, so it fits the flight record and a
+ * replay can apply the exact same one. Control loop only.
+ *
+ * It is off unless the experimental "Latency compensation" setting is on, because PredictorCheck shows no gain at which
+ * it makes the robot fall less. With 100 Hz rotation vector tilts the rate is either too noisy or, smoothed, too late. Even with a clean
+ * gyroscope rate, extrapolating over the whole delay also amplifies everything above a few Hz, and that destabilises
+ * high gains sooner than the delay itself.
+ */
+public class TiltPredictor {
+
+	public static final int MAX_HORIZON_MICROS = 50000;
+
+	public static final float RATE_TIME_CONSTANT = 0.16f; // seconds, picked with PredictorCheck
+
+	private boolean _enabled = false;
+	private long _delayNanos = 0; // moving average of the observed delays
+	private int _horizonMicros = 0; // used by the last predict(), 0 when disabled
+	private int _fixedHorizonMicros = -1;
+	private float _smoothRate = 0.0f;
+	private boolean _primed = false;
+
+	public void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * One measurement of the whole sensor-to-actuation delay, in nanoseconds.
+	 */
+	public void observeDelay(long delayNanos) {
+		if (_delayNanos == 0) {
+			_delayNanos = delayNanos;
+		} else {
+			_delayNanos += (delayNanos - _delayNanos) >> 4;
+		}
+	}
+
+	/**
+	 * The estimated delay, whether or not the prediction is enabled.
+	 */
+	public long getDelayNanos() {
+		return _delayNanos;
+	}
+
+	/**
+	 * Predicts with this horizon instead of the estimated delay, e.g. the one recorded in a flight log; -1 goes back to
+	 * the estimate.
+	 */
+	public void setFixedHorizon(int micros) {
+		_fixedHorizonMicros = micros;
+	}
+
+	/**
+	 * Horizon of the last prediction, in microseconds; 0 if it was disabled.
+	 */
+	public int getHorizonMicros() {
+		return _horizonMicros;
+	}
+
+	/**
+	 * Forgets the smoothed rate, e.g. when the controller is reset. The delay estimate is kept.
+	 */
+	public void reset() {
+		_smoothRate = 0.0f;
+		_primed = false;
+		_horizonMicros = 0;
+	}
+
+	/**
+	 * Moves {@code state.tilt} forward by the horizon.
+	 *
+	 * @param dt seconds since the previous sample
+	 */
+	public void predict(BalanceState state, float dt) {
+		if (_primed && dt > 0.0f) {
+			_smoothRate += dt / (RATE_TIME_CONSTANT + dt) * (state.tiltRate - _smoothRate);
+		} else {
+			_smoothRate = state.tiltRate;
+		}
+		_primed = true;
+
+		int micros;
+		if (_fixedHorizonMicros >= 0) {
+			micros = _fixedHorizonMicros;
+		} else if (_enabled) {
+			micros = (int) Math.min((_delayNanos + 500) / 1000, MAX_HORIZON_MICROS);
+		} else {
+			micros = 0;
+		}
+		_horizonMicros = micros;
+		if (micros == 0) {
+			return;
+		}
+		state.tilt += micros * 1e-6f * _smoothRate;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * The loop parameters besides the controller gains that can be tuned while balancing: balance offset, tilt at
+ * which the motors shut down, and the gains of the IR proximity displacement. Immutable, so a writer builds a new
+ * snapshot with the with*() methods and publishes it through a volatile reference; the control loop reads that
+ * reference once per cycle and always sees a consistent set.
+ *
+ * Values that cannot be right are replaced rather than kept, so a bad packet or a corrupted setting never reaches the
+ * loop: NaN and infinite values fall back to the defaults and the offset is clamped to {@link #MAX_OFFSET}.
+ */
+public class Trims {
+
+	public static final float IR_KP = 0.0065f;
+	public static final float IR_KI = 0.03f;
+
+	/** Largest offset either way, in radians (5º), the same range BalancePointEstimator learns in. */
+	public static final float MAX_OFFSET = BalancePointEstimator.MAX_CORRECTION;
+
+	/** Accepted range of the balance limit, in radians (10º to 45º). */
+	public static final float MIN_BALANCE_LIMIT = 0.17453293f;
+	public static final float MAX_BALANCE_LIMIT = 0.78539816f;
+
+	public final float offset;
+	public final float balanceLimit;
+	public final float irKP;
+	public final float irKI;
+
+	public Trims(float offset, float balanceLimit, float irKP, float irKI) {
+		this.offset = isFinite(offset) ? Math.max(-MAX_OFFSET, Math.min(MAX_OFFSET, offset)) : 0.0f;
+		this.balanceLimit = Float.isNaN(balanceLimit) ? BalanceLoop.BALANCE_LIMIT
+				: Math.max(MIN_BALANCE_LIMIT, Math.min(MAX_BALANCE_LIMIT, balanceLimit));
+		this.irKP = isFinite(irKP) ? irKP : IR_KP;
+		this.irKI = isFinite(irKI) ? irKI : IR_KI;
+	}
+
+	public static boolean isFinite(float value) {
+		return !Float.isNaN(value) && !Float.isInfinite(value);
+	}
+
+	public static Trims getDefault() {
+		return new Trims(0.0f, BalanceLoop.BALANCE_LIMIT, IR_KP, IR_KI);
+	}
+
+	/**
+	 * Clamped to &plusmn;{@link #MAX_OFFSET}.
+	 */
+	public Trims withOffset(float offset) {
+		return new Trims(offset, balanceLimit, irKP, irKI);
+	}
+
+	/**
+	 * Clamped to {@link #MIN_BALANCE_LIMIT} - {@link #MAX_BALANCE_LIMIT}.
+	 */
+	public Trims withBalanceLimit(float balanceLimit) {
+		return new Trims(offset, balanceLimit, irKP, irKI);
+	}
+
+	public Trims withIRGains(float irKP, float irKI) {
+		return new Trims(offset, balanceLimit, irKP, irKI);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("offset=%.2fº limit=%.1fº ir.kP=%s ir.kI=%s", Math.toDegrees(offset), Math.toDegrees(balanceLimit), irKP, irKI);
+	}
+}
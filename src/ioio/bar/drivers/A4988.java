@@ -33,36 +33,139 @@ import ioio.lib.api.IOIO;
 import ioio.lib.api.Sequencer;
 import ioio.lib.api.exception.ConnectionLostException;
 
+/**
+ * Drives an A4988 in step/dir mode from Sequencer cues, switching between 1/16, 1/8 and 1/4 microstepping as the
+ * speed rises so the step period keeps a useful resolution. Like in {@link DRV8834}, the MS1-MS3 pins are Sequencer
+ * channels so a mode switch lands in the same cue as the rescaled period.
+ */
 public class A4988 {
 	
 	public static final float STEPS_FREQ = 62500;
+
+	public static final float MIN_SPEED = 10; // 1/16 microsteps per second
+	public static final float MAX_SPEED = STEPS_FREQ / 3;
+
+	// Microstep modes, finest first, and their MS1/MS2/MS3 levels
+	private static final int[] MICROSTEPS = { 16, 8, 4 };
+	private static final boolean[] MS1_LEVELS = { true, true, false };
+	private static final boolean[] MS2_LEVELS = { true, true, true };
+	private static final boolean[] MS3_LEVELS = { true, false, false };
+
+	private static final float UPSHIFT_RATE = 3000;
+	private static final float DOWNSHIFT_RATE = 2400;
+
+	// Default speed profile limits, per second and per second squared in setSpeed() units. The acceleration is what
+	// the higher supply voltage of A4988 setups can follow without slipping, with some margin.
+	public static final float MAX_ACCELERATION = 25;
+	public static final float MAX_JERK = 2500;
 	
 	private final Sequencer.ChannelCueBinary dir_;
 	private final Sequencer.ChannelCueFmSpeed stp_;
+	private final Sequencer.ChannelCueBinary ms1_;
+	private final Sequencer.ChannelCueBinary ms2_;
+	private final Sequencer.ChannelCueBinary ms3_;
 	private final DigitalOutput slp_;
+	private final MicrostepSelector microstepping_ = new MicrostepSelector(MICROSTEPS, UPSHIFT_RATE, DOWNSHIFT_RATE);
+	private final PeriodDither dither_ = new PeriodDither(STEPS_FREQ);
+	private final SpeedProfiler profiler_ = new SpeedProfiler(MAX_ACCELERATION, MAX_JERK);
 
-	public A4988(IOIO ioio, int startPin, Sequencer.ChannelCueFmSpeed step,
-			Sequencer.ChannelCueBinary dir) throws ConnectionLostException {
+	/**
+	 * The pins from startPin + 4 to startPin + 6 (MS3, MS2, MS1) must be configured as the binary Sequencer channels
+	 * behind {@code ms3}, {@code ms2} and {@code ms1}.
+	 */
+	public A4988(IOIO ioio, int startPin, Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir,
+			Sequencer.ChannelCueBinary ms1, Sequencer.ChannelCueBinary ms2, Sequencer.ChannelCueBinary ms3)
+			throws ConnectionLostException {
+		this(ioio.openDigitalOutput(startPin + 2, false), step, dir, ms1, ms2, ms3);
+		ioio.openDigitalOutput(startPin + 3, true);  // rst
+		ioio.openDigitalOutput(startPin + 7, false); // en
+	}
+
+	/**
+	 * Drives already opened (or simulated) outputs. The reset and enable pins are left to the caller.
+	 */
+	public A4988(DigitalOutput sleep, Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir,
+			Sequencer.ChannelCueBinary ms1, Sequencer.ChannelCueBinary ms2, Sequencer.ChannelCueBinary ms3) {
 		dir_ = dir;
 		stp_ = step;
 		stp_.period = 0;
-		slp_ = ioio.openDigitalOutput(startPin + 2, false);
-		ioio.openDigitalOutput(startPin + 3, true);  // rst
-		ioio.openDigitalOutput(startPin + 4, true);  // ms3
-		ioio.openDigitalOutput(startPin + 5, true);  // ms2
-		ioio.openDigitalOutput(startPin + 6, true);  // ms1
-		ioio.openDigitalOutput(startPin + 7, false); // en
+		ms1_ = ms1;
+		ms2_ = ms2;
+		ms3_ = ms3;
+		setMode(0);
+		slp_ = sleep;
 	}
 
 	public void setEnable(boolean en) throws ConnectionLostException {
 		slp_.write(en);
 	}
 
+	/**
+	 * @param speed 1/16 microsteps per second divided by 10000, whatever the microstep mode actually used
+	 */
 	public void setSpeed(float speed) throws ConnectionLostException {
-		dir_.value = (speed > 0);
+		boolean forward = (speed > 0);
+		if (forward != dir_.value) {
+			dither_.reset();
+		}
+		dir_.value = forward;
 		speed = Math.abs(speed) * 10000;
-		if (speed < 10) speed = 10;
-		if (speed > STEPS_FREQ / 3) speed = STEPS_FREQ / 3;
-		stp_.period = Math.round(STEPS_FREQ / speed);
+		if (speed < MIN_SPEED) speed = MIN_SPEED;
+		if (speed > MAX_SPEED) speed = MAX_SPEED;
+		long switches = microstepping_.getSwitchCount();
+		int mode = microstepping_.select(speed);
+		if (microstepping_.getSwitchCount() != switches) {
+			dither_.reset();
+		}
+		setMode(mode);
+		stp_.period = dither_.period(microstepping_.pulseRate(speed, mode));
+	}
+
+	/**
+	 * Same as setSpeed(), after passing the speed through the driver's {@link SpeedProfiler} so the motor is never
+	 * asked for more acceleration or jerk than it can follow.
+	 *
+	 * @param dt seconds since the previous call
+	 */
+	public void setProfiledSpeed(float speed, float dt) throws ConnectionLostException {
+		setSpeed(profiler_.update(speed, dt));
+	}
+
+	public SpeedProfiler getProfiler() {
+		return profiler_;
+	}
+
+	/**
+	 * Cues no step pulses at all, as opposed to setSpeed(0) which still steps at the minimum rate.
+	 */
+	public void stop() {
+		stp_.period = 0;
+		dither_.reset();
+		profiler_.reset();
+	}
+
+	/**
+	 * Microsteps per full step of the mode picked by the last setSpeed(): 16, 8 or 4.
+	 */
+	public int getMicrosteps() {
+		return microstepping_.getMicrosteps();
+	}
+
+	public long getMicrostepSwitchCount() {
+		return microstepping_.getSwitchCount();
+	}
+
+	/**
+	 * Dithers the step period between its two nearest values so the average speed matches the requested one. On by
+	 * default; when off the period is just rounded.
+	 */
+	public void setDithering(boolean enabled) {
+		dither_.setEnabled(enabled);
+	}
+
+	private void setMode(int mode) {
+		ms1_.value = MS1_LEVELS[mode];
+		ms2_.value = MS2_LEVELS[mode];
+		ms3_.value = MS3_LEVELS[mode];
 	}
 }
@@ -0,0 +1,102 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads IOIO analog inputs in buffered mode on a thread of its own, so the control loop only ever reads the filtered
+ * values of the {@link FilteredAnalogInput}s and never waits on the IOIO. The firmware samples every open analog pin
+ * at 1 kHz; buffering hands over each sample instead of just the latest, so the filters see them all.
+ */
+public class AnalogSampler implements Runnable {
+
+	public static final int BUFFER_SAMPLES = 64; // 64 ms at 1 kHz
+
+	private final List<FilteredAnalogInput> _channels = new ArrayList<FilteredAnalogInput>();
+	private Thread _thread = null;
+
+	/**
+	 * Opens {@code pin} (e.g. Arduino.PIN_AD4) for buffered sampling. Add every channel before start().
+	 *
+	 * @param medianWindow samples in the spike-rejecting median, odd
+	 * @param timeConstant of the moving average after it, in seconds
+	 */
+	public FilteredAnalogInput open(IOIO ioio, int pin, int medianWindow, float timeConstant) throws ConnectionLostException {
+		if (_thread != null) {
+			throw new IllegalStateException("The sampler is already running");
+		}
+		AnalogInput input = ioio.openAnalogInput(pin);
+		FilteredAnalogInput channel = new FilteredAnalogInput(input, medianWindow, timeConstant);
+		channel.open(BUFFER_SAMPLES);
+		_channels.add(channel);
+		return channel;
+	}
+
+	public void start() {
+		_thread = new Thread(this, AnalogSampler.class.getSimpleName());
+		_thread.start();
+	}
+
+	/**
+	 * Stops the thread and closes the inputs.
+	 */
+	public void stop() {
+		if (_thread != null) {
+			_thread.interrupt();
+			try {
+				_thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_thread = null;
+		}
+		for (FilteredAnalogInput channel : _channels) {
+			channel.close();
+		}
+		_channels.clear();
+	}
+
+	@Override
+	public void run() {
+		// All channels are sampled together, so taking one sample from each in turn keeps up with every one of them
+		int count = _channels.size();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				for (int i = 0; i < count; i++) {
+					_channels.get(i).sample();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop()
+		} catch (ConnectionLostException e) {
+			// The IOIO disconnected; the looper's disconnected() calls stop()
+		}
+	}
+}
@@ -28,10 +28,40 @@ import ioio.lib.api.IOIO;
 import ioio.lib.api.Sequencer;
 import ioio.lib.api.exception.ConnectionLostException;
 
+/**
+ * Drives a DRV8834 in step/dir mode from Sequencer cues. The microstep mode follows the commanded speed: 1/16 at low
+ * speed and 1/8 once the step pulses would get faster than the driver's limit allows, which doubles the top speed.
+ *
+ * The M0/M1 mode pins are Sequencer channels too, so a mode switch reaches the driver in the same cue as the
+ * rescaled step period and the wheel speed stays continuous across it. The DRV8834 applies a new mode at the next
+ * STEP edge and moves its indexer on to the next position that is valid in that mode, so no phase is lost.
+ */
 public class DRV8834 {
 	
 	public static final float STEPS_FREQ = 62500;
 
+	public static final float MIN_SPEED = 50; // 1/16 microsteps per second
+	public static final float MAX_PULSE_RATE = 3620; // step pulses per second
+
+	// Microstep modes, finest first, and their M0/M1 levels. 1/4 and 1/32 need M0 left floating, so they are not used.
+	private static final int[] MICROSTEPS = { 16, 8 };
+	private static final boolean[] M0_LEVELS = { true, false };
+	private static final boolean[] M1_LEVELS = { true, true };
+
+	// Switch to 1/8 above this many pulses per second at 1/16, and back below the lower rate
+	private static final float UPSHIFT_RATE = 3000;
+	private static final float DOWNSHIFT_RATE = 2400;
+
+	// Default speed profile limits, per second and per second squared in setSpeed() units. The acceleration is what
+	// the NEMA-17s on the DRV8834's low voltage can follow without slipping, with some margin.
+	public static final float MAX_ACCELERATION = 15;
+	public static final float MAX_JERK = 1500;
+
+	/**
+	 * Largest speed setSpeed() accepts, in 1/16 microsteps per second.
+	 */
+	public static final float MAX_SPEED = MAX_PULSE_RATE * MICROSTEPS[0] / MICROSTEPS[MICROSTEPS.length - 1];
+
 	
 	/*
 	M0     -> IOIO:  3 / Shield: 3
@@ -50,33 +80,104 @@ public class DRV8834 {
 	
 	private final Sequencer.ChannelCueBinary _dir;
 	private final Sequencer.ChannelCueFmSpeed _step;
+	private final Sequencer.ChannelCueBinary _m0;
+	private final Sequencer.ChannelCueBinary _m1;
 	private final DigitalOutput _sleep;
+	private final MicrostepSelector _microstepping = new MicrostepSelector(MICROSTEPS, UPSHIFT_RATE, DOWNSHIFT_RATE);
+	private final PeriodDither _dither = new PeriodDither(STEPS_FREQ);
+	private final SpeedProfiler _profiler = new SpeedProfiler(MAX_ACCELERATION, MAX_JERK);
 
-	public DRV8834(IOIO ioio, int[] pins, Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir) throws ConnectionLostException {
+	public DRV8834(IOIO ioio, int sleepPin, Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir,
+			Sequencer.ChannelCueBinary m0, Sequencer.ChannelCueBinary m1) throws ConnectionLostException {
+		this(ioio.openDigitalOutput(sleepPin, false), step, dir, m0, m1);
+		// NOTE: The default state of the ENBL pin is to enable the driver, so this pin can be left disconnected.
+	}
+
+	/**
+	 * Drives already opened (or simulated) outputs.
+	 */
+	public DRV8834(DigitalOutput sleep, Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir,
+			Sequencer.ChannelCueBinary m0, Sequencer.ChannelCueBinary m1) {
 		this._dir = dir;
 		this._step = step;
+		this._m0 = m0;
+		this._m1 = m1;
 		step.period = 0;
 
-		// NOTE: The default state of the ENBL pin is to enable the driver, so this pin can be left disconnected.
 		//-------------------------------------------
 		// For 1/8  microstep set M0(Low) + M1(High)
 		// For 1/16 microstep set M0(High) + M1(High)
 		//-------------------------------------------
-		ioio.openDigitalOutput(pins[0], true); // M0
-		ioio.openDigitalOutput(pins[1], true); // M1
-		
-		_sleep = ioio.openDigitalOutput(pins[2], false);
+		m0.value = M0_LEVELS[0];
+		m1.value = M1_LEVELS[0];
+		_sleep = sleep;
 	}
 
 	public void setEnable(boolean en) throws ConnectionLostException {
 		_sleep.write(en);
 	}
 	
+	/**
+	 * @param speed 1/16 microsteps per second divided by 10000, whatever the microstep mode actually used
+	 */
 	public void setSpeed(float speed) throws ConnectionLostException {
-		_dir.value = (speed > 0);
+		boolean forward = (speed > 0);
+		if (forward != _dir.value) {
+			_dither.reset();
+		}
+		_dir.value = forward;
 		speed = Math.abs(speed) * 10000;
-		if (speed < 50) speed = 50;
-		if (speed > 3620) speed = 3620;
-		_step.period = Math.round(STEPS_FREQ / speed);
+		if (speed < MIN_SPEED) speed = MIN_SPEED;
+		if (speed > MAX_SPEED) speed = MAX_SPEED;
+		long switches = _microstepping.getSwitchCount();
+		int mode = _microstepping.select(speed);
+		if (_microstepping.getSwitchCount() != switches) {
+			_dither.reset();
+		}
+		_m0.value = M0_LEVELS[mode];
+		_m1.value = M1_LEVELS[mode];
+		_step.period = _dither.period(_microstepping.pulseRate(speed, mode));
+	}
+
+	/**
+	 * Same as setSpeed(), after passing the speed through the driver's {@link SpeedProfiler} so the motor is never
+	 * asked for more acceleration or jerk than it can follow.
+	 *
+	 * @param dt seconds since the previous call
+	 */
+	public void setProfiledSpeed(float speed, float dt) throws ConnectionLostException {
+		setSpeed(_profiler.update(speed, dt));
+	}
+
+	public SpeedProfiler getProfiler() {
+		return _profiler;
+	}
+
+	/**
+	 * Cues no step pulses at all, as opposed to setSpeed(0) which still steps at the minimum rate.
+	 */
+	public void stop() {
+		_step.period = 0;
+		_dither.reset();
+		_profiler.reset();
+	}
+
+	/**
+	 * Microsteps per full step of the mode picked by the last setSpeed(): 16 or 8.
+	 */
+	public int getMicrosteps() {
+		return _microstepping.getMicrosteps();
+	}
+
+	public long getMicrostepSwitchCount() {
+		return _microstepping.getSwitchCount();
+	}
+
+	/**
+	 * Dithers the step period between its two nearest values so the average speed matches the requested one. On by
+	 * default; when off the period is just rounded.
+	 */
+	public void setDithering(boolean enabled) {
+		_dither.setEnabled(enabled);
 	}
 }
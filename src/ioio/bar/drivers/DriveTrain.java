@@ -0,0 +1,72 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * The two wheel motors as the balance loop sees them: one speed for the body plus a steering difference. The left
+ * motor is mounted mirrored, so it turns the opposite way for the same speed. BalancerLooper, the simulator and the
+ * replay tool all drive the motors through here, so they cue exactly the same step periods for the same outputs.
+ */
+public class DriveTrain {
+
+	private final DRV8834 _left;
+	private final DRV8834 _right;
+
+	public DriveTrain(DRV8834 left, DRV8834 right) {
+		_left = left;
+		_right = right;
+	}
+
+	/**
+	 * Enables the drivers and cues the profiled wheel speeds.
+	 *
+	 * @param dt seconds the cued speeds will last
+	 */
+	public void drive(float speed, float steering, float dt) throws ConnectionLostException {
+		_left.setEnable(true);
+		_right.setEnable(true);
+		_left.setProfiledSpeed(-speed - steering, dt);
+		_right.setProfiledSpeed(speed - steering, dt);
+	}
+
+	/**
+	 * Puts the drivers to sleep and cues no steps.
+	 */
+	public void stop() throws ConnectionLostException {
+		_left.setEnable(false);
+		_right.setEnable(false);
+		_left.stop();
+		_right.stop();
+	}
+
+	public DRV8834 getLeft() {
+		return _left;
+	}
+
+	public DRV8834 getRight() {
+		return _right;
+	}
+}
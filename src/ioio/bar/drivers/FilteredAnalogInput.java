@@ -0,0 +1,120 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * One buffered analog channel of an {@link AnalogSampler}. Every sample the IOIO takes goes through a short median,
+ * which drops the single-sample spikes IR sensors are prone to, then an exponential moving average. The result is
+ * published for other threads to read with no I/O.
+ */
+public class FilteredAnalogInput {
+
+	private final AnalogInput _input;
+	private final float[] _window;
+	private final float[] _sorted;
+	private final float _timeConstant;
+	private float _alpha = 1.0f;
+	private int _filled = 0;
+	private int _next = 0;
+	private float _average = 0.0f;
+
+	private volatile float _value = 0.0f;
+	private volatile long _samples = 0;
+
+	/**
+	 * @param medianWindow samples in the median, odd
+	 * @param timeConstant of the moving average, in seconds
+	 */
+	FilteredAnalogInput(AnalogInput input, int medianWindow, float timeConstant) {
+		if (medianWindow < 1 || (medianWindow & 1) == 0) {
+			throw new IllegalArgumentException("The median window must be odd, not " + medianWindow);
+		}
+		_input = input;
+		_window = new float[medianWindow];
+		_sorted = new float[medianWindow];
+		_timeConstant = timeConstant;
+	}
+
+	/**
+	 * Filtered voltage, 0 until the median window has filled up.
+	 */
+	public float getVoltage() {
+		return _value;
+	}
+
+	public long getSampleCount() {
+		return _samples;
+	}
+
+	public int getOverflowCount() throws ConnectionLostException {
+		return _input.getOverflowCount();
+	}
+
+	void open(int bufferSamples) throws ConnectionLostException {
+		_input.setBuffer(bufferSamples);
+		float dt = 1.0f / _input.getSampleRate();
+		_alpha = dt / (_timeConstant + dt);
+	}
+
+	/**
+	 * Waits for the next buffered sample and filters it.
+	 */
+	void sample() throws InterruptedException, ConnectionLostException {
+		float voltage = _input.getVoltageBuffered();
+		_window[_next] = voltage;
+		_next = (_next + 1) % _window.length;
+		_samples++;
+		if (_filled < _window.length) {
+			// A lone spike could be its own median: publish nothing until the window is full
+			if (++_filled < _window.length) {
+				return;
+			}
+			_average = median();
+		} else {
+			_average += _alpha * (median() - _average);
+		}
+		_value = _average;
+	}
+
+	void close() {
+		_input.close();
+	}
+
+	private float median() {
+		// Insertion sort: the window is a handful of samples
+		for (int i = 0; i < _window.length; i++) {
+			float value = _window[i];
+			int j = i - 1;
+			while (j >= 0 && _sorted[j] > value) {
+				_sorted[j + 1] = _sorted[j];
+				j--;
+			}
+			_sorted[j + 1] = value;
+		}
+		return _sorted[_window.length / 2];
+	}
+}
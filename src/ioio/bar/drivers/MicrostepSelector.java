@@ -0,0 +1,84 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+/**
+ * Picks the microstep mode of a stepper driver from the commanded speed. At low speed the finest mode gives the
+ * smoothest motion; as the speed rises the step pulses get closer together, the 62.5 kHz period quantisation gets
+ * coarser and the pulse rate runs into the driver's limit, so a coarser mode is used to halve (or more) the pulse
+ * rate for the same wheel speed.
+ *
+ * Switching is done with hysteresis: a mode is left for a coarser one when its pulse rate goes above the upshift
+ * rate, and only taken back once its pulse rate would be below the lower downshift rate, so a speed that hovers
+ * around a threshold does not make the mode chatter.
+ */
+class MicrostepSelector {
+
+	private final int[] _microsteps; // microsteps per full step of each mode, finest first
+	private final float _upshiftRate;
+	private final float _downshiftRate;
+
+	private int _mode = 0;
+	private long _switches = 0;
+
+	MicrostepSelector(int[] microsteps, float upshiftRate, float downshiftRate) {
+		_microsteps = microsteps;
+		_upshiftRate = upshiftRate;
+		_downshiftRate = downshiftRate;
+	}
+
+	/**
+	 * @param speed microsteps per second of the finest mode
+	 * @return the index of the mode to use
+	 */
+	int select(float speed) {
+		int mode = _mode;
+		while (mode < _microsteps.length - 1 && pulseRate(speed, mode) > _upshiftRate) {
+			mode++;
+		}
+		while (mode > 0 && pulseRate(speed, mode - 1) < _downshiftRate) {
+			mode--;
+		}
+		if (mode != _mode) {
+			_mode = mode;
+			_switches++;
+		}
+		return mode;
+	}
+
+	/**
+	 * Step pulses per second that give {@code speed} (in finest microsteps per second) in the given mode.
+	 */
+	float pulseRate(float speed, int mode) {
+		return speed * _microsteps[mode] / _microsteps[0];
+	}
+
+	int getMicrosteps() {
+		return _microsteps[_mode];
+	}
+
+	long getSwitchCount() {
+		return _switches;
+	}
+}
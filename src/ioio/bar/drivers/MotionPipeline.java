@@ -0,0 +1,224 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+import ioio.lib.api.Sequencer;
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Feeds the stepper cues to the IOIO Sequencer queue instead of starting each one manually. A short lookahead of
+ * timed cues stays queued on the board, each lasting one control period, so the step output keeps going at the last
+ * commanded speed when a USB transfer or the control thread runs late, instead of stalling until the next manual
+ * start gets through.
+ *
+ * The refill policy tops the queue up to {@link #getDepth()} cues on every cycle: normally one cue is pushed per
+ * period, more if the board has drained some while the host was late, and none if the loop ran early (for instance
+ * woken up by a sensor sample) and the lookahead is already full. A pass that finds the queue empty while running is
+ * an underrun, i.e. the board ran out of cues and the motors paused.
+ *
+ * Only the cues that are pushed ever play, so {@link #prepare()} says how many there will be and the caller computes
+ * each one, speed profile and period dithering included, over {@link #getCueSeconds()} right before pushing it.
+ *
+ * Manual mode is only used for the emergency stop, which drops whatever is queued so the motors stop at once.
+ *
+ * Not thread-safe; it belongs to the IOIO looper thread.
+ */
+public class MotionPipeline {
+
+	public static final int DEFAULT_DEPTH = 2;
+
+	private static final long NANOS_PER_TICK = 16000L; // cue durations count 62.5 kHz ticks
+	private static final int MIN_DURATION = 2;
+	private static final int MAX_DURATION = 65536;
+
+	private static final int STOPPED = 0;
+	private static final int RUNNING = 1;
+	private static final int MANUAL = 2;
+
+	private final Sequencer _sequencer;
+	private final int _capacity;
+	private int _depth = DEFAULT_DEPTH;
+	private int _duration;
+	private int _state = STOPPED;
+
+	private int _queued = 0;
+	private int _minQueued = Integer.MAX_VALUE;
+	private long _pushed = 0;
+	private long _underruns = 0;
+	private long _skipped = 0;
+	private long _emergencyStops = 0;
+
+	/**
+	 * @param sequencer a freshly opened sequencer, so its whole queue is still available
+	 */
+	public MotionPipeline(Sequencer sequencer, long periodNanos) throws ConnectionLostException {
+		_sequencer = sequencer;
+		_capacity = sequencer.available();
+		setPeriodNanos(periodNanos);
+	}
+
+	/**
+	 * How long each cue lasts; normally the control loop period.
+	 */
+	public void setPeriodNanos(long periodNanos) {
+		_duration = toTicks(periodNanos);
+	}
+
+	/**
+	 * How long each cue plays, in seconds: the period rounded down to whole sequencer ticks.
+	 */
+	public float getCueSeconds() {
+		return _duration * NANOS_PER_TICK * 1e-9f;
+	}
+
+	/**
+	 * Same, for cues of this period, e.g. one recorded in a flight log.
+	 */
+	public static float getCueSeconds(long periodNanos) {
+		return toTicks(periodNanos) * NANOS_PER_TICK * 1e-9f;
+	}
+
+	private static int toTicks(long periodNanos) {
+		long duration = periodNanos / NANOS_PER_TICK;
+		return (int) Math.max(MIN_DURATION, Math.min(MAX_DURATION, duration));
+	}
+
+	public int getDepth() {
+		return _depth;
+	}
+
+	/**
+	 * Number of cues kept queued ahead. Each one adds a control period of latency between a command and the motors.
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1 || depth > _capacity) {
+			throw new IllegalArgumentException("Depth must be between 1 and " + _capacity + ": " + depth);
+		}
+		_depth = depth;
+	}
+
+	/**
+	 * Starts a cycle's refill, leaving the manual mode of an emergency stop, and returns how many cues to
+	 * {@link #push} now. Sequencer.push() blocks while the board's queue is full, so this never counts more than the
+	 * slots available() reported free, and the pushes never wait.
+	 */
+	public int prepare() throws ConnectionLostException {
+		if (_state == MANUAL) {
+			_sequencer.manualStop();
+			_state = STOPPED;
+		}
+
+		int free = _sequencer.available();
+		_queued = _capacity - free;
+		if (_state == RUNNING) {
+			if (_queued == 0) {
+				_underruns++;
+			}
+			if (_queued < _minQueued) {
+				_minQueued = _queued;
+			}
+		}
+
+		if (_queued >= _depth) {
+			_skipped++;
+			return 0;
+		}
+		return Math.min(_depth - _queued, free);
+	}
+
+	/**
+	 * Queues one cue lasting {@link #getCueSeconds()}; at most as many as the last {@link #prepare()} returned.
+	 */
+	public void push(Sequencer.ChannelCue[] cues) throws ConnectionLostException, InterruptedException {
+		_sequencer.push(cues, _duration);
+		_queued++;
+		_pushed++;
+	}
+
+	/**
+	 * Starts the sequencer once the first cues are queued, and again after an emergency stop.
+	 */
+	public void start() throws ConnectionLostException {
+		if (_state == STOPPED && _queued > 0) {
+			_sequencer.start();
+			_state = RUNNING;
+		}
+	}
+
+	/**
+	 * Discards the queued cues and holds the given ones (normally no step pulses) in manual mode until the next
+	 * {@link #prepare()}.
+	 */
+	public void emergencyStop(Sequencer.ChannelCue[] cues) throws ConnectionLostException {
+		if (_state == MANUAL) {
+			return;
+		}
+		if (_state == RUNNING) {
+			_sequencer.stop();
+		}
+		_sequencer.manualStart(cues);
+		_state = MANUAL;
+		_queued = 0;
+		_emergencyStops++;
+	}
+
+	/**
+	 * Queue depth seen by the last prepare(), before refilling.
+	 */
+	public int getQueued() {
+		return _queued;
+	}
+
+	/**
+	 * Lowest queue depth seen while running; 0 means there has been at least one underrun.
+	 */
+	public int getMinQueued() {
+		return (_minQueued == Integer.MAX_VALUE) ? _depth : _minQueued;
+	}
+
+	public long getPushedCount() {
+		return _pushed;
+	}
+
+	public long getUnderrunCount() {
+		return _underruns;
+	}
+
+	/**
+	 * Cycles that found the lookahead already full, so they queued nothing.
+	 */
+	public long getSkippedCount() {
+		return _skipped;
+	}
+
+	public long getEmergencyStopCount() {
+		return _emergencyStops;
+	}
+
+	@Override
+	public String toString() {
+		return "depth=" + _depth + "/" + _capacity + " duration=" + _duration + " pushed=" + _pushed + " underruns=" + _underruns
+				+ " minQueued=" + getMinQueued() + " skipped=" + _skipped + " emergencyStops=" + _emergencyStops;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+/**
+ * Turns a step pulse rate into an FM speed period with first-order sigma-delta dithering. A period is a whole number
+ * of clock ticks, so only rates of clock / n can be produced exactly; near the top speed neighbouring ones are several
+ * percent apart. Instead of always rounding the same way, the rate error of each period is carried over to the next,
+ * which then rounds to the other neighbour when the error has built up. Averaged over a few cues, the pulse rate
+ * follows the requested one to a small fraction of a period step.
+ *
+ * The carried error is in pulses per second of the current microstep mode, so it must be cleared whenever the mode
+ * or the direction changes.
+ */
+class PeriodDither {
+
+	private final float _clockFrequency;
+	private boolean _enabled = true;
+	private float _residual = 0.0f; // pulses per second still owed by the previous periods
+
+	PeriodDither(float clockFrequency) {
+		_clockFrequency = clockFrequency;
+	}
+
+	void setEnabled(boolean enabled) {
+		_enabled = enabled;
+		_residual = 0.0f;
+	}
+
+	boolean isEnabled() {
+		return _enabled;
+	}
+
+	int period(float pulseRate) {
+		if (!_enabled) {
+			return Math.round(_clockFrequency / pulseRate);
+		}
+		float target = pulseRate + _residual;
+		int period = Math.round(_clockFrequency / target);
+		_residual = target - _clockFrequency / period;
+		return period;
+	}
+
+	void reset() {
+		_residual = 0.0f;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.drivers;
+
+/**
+ * Shapes the speed commands of one motor into a jerk-limited trapezoidal profile. A stepper cannot follow an
+ * instantaneous speed jump: it slips and misses steps, and the tilt loop then has to correct for wheel motion it
+ * never commanded. Each update moves the output towards the requested speed with the acceleration limited to
+ * {@link #getMaxAcceleration()}, and the acceleration itself changing by at most {@link #getMaxJerk()} per second,
+ * easing off early enough to reach the requested speed without overshooting it.
+ *
+ * Speeds are in the units the drivers' setSpeed() takes; accelerations are per second and jerks per second squared.
+ * Not thread-safe, and nothing is allocated after construction.
+ */
+public class SpeedProfiler {
+
+	private float _maxAcceleration;
+	private float _maxJerk;
+
+	private float _speed = 0.0f;
+	private float _acceleration = 0.0f;
+
+	private long _updates = 0;
+	private long _accelerationLimited = 0;
+	private long _jerkLimited = 0;
+
+	public SpeedProfiler(float maxAcceleration, float maxJerk) {
+		setLimits(maxAcceleration, maxJerk);
+	}
+
+	public void setLimits(float maxAcceleration, float maxJerk) {
+		if (maxAcceleration <= 0 || maxJerk <= 0) {
+			throw new IllegalArgumentException("Limits must be positive: " + maxAcceleration + ", " + maxJerk);
+		}
+		_maxAcceleration = maxAcceleration;
+		_maxJerk = maxJerk;
+	}
+
+	public float getMaxAcceleration() {
+		return _maxAcceleration;
+	}
+
+	public float getMaxJerk() {
+		return _maxJerk;
+	}
+
+	/**
+	 * @param target requested speed
+	 * @param dt seconds since the previous update
+	 * @return the speed to command now
+	 */
+	public float update(float target, float dt) {
+		_updates++;
+		if (dt <= 0) {
+			return _speed;
+		}
+		float error = target - _speed;
+		float distance = Math.abs(error);
+
+		// Acceleration that would close the gap this update, limited so it can still be eased back to zero in time
+		float wanted = distance / dt;
+		float easing = (float) Math.sqrt(2 * _maxJerk * distance);
+		if (easing < wanted) {
+			wanted = easing;
+		}
+		if (wanted > _maxAcceleration) {
+			wanted = _maxAcceleration;
+			_accelerationLimited++;
+		}
+		if (error < 0) {
+			wanted = -wanted;
+		}
+
+		float change = wanted - _acceleration;
+		float maxChange = _maxJerk * dt;
+		if (change > maxChange) {
+			change = maxChange;
+			_jerkLimited++;
+		} else if (change < -maxChange) {
+			change = -maxChange;
+			_jerkLimited++;
+		}
+		_acceleration += change;
+
+		float speed = _speed + _acceleration * dt;
+		if ((target - speed) * error <= 0) {
+			// Reached or passed the target
+			speed = target;
+			_acceleration = 0.0f;
+		}
+		_speed = speed;
+		return speed;
+	}
+
+	/**
+	 * Restarts from standstill, e.g. after the motors were stopped.
+	 */
+	public void reset() {
+		_speed = 0.0f;
+		_acceleration = 0.0f;
+	}
+
+	public float getSpeed() {
+		return _speed;
+	}
+
+	public long getUpdateCount() {
+		return _updates;
+	}
+
+	/**
+	 * Updates whose acceleration was capped by the acceleration limit.
+	 */
+	public long getAccelerationLimitedCount() {
+		return _accelerationLimited;
+	}
+
+	/**
+	 * Updates whose acceleration change was capped by the jerk limit.
+	 */
+	public long getJerkLimitedCount() {
+		return _jerkLimited;
+	}
+
+	@Override
+	public String toString() {
+		return "acceleration<=" + _maxAcceleration + " jerk<=" + _maxJerk + " updates=" + _updates + " accelerationLimited="
+				+ _accelerationLimited + " jerkLimited=" + _jerkLimited;
+	}
+}
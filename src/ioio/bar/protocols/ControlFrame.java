@@ -0,0 +1,116 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One compact binary control update: everything the remote sends, in a fixed 14-byte frame instead of an OSC message
+ * per fader. Throttle and steering arrive together, so they can never be applied half-updated.
+ *
+ * <pre>
+ * offset size
+ *  0     1    MAGIC (0xBA), which no OSC packet starts with
+ *  1     1    buttons, one bit each
+ *  2     2    sequence number, unsigned, wraps around
+ *  4     2    throttle, -1..1 as a signed Q15 fraction
+ *  6     2    steering, same
+ *  8     1    gain to tweak: its index in GainProfile.getGainNames() + 1, or 0 for none
+ *  9     1    reserved, 0
+ * 10     4    new value of that gain, IEEE 754 float
+ * </pre>
+ *
+ * Multi-byte fields are big-endian, as in OSC. Over UDP a frame is one datagram; over the UART it needs SLIP framing.
+ */
+public class ControlFrame {
+
+	public static final byte MAGIC = (byte) 0xBA;
+	public static final int SIZE = 14;
+	public static final int NO_GAIN = -1;
+
+	private static final float Q15 = 32767.0f;
+
+	public int sequence;
+	public float throttle;
+	public float steering;
+	public int buttons;
+
+	/** Index of the gain to tweak, or {@link #NO_GAIN}. */
+	public int gain = NO_GAIN;
+	public float gainValue;
+
+	/** System.nanoTime() when the frame was read, or 0 if unknown. */
+	public long receivedNanos;
+
+	/**
+	 * Writes the frame into {@code out[offset, offset + SIZE)}.
+	 *
+	 * @return {@link #SIZE}
+	 */
+	public int encode(byte[] out, int offset) {
+		out[offset] = MAGIC;
+		out[offset + 1] = (byte) buttons;
+		putShort(out, offset + 2, sequence);
+		putShort(out, offset + 4, toQ15(throttle));
+		putShort(out, offset + 6, toQ15(steering));
+		out[offset + 8] = (byte) (gain + 1);
+		out[offset + 9] = 0;
+		int bits = Float.floatToRawIntBits(gainValue);
+		putShort(out, offset + 10, bits >>> 16);
+		putShort(out, offset + 12, bits);
+		return SIZE;
+	}
+
+	/**
+	 * Reads the frame at {@code buffer[offset, offset + SIZE)}, whatever the buffer's byte order. The magic byte is
+	 * checked by the caller.
+	 */
+	void decode(ByteBuffer buffer, int offset) {
+		buttons = buffer.get(offset + 1) & 0xFF;
+		sequence = getShort(buffer, offset + 2) & 0xFFFF;
+		throttle = getShort(buffer, offset + 4) / Q15;
+		steering = getShort(buffer, offset + 6) / Q15;
+		gain = (buffer.get(offset + 8) & 0xFF) - 1;
+		gainValue = Float.intBitsToFloat(getShort(buffer, offset + 10) << 16 | (getShort(buffer, offset + 12) & 0xFFFF));
+	}
+
+	private static int toQ15(float value) {
+		return Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * Q15);
+	}
+
+	private static short getShort(ByteBuffer buffer, int offset) {
+		return (short) ((buffer.get(offset) & 0xFF) << 8 | (buffer.get(offset + 1) & 0xFF));
+	}
+
+	private static void putShort(byte[] out, int offset, int value) {
+		out[offset] = (byte) (value >>> 8);
+		out[offset + 1] = (byte) value;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + sequence + " throttle=" + throttle + " steering=" + steering + " buttons=" + Integer.toBinaryString(buttons)
+				+ ((gain != NO_GAIN) ? " gain[" + gain + "]=" + gainValue : "");
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes {@link ControlFrame}s out of a caller-owned byte[] or ByteBuffer into one reused frame, so nothing is
+ * allocated. Like {@link OSCDecoder}, an instance is not thread-safe.
+ */
+public class ControlFrameDecoder {
+
+	public interface ControlFrameListener {
+		/**
+		 * The frame is only valid during the call.
+		 */
+		public void onControlFrame(ControlFrame frame);
+	}
+
+	private final ControlFrame _frame = new ControlFrame();
+	private byte[] _array;
+	private ByteBuffer _wrapped;
+	private long _receivedNanos = 0;
+
+	/**
+	 * True for a packet that is a control frame rather than OSC, which always starts with '/' or '#'.
+	 */
+	public static boolean isControlFrame(byte first) {
+		return first == ControlFrame.MAGIC;
+	}
+
+	public void setReceivedNanos(long receivedNanos) {
+		_receivedNanos = receivedNanos;
+	}
+
+	/**
+	 * @return false if {@code data[offset, offset + length)} is not exactly one frame
+	 */
+	public boolean decode(byte[] data, int offset, int length, ControlFrameListener listener) {
+		if (_array != data) {
+			_array = data;
+			_wrapped = ByteBuffer.wrap(data);
+		}
+		return decode(_wrapped, offset, offset + length, listener);
+	}
+
+	/**
+	 * Decodes the packet between the buffer's position and limit, which are left untouched.
+	 */
+	public boolean decode(ByteBuffer buffer, ControlFrameListener listener) {
+		return decode(buffer, buffer.position(), buffer.limit(), listener);
+	}
+
+	private boolean decode(ByteBuffer buffer, int offset, int end, ControlFrameListener listener) {
+		if (end - offset != ControlFrame.SIZE || buffer.get(offset) != ControlFrame.MAGIC) {
+			return false;
+		}
+		_frame.decode(buffer, offset);
+		_frame.receivedNanos = _receivedNanos;
+		listener.onControlFrame(_frame);
+		return true;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+
+/**
+ * Keeps only the newest message per OSC address while a burst of datagrams is being drained, then replays the
+ * survivors in the order their addresses first appeared, with the time tag of their bundle. Newest is by time tag
+ * when both messages have one, so a reordered datagram cannot replace a later command; otherwise by arrival. After a Wi-Fi stall the control state jumps straight to the
+ * operator's latest fader positions instead of walking through every stale one.
+ *
+ * Messages are copied into fixed slots, so nothing is allocated. A message that does not fit a slot, or that arrives
+ * when every slot is taken, is passed straight through to the listener.
+ */
+class OSCCoalescer implements OSCListener {
+
+	private static final int SLOTS = 16;
+	private static final int SLOT_SIZE = 128;
+
+	private final OSCDecoder _decoder = new OSCDecoder();
+	private final byte[] _slots = new byte[SLOTS * SLOT_SIZE];
+	private final int[] _lengths = new int[SLOTS];
+	private final int[] _addressLengths = new int[SLOTS];
+	private final long[] _receivedNanos = new long[SLOTS];
+	private final long[] _timeTags = new long[SLOTS];
+	private int _count = 0;
+
+	private OSCListener _listener;
+	private long _coalesced = 0;
+
+	OSCCoalescer(OSCListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Number of messages that were dropped because a newer one for the same address arrived in the same burst.
+	 */
+	long getCoalescedCount() {
+		return _coalesced;
+	}
+
+	@Override
+	public void onMessageReceived(OSCMessage message) {
+		int length = message.getLength();
+		if (length > SLOT_SIZE) {
+			_listener.onMessageReceived(message);
+			return;
+		}
+		int slot = 0;
+		while (slot < _count && !message.addressEquals(_slots, slot * SLOT_SIZE, _addressLengths[slot])) {
+			slot++;
+		}
+		if (slot < _count) {
+			_coalesced++;
+			if (isOlder(message.getTimeTag(), _timeTags[slot])) {
+				return;
+			}
+		} else if (_count < SLOTS) {
+			_count++;
+		} else {
+			_listener.onMessageReceived(message);
+			return;
+		}
+		message.copyTo(_slots, slot * SLOT_SIZE);
+		_lengths[slot] = length;
+		_addressLengths[slot] = message.getAddressLength();
+		_receivedNanos[slot] = message.getReceivedNanos();
+		_timeTags[slot] = message.getTimeTag();
+	}
+
+	private static boolean isOlder(long timeTag, long than) {
+		if (timeTag == OSCMessage.IMMEDIATELY || than == OSCMessage.IMMEDIATELY) {
+			return false;
+		}
+		// Time tags are unsigned NTP timestamps
+		return (timeTag ^ Long.MIN_VALUE) < (than ^ Long.MIN_VALUE);
+	}
+
+	/**
+	 * Delivers the surviving messages and empties the slots.
+	 */
+	void flush() {
+		for (int slot = 0; slot < _count; slot++) {
+			_decoder.setReceivedNanos(_receivedNanos[slot]);
+			_decoder.decode(_slots, slot * SLOT_SIZE, _lengths[slot], _timeTags[slot], _listener);
+		}
+		_count = 0;
+	}
+}
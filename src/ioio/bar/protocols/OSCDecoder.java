@@ -0,0 +1,261 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes OSC 1.0 packets (messages and nested #bundles) in place, straight out of a caller-owned byte[] or
+ * ByteBuffer. Every message found is handed to the listener through one reused {@link OSCMessage} view, so decoding
+ * does not allocate once the caller keeps passing the same buffer.
+ *
+ * Supported argument types are the OSC 1.0 required ones (i, f, s, b) plus the data-less T, F, N and I tags.
+ *
+ * An instance is not thread-safe; the UDP and UART servers each own their own decoder.
+ */
+public class OSCDecoder {
+
+	public interface OSCListener {
+		public void onMessageReceived(OSCMessage message);
+	}
+
+	public static final int INCOMPLETE = 0;
+	public static final int MALFORMED = -1;
+
+	private static final int MAX_BUNDLE_DEPTH = 8;
+
+	private final OSCMessage _message = new OSCMessage();
+	private byte[] _array;
+	private ByteBuffer _wrapped;
+	private long _receivedNanos = 0;
+
+	/**
+	 * Arrival time stamped on the messages of the following decode() calls, see {@link OSCMessage#getReceivedNanos()}.
+	 */
+	public void setReceivedNanos(long receivedNanos) {
+		_receivedNanos = receivedNanos;
+	}
+
+	/**
+	 * Decodes the packet held in {@code data[offset, offset + length)}.
+	 *
+	 * @return false if the packet is malformed. Messages that preceded the error inside a bundle have already been
+	 *         delivered at that point.
+	 */
+	public boolean decode(byte[] data, int offset, int length, OSCListener listener) {
+		return decodePacket(wrap(data), offset, offset + length, OSCMessage.IMMEDIATELY, 0, listener);
+	}
+
+	/**
+	 * Same, for a message that was taken out of a bundle with this time tag, e.g. by {@link OSCCoalescer}.
+	 */
+	boolean decode(byte[] data, int offset, int length, long timeTag, OSCListener listener) {
+		return decodePacket(wrap(data), offset, offset + length, timeTag, 0, listener);
+	}
+
+	/**
+	 * Decodes the packet between the buffer's position and limit. The position and limit are left untouched.
+	 */
+	public boolean decode(ByteBuffer buffer, OSCListener listener) {
+		return decodePacket(buffer, buffer.position(), buffer.limit(), OSCMessage.IMMEDIATELY, 0, listener);
+	}
+
+	/**
+	 * Used to find message boundaries on unframed byte streams (e.g. the WiFly UART) where a bare OSC message has no
+	 * length prefix.
+	 *
+	 * @return the size of the complete message at the start of {@code data[offset, offset + length)},
+	 *         {@link #INCOMPLETE} if more bytes are needed, or {@link #MALFORMED} if the bytes cannot be the start of
+	 *         a message. Bundles cannot be delimited without framing and are reported as malformed.
+	 */
+	public int measure(byte[] data, int offset, int length) {
+		ByteBuffer buffer = wrap(data);
+		int end = offset + length;
+		if (length == 0) {
+			return INCOMPLETE;
+		}
+		if (buffer.get(offset) != '/') {
+			return MALFORMED;
+		}
+		int size = scanMessage(buffer, offset, end, OSCMessage.IMMEDIATELY, false);
+		return (size > 0) ? size - offset : size;
+	}
+
+	private ByteBuffer wrap(byte[] data) {
+		if (data != _array) {
+			_array = data;
+			_wrapped = ByteBuffer.wrap(data);
+		}
+		return _wrapped;
+	}
+
+	private boolean decodePacket(ByteBuffer buffer, int offset, int end, long timeTag, int depth, OSCListener listener) {
+		if (end - offset < 4 || ((end - offset) & 3) != 0) {
+			return false;
+		}
+		switch (buffer.get(offset)) {
+		case '/':
+			int messageEnd = scanMessage(buffer, offset, end, timeTag, true);
+			if (messageEnd <= 0) {
+				return false;
+			}
+			_message.setLength(messageEnd - offset);
+			_message.setReceivedNanos(_receivedNanos);
+			listener.onMessageReceived(_message);
+			return true;
+		case '#':
+			return decodeBundle(buffer, offset, end, depth, listener);
+		default:
+			return false;
+		}
+	}
+
+	private boolean decodeBundle(ByteBuffer buffer, int offset, int end, int depth, OSCListener listener) {
+		if (depth == MAX_BUNDLE_DEPTH || end - offset < 16 || !isBundleHeader(buffer, offset)) {
+			return false;
+		}
+		long timeTag = ((long) readInt(buffer, offset + 8) << 32) | (readInt(buffer, offset + 12) & 0xFFFFFFFFL);
+		int position = offset + 16;
+		while (position < end) {
+			if (end - position < 4) {
+				return false;
+			}
+			int size = readInt(buffer, position);
+			position += 4;
+			if (size < 0 || size > end - position) {
+				return false;
+			}
+			if (!decodePacket(buffer, position, position + size, timeTag, depth + 1, listener)) {
+				return false;
+			}
+			position += size;
+		}
+		return true;
+	}
+
+	/**
+	 * Walks one message starting at {@code offset}. When {@code populate} is set the shared message view is filled
+	 * in as well.
+	 *
+	 * @return the absolute end position of the message, {@link #INCOMPLETE} or {@link #MALFORMED}.
+	 */
+	private int scanMessage(ByteBuffer buffer, int offset, int end, long timeTag, boolean populate) {
+		int addressEnd = indexOfNull(buffer, offset, end);
+		if (addressEnd < 0) {
+			return INCOMPLETE;
+		}
+		int position = offset + pad(addressEnd + 1 - offset);
+		if (position >= end) {
+			// The type tag string is mandatory in OSC 1.0 but was optional before; a bare address has no arguments.
+			// On a stream the type tags may simply not have arrived yet.
+			if (!populate || position > end) {
+				return INCOMPLETE;
+			}
+			_message.reset(buffer, offset, addressEnd - offset, position, timeTag);
+			return position;
+		}
+		if (buffer.get(position) != ',') {
+			return MALFORMED;
+		}
+		int typeTagStart = position + 1;
+		int typeTagEnd = indexOfNull(buffer, typeTagStart, end);
+		if (typeTagEnd < 0) {
+			return INCOMPLETE;
+		}
+		if (typeTagEnd - typeTagStart > OSCMessage.MAX_ARGUMENTS) {
+			return MALFORMED;
+		}
+		if (populate) {
+			_message.reset(buffer, offset, addressEnd - offset, typeTagStart, timeTag);
+		}
+		position = offset + pad(typeTagEnd + 1 - offset);
+		for (int i = typeTagStart; i < typeTagEnd; i++) {
+			int argument = position;
+			switch (buffer.get(i)) {
+			case 'i':
+			case 'f':
+				position += 4;
+				break;
+			case 's':
+				int stringEnd = indexOfNull(buffer, position, end);
+				if (stringEnd < 0) {
+					return INCOMPLETE;
+				}
+				position = offset + pad(stringEnd + 1 - offset);
+				break;
+			case 'b':
+				if (end - position < 4) {
+					return INCOMPLETE;
+				}
+				int blobLength = readInt(buffer, position);
+				if (blobLength < 0) {
+					return MALFORMED;
+				}
+				if (blobLength > end - position - 4) {
+					return INCOMPLETE;
+				}
+				position += 4 + pad(blobLength);
+				break;
+			case 'T':
+			case 'F':
+			case 'N':
+			case 'I':
+				break;
+			default:
+				return MALFORMED;
+			}
+			if (position > end) {
+				return INCOMPLETE;
+			}
+			if (populate) {
+				_message.addArgument(argument);
+			}
+		}
+		return position;
+	}
+
+	private static boolean isBundleHeader(ByteBuffer buffer, int offset) {
+		return buffer.get(offset) == '#' && buffer.get(offset + 1) == 'b' && buffer.get(offset + 2) == 'u'
+				&& buffer.get(offset + 3) == 'n' && buffer.get(offset + 4) == 'd' && buffer.get(offset + 5) == 'l'
+				&& buffer.get(offset + 6) == 'e' && buffer.get(offset + 7) == 0;
+	}
+
+	private static int indexOfNull(ByteBuffer buffer, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (buffer.get(i) == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int readInt(ByteBuffer buffer, int offset) {
+		return ((buffer.get(offset) & 0xFF) << 24) | ((buffer.get(offset + 1) & 0xFF) << 16)
+				| ((buffer.get(offset + 2) & 0xFF) << 8) | (buffer.get(offset + 3) & 0xFF);
+	}
+
+	private static int pad(int length) {
+		return (length + 3) & ~3;
+	}
+}
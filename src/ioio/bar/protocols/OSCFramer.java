@@ -0,0 +1,48 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+/**
+ * Cuts OSC messages (and, with SLIP, binary control frames) out of a byte stream such as the WiFly UART, which has no
+ * datagram boundaries of its own.
+ */
+public interface OSCFramer {
+
+	/**
+	 * Consumes {@code data[offset, offset + length)} and decodes every message it completes.
+	 *
+	 * @param receivedNanos System.nanoTime() when these bytes were read, stamped on the messages they complete
+	 */
+	public void feed(byte[] data, int offset, int length, long receivedNanos);
+
+	/**
+	 * Messages delivered so far.
+	 */
+	public long getFrameCount();
+
+	/**
+	 * Bytes or frames dropped because they could not be framed or decoded.
+	 */
+	public long getErrorCount();
+}
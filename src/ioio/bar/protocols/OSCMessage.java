@@ -0,0 +1,222 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view over one OSC message that lives inside a caller-owned buffer. The {@link OSCDecoder} reuses a
+ * single instance for every message it visits, so a listener must copy out whatever it needs before returning and
+ * must never keep a reference to the message itself.
+ *
+ * All multi-byte values are read big-endian, byte by byte, so the byte order of the underlying buffer does not matter.
+ */
+public class OSCMessage {
+
+	public static final int MAX_ARGUMENTS = 16;
+	public static final long IMMEDIATELY = 1L;
+
+	private ByteBuffer _buffer;
+	private int _addressOffset;
+	private int _addressLength;
+	private int _length;
+	private int _typeTagOffset; // points at the first type after the ','
+	private int _argumentCount;
+	private final int[] _argumentOffsets = new int[MAX_ARGUMENTS];
+	private long _timeTag = IMMEDIATELY;
+	private long _receivedNanos = 0;
+
+	OSCMessage() {
+	}
+
+	void reset(ByteBuffer buffer, int addressOffset, int addressLength, int typeTagOffset, long timeTag) {
+		_buffer = buffer;
+		_addressOffset = addressOffset;
+		_addressLength = addressLength;
+		_typeTagOffset = typeTagOffset;
+		_argumentCount = 0;
+		_timeTag = timeTag;
+	}
+
+	void addArgument(int offset) {
+		_argumentOffsets[_argumentCount++] = offset;
+	}
+
+	void setLength(int length) {
+		_length = length;
+	}
+
+	/**
+	 * Size in bytes of the encoded message, address included.
+	 */
+	int getLength() {
+		return _length;
+	}
+
+	/**
+	 * Copies the encoded message into {@code destination}, which must have room for {@link #getLength()} bytes.
+	 */
+	void copyTo(byte[] destination, int offset) {
+		for (int i = 0; i < _length; i++) {
+			destination[offset + i] = _buffer.get(_addressOffset + i);
+		}
+	}
+
+	boolean addressEquals(byte[] address, int offset, int length) {
+		if (_addressLength != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (_buffer.get(_addressOffset + i) != address[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Time tag of the enclosing bundle, or {@link #IMMEDIATELY} for a message that was not sent inside a bundle.
+	 */
+	public long getTimeTag() {
+		return _timeTag;
+	}
+
+	/**
+	 * System.nanoTime() when the datagram or UART bytes carrying this message were read, or 0 if the decoder was not
+	 * told.
+	 */
+	public long getReceivedNanos() {
+		return _receivedNanos;
+	}
+
+	void setReceivedNanos(long receivedNanos) {
+		_receivedNanos = receivedNanos;
+	}
+
+	public int getAddressLength() {
+		return _addressLength;
+	}
+
+	public char getAddressChar(int index) {
+		return (char) (_buffer.get(_addressOffset + index) & 0xFF);
+	}
+
+	public boolean addressEquals(String address) {
+		return _addressLength == address.length() && regionEquals(_addressOffset, address);
+	}
+
+	public boolean addressStartsWith(String prefix) {
+		return _addressLength >= prefix.length() && regionEquals(_addressOffset, prefix);
+	}
+
+	public int getArgumentCount() {
+		return _argumentCount;
+	}
+
+	public char getType(int index) {
+		checkIndex(index);
+		return (char) (_buffer.get(_typeTagOffset + index) & 0xFF);
+	}
+
+	/**
+	 * True if {@link #getFloat(int)} can read the argument.
+	 */
+	public boolean isNumeric(int index) {
+		char type = getType(index);
+		return type == 'f' || type == 'i' || type == 'T' || type == 'F';
+	}
+
+	public int getInt(int index) {
+		if (getType(index) != 'i') {
+			throw new IllegalArgumentException("Argument " + index + " is not an int32");
+		}
+		return readInt(_argumentOffsets[index]);
+	}
+
+	/**
+	 * Returns a float argument. TouchOSC toggles and some other controllers send int32 or True/False instead of
+	 * float32, so those are converted rather than rejected.
+	 */
+	public float getFloat(int index) {
+		switch (getType(index)) {
+		case 'f':
+			return Float.intBitsToFloat(readInt(_argumentOffsets[index]));
+		case 'i':
+			return readInt(_argumentOffsets[index]);
+		case 'T':
+			return 1.0f;
+		case 'F':
+			return 0.0f;
+		default:
+			throw new IllegalArgumentException("Argument " + index + " is not numeric");
+		}
+	}
+
+	public boolean stringEquals(int index, String value) {
+		if (getType(index) != 's') {
+			return false;
+		}
+		int offset = _argumentOffsets[index];
+		return regionEquals(offset, value) && _buffer.get(offset + value.length()) == 0;
+	}
+
+	public int getBlobLength(int index) {
+		if (getType(index) != 'b') {
+			throw new IllegalArgumentException("Argument " + index + " is not a blob");
+		}
+		return readInt(_argumentOffsets[index]);
+	}
+
+	/**
+	 * Copies the blob argument into {@code destination} and returns the number of bytes copied.
+	 */
+	public int copyBlob(int index, byte[] destination, int offset) {
+		int length = Math.min(getBlobLength(index), destination.length - offset);
+		int source = _argumentOffsets[index] + 4;
+		for (int i = 0; i < length; i++) {
+			destination[offset + i] = _buffer.get(source + i);
+		}
+		return length;
+	}
+
+	private boolean regionEquals(int offset, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if ((_buffer.get(offset + i) & 0xFF) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int readInt(int offset) {
+		return ((_buffer.get(offset) & 0xFF) << 24) | ((_buffer.get(offset + 1) & 0xFF) << 16)
+				| ((_buffer.get(offset + 2) & 0xFF) << 8) | (_buffer.get(offset + 3) & 0xFF);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _argumentCount) {
+			throw new IndexOutOfBoundsException("Argument " + index + " of " + _argumentCount);
+		}
+	}
+}
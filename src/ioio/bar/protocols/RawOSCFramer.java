@@ -0,0 +1,91 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+
+/**
+ * The WiFly's default mode: it forwards the raw OSC payloads with no framing, so a message starts at an OSC address
+ * pattern ('/') and ends where the decoder says it does. Anything else is skipped until the next '/'. A dropped byte
+ * can go unnoticed until the decoder rejects what follows; use {@link SlipFramer} when the sender supports it.
+ */
+public class RawOSCFramer implements OSCFramer {
+
+	private static final int BUFFER_SIZE = 256;
+
+	private final OSCListener _listener;
+	private final OSCDecoder _decoder = new OSCDecoder();
+	private final byte[] _buffer = new byte[BUFFER_SIZE];
+	private int _length = 0;
+
+	private long _frames = 0;
+	private long _errors = 0;
+
+	public RawOSCFramer(OSCListener listener) {
+		_listener = listener;
+	}
+
+	@Override
+	public void feed(byte[] data, int offset, int length, long receivedNanos) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			byte inByte = data[i];
+			if (_length == 0 && inByte != '/') {
+				_errors++;
+				continue;
+			}
+			_buffer[_length++] = inByte;
+
+			// OSC messages are always a multiple of 4 bytes long
+			if ((_length & 3) != 0) {
+				continue;
+			}
+			int size = _decoder.measure(_buffer, 0, _length);
+			if (size > 0) {
+				_decoder.setReceivedNanos(receivedNanos);
+				_decoder.decode(_buffer, 0, size, _listener);
+				_frames++;
+				_length = 0;
+			} else if (size == OSCDecoder.MALFORMED || _length == BUFFER_SIZE) {
+				_errors += _length;
+				_length = 0;
+			}
+		}
+	}
+
+	@Override
+	public long getFrameCount() {
+		return _frames;
+	}
+
+	@Override
+	public long getErrorCount() {
+		return _errors;
+	}
+
+	@Override
+	public String toString() {
+		return "raw: " + _frames + " messages, " + _errors + " bytes skipped";
+	}
+}
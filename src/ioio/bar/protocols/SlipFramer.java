@@ -0,0 +1,210 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import ioio.bar.protocols.ControlFrameDecoder.ControlFrameListener;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+
+/**
+ * SLIP (RFC 1055) framing as OSC 1.1 uses it for serial links: every packet is sent between two END bytes, with END
+ * and ESC bytes inside it escaped. A packet is either OSC or a binary {@link ControlFrame}. A packet may be followed by a CRC-16/CCITT (polynomial 0x1021, initial 0xFFFF,
+ * big-endian) of its bytes, inside the frame.
+ *
+ * A corrupt frame (bad escape, bad CRC, too long, or not OSC) is dropped and counted, and decoding picks up again at
+ * the next END, so a lost byte costs at most the frame it was in.
+ */
+public class SlipFramer implements OSCFramer {
+
+	public static final byte END = (byte) 0xC0;
+	public static final byte ESC = (byte) 0xDB;
+	public static final byte ESC_END = (byte) 0xDC;
+	public static final byte ESC_ESC = (byte) 0xDD;
+
+	public static final int MAX_FRAME = 512;
+
+	private static final char[] CRC_TABLE = new char[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ 0x1021 : crc << 1;
+			}
+			CRC_TABLE[i] = (char) crc;
+		}
+	}
+
+	private final OSCListener _listener;
+	private final boolean _crc;
+	private final OSCDecoder _decoder = new OSCDecoder();
+	private final ControlFrameDecoder _frameDecoder = new ControlFrameDecoder();
+	private final ControlFrameListener _frameListener;
+	private final byte[] _frame = new byte[MAX_FRAME];
+	private int _length = 0;
+	private boolean _escaped = false;
+	private boolean _discarding = false;
+
+	private long _frames = 0;
+	private long _escapeErrors = 0;
+	private long _overflows = 0;
+	private long _crcErrors = 0;
+	private long _malformed = 0;
+
+	/**
+	 * @param frameListener receives the binary control frames; null to reject them as malformed
+	 * @param crc whether every frame ends with a CRC-16 of its packet
+	 */
+	public SlipFramer(OSCListener listener, ControlFrameListener frameListener, boolean crc) {
+		_listener = listener;
+		_frameListener = frameListener;
+		_crc = crc;
+	}
+
+	@Override
+	public void feed(byte[] data, int offset, int length, long receivedNanos) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			byte b = data[i];
+			if (b == END) {
+				if (!_discarding && _length > 0) {
+					deliver(receivedNanos);
+				}
+				_length = 0;
+				_escaped = false;
+				_discarding = false;
+			} else if (_discarding) {
+				continue;
+			} else if (_escaped) {
+				_escaped = false;
+				if (b == ESC_END) {
+					append(END);
+				} else if (b == ESC_ESC) {
+					append(ESC);
+				} else {
+					_escapeErrors++;
+					_discarding = true;
+				}
+			} else if (b == ESC) {
+				_escaped = true;
+			} else {
+				append(b);
+			}
+		}
+	}
+
+	private void append(byte b) {
+		if (_length == MAX_FRAME) {
+			_overflows++;
+			_discarding = true;
+			return;
+		}
+		_frame[_length++] = b;
+	}
+
+	private void deliver(long receivedNanos) {
+		int size = _length;
+		if (_crc) {
+			size -= 2;
+			if (size <= 0 || crc16(_frame, 0, size) != (((_frame[size] & 0xFF) << 8) | (_frame[size + 1] & 0xFF))) {
+				_crcErrors++;
+				return;
+			}
+		}
+		boolean valid;
+		if (ControlFrameDecoder.isControlFrame(_frame[0])) {
+			_frameDecoder.setReceivedNanos(receivedNanos);
+			valid = (_frameListener != null) && _frameDecoder.decode(_frame, 0, size, _frameListener);
+		} else {
+			_decoder.setReceivedNanos(receivedNanos);
+			valid = _decoder.decode(_frame, 0, size, _listener);
+		}
+		if (valid) {
+			_frames++;
+		} else {
+			_malformed++;
+		}
+	}
+
+	/**
+	 * Frames {@code packet[offset, offset + length)} into {@code out}, which needs room for 2 * (length + 2) + 2
+	 * bytes in the worst case.
+	 *
+	 * @return the number of bytes written
+	 */
+	public static int encode(byte[] packet, int offset, int length, boolean crc, byte[] out, int outOffset) {
+		int position = outOffset;
+		out[position++] = END;
+		for (int i = offset; i < offset + length; i++) {
+			position = escape(packet[i], out, position);
+		}
+		if (crc) {
+			int value = crc16(packet, offset, length);
+			position = escape((byte) (value >>> 8), out, position);
+			position = escape((byte) value, out, position);
+		}
+		out[position++] = END;
+		return position - outOffset;
+	}
+
+	private static int escape(byte b, byte[] out, int position) {
+		if (b == END) {
+			out[position++] = ESC;
+			out[position++] = ESC_END;
+		} else if (b == ESC) {
+			out[position++] = ESC;
+			out[position++] = ESC_ESC;
+		} else {
+			out[position++] = b;
+		}
+		return position;
+	}
+
+	public static int crc16(byte[] data, int offset, int length) {
+		int crc = 0xFFFF;
+		for (int i = offset; i < offset + length; i++) {
+			crc = ((crc << 8) ^ CRC_TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+		}
+		return crc;
+	}
+
+	@Override
+	public long getFrameCount() {
+		return _frames;
+	}
+
+	@Override
+	public long getErrorCount() {
+		return _escapeErrors + _overflows + _crcErrors + _malformed;
+	}
+
+	public long getCrcErrorCount() {
+		return _crcErrors;
+	}
+
+	@Override
+	public String toString() {
+		return "SLIP" + (_crc ? "+CRC" : "") + ": " + _frames + " messages, " + _escapeErrors + " bad escapes, " + _overflows
+				+ " overflows, " + _crcErrors + " CRC errors, " + _malformed + " malformed";
+	}
+}
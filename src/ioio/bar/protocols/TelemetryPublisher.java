@@ -0,0 +1,207 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import ioio.bar.control.Mailbox;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * Sends the robot's live state back to the controller as one OSC bundle per period, for TouchOSC labels and meters:
+ * 
+ * <pre>
+ * /tilt    degrees, latest
+ * /speed   wheel speed in DRV8834.setSpeed() units, latest
+ * /output  controller output, latest
+ * /jitter  worst loop jitter of the period, microseconds
+ * /battery phone battery voltage
+ * </pre>
+ * 
+ * The control loop calls {@link #sample} every cycle. It only folds the values into the current period and, once
+ * per period, hands them over through a {@link Mailbox} and unparks the sender thread, so it never blocks on the
+ * network. The sender encodes into a single preallocated buffer.
+ */
+public class TelemetryPublisher implements Runnable {
+	private static final String _TAG = TelemetryPublisher.class.getSimpleName();
+	private static final long SHUTDOWN_TIMEOUT_MS = 500;
+	private static final float DEGREES = (float) (180.0 / Math.PI);
+
+	private static final byte[][] ADDRESSES = { padded("/tilt"), padded("/speed"), padded("/output"), padded("/jitter"),
+			padded("/battery") };
+	private static final byte[] BUNDLE = padded("#bundle");
+	private static final byte[] FLOAT_TAG = padded(",f");
+
+	private static class Sample {
+		final float[] values = new float[ADDRESSES.length];
+	}
+
+	private final String _host;
+	private final int _port;
+	private final long _periodNanos;
+	private final Thread _thread;
+	private volatile boolean _running = true;
+	private final Mailbox<Sample> _mailbox = new Mailbox<Sample>(new Sample(), new Sample(), new Sample());
+	private final ByteBuffer _buffer;
+	private volatile float _batteryVolts = 0.0f;
+
+	// Control loop only
+	private long _periodStart = 0;
+	private long _maxJitter = 0;
+
+	private volatile long _sent = 0;
+	private volatile long _failed = 0;
+
+	/**
+	 * @param host IP address of the controller, resolved on the sender thread
+	 * @param rate bundles per second
+	 */
+	public TelemetryPublisher(String host, int port, int rate) {
+		_host = host;
+		_port = port;
+		_periodNanos = 1000000000L / rate;
+		int size = BUNDLE.length + 8;
+		for (byte[] address : ADDRESSES) {
+			size += 4 + address.length + FLOAT_TAG.length + 4;
+		}
+		_buffer = ByteBuffer.allocateDirect(size);
+		_thread = new Thread(this, _TAG);
+		_thread.start();
+	}
+
+	/**
+	 * Control loop side, every cycle.
+	 */
+	public void sample(long nowNanos, float tilt, float speed, float output, long jitterNanos) {
+		if (jitterNanos > _maxJitter) {
+			_maxJitter = jitterNanos;
+		}
+		if (nowNanos - _periodStart < _periodNanos) {
+			return;
+		}
+		_periodStart = nowNanos;
+		float[] values = _mailbox.claim().values;
+		values[0] = tilt * DEGREES;
+		values[1] = speed;
+		values[2] = output;
+		values[3] = _maxJitter * 1e-3f;
+		values[4] = _batteryVolts;
+		_mailbox.publish();
+		_maxJitter = 0;
+		LockSupport.unpark(_thread);
+	}
+
+	public void setBatteryVoltage(float volts) {
+		_batteryVolts = volts;
+	}
+
+	public long getSentCount() {
+		return _sent;
+	}
+
+	/**
+	 * Periods the sender was still busy with an older bundle, which was replaced by the newer one.
+	 */
+	public long getSkippedCount() {
+		return _mailbox.getOverwrittenCount();
+	}
+
+	@Override
+	public void run() {
+		DatagramChannel channel = null;
+		try {
+			InetSocketAddress target = new InetSocketAddress(_host, _port);
+			channel = DatagramChannel.open();
+			while (_running) {
+				LockSupport.park(this);
+				Sample sample = _mailbox.poll();
+				if (sample == null) {
+					continue; // spurious wakeup or terminate()
+				}
+				encode(sample.values);
+				try {
+					channel.send(_buffer, target);
+					_sent++;
+				} catch (IOException e) {
+					// No route while the Wi-Fi reconnects; the next period tries again
+					_failed++;
+				}
+			}
+		} catch (IOException e) {
+			Log.e(_TAG, "run() " + e.getMessage());
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Nothing to do at this point!
+				}
+			}
+			Log.i(_TAG, "Stopped: " + _sent + " sent, " + _failed + " failed, " + getSkippedCount() + " skipped");
+		}
+	}
+
+	private void encode(float[] values) {
+		ByteBuffer buffer = _buffer;
+		buffer.clear();
+		buffer.put(BUNDLE);
+		buffer.putLong(OSCMessage.IMMEDIATELY);
+		for (int i = 0; i < ADDRESSES.length; i++) {
+			buffer.putInt(ADDRESSES[i].length + FLOAT_TAG.length + 4);
+			buffer.put(ADDRESSES[i]);
+			buffer.put(FLOAT_TAG);
+			buffer.putFloat(values[i]);
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Stops the sender thread and waits briefly for it to close its channel.
+	 */
+	public void abort() {
+		_running = false;
+		LockSupport.unpark(_thread);
+		try {
+			_thread.join(SHUTDOWN_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * ASCII string with its OSC terminator and padding to a multiple of 4 bytes.
+	 */
+	private static byte[] padded(String s) {
+		byte[] bytes = new byte[(s.length() + 4) & ~3];
+		for (int i = 0; i < s.length(); i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+}
@@ -23,32 +23,99 @@
  */
 package ioio.bar.protocols;
 
+import ioio.bar.protocols.ControlFrameDecoder.ControlFrameListener;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
 import ioio.lib.api.Uart;
 
 import java.io.IOException;
 import java.io.InputStream;
 
+import android.util.Log;
+
+/**
+ * Receives OSC commands from the WiFly shield over the IOIO UART. Whatever the UART has buffered is read in one go and
+ * handed to an {@link OSCFramer}, which finds the messages in it.
+ */
 public class UARTServer implements Runnable {
+	private static final String _TAG = UARTServer.class.getSimpleName();
+	private static final int READ_SIZE = 256;
 
-	public interface UARTListener {
-		public void onInputStreamReceived(InputStream inputStream);
+	/**
+	 * How messages are delimited on the wire; the names are the values of the uart_framing setting.
+	 */
+	public enum Framing {
+		/** Bare OSC messages, as the WiFly forwards UDP payloads by default. */
+		RAW,
+		/** SLIP frames, as in OSC 1.1; needed for binary control frames. */
+		SLIP,
+		/** SLIP frames ending with a CRC-16 of the packet. */
+		SLIP_CRC;
+
+		/**
+		 * Falls back to RAW for unknown names.
+		 */
+		public static Framing fromName(String name) {
+			for (Framing framing : values()) {
+				if (framing.name().equals(name)) {
+					return framing;
+				}
+			}
+			return RAW;
+		}
+
+		OSCFramer create(OSCListener listener, ControlFrameListener frameListener) {
+			switch (this) {
+			case SLIP:
+				return new SlipFramer(listener, frameListener, false);
+			case SLIP_CRC:
+				return new SlipFramer(listener, frameListener, true);
+			default:
+				return new RawOSCFramer(listener);
+			}
+		}
 	}
 
-	private UARTListener _listener;
 	private Uart _uart;
 	private InputStream _inputStream;
 
-	public UARTServer(Uart uart, UARTListener listener) {
-		_listener = listener;
+	private final OSCFramer _framer;
+	private final byte[] _buffer = new byte[READ_SIZE];
+	private volatile long _received = 0;
+
+	/**
+	 * @param frameListener receives the binary {@link ControlFrame}s, which need SLIP framing; null to ignore them
+	 */
+	public UARTServer(Uart uart, OSCListener listener, ControlFrameListener frameListener, Framing framing) {
 		_uart = uart;
+		_framer = framing.create(listener, frameListener);
+	}
+
+	public long getReceivedBytes() {
+		return _received;
+	}
+
+	public OSCFramer getFramer() {
+		return _framer;
 	}
 
 	@Override
 	public void run() {
 		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
 		_inputStream = _uart.getInputStream();
-		while (!Thread.currentThread().isInterrupted()) {
-			_listener.onInputStreamReceived(_inputStream);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				// Blocks for the first byte, then returns everything else that has already arrived
+				int count = _inputStream.read(_buffer, 0, READ_SIZE);
+				if (count < 0) {
+					break;
+				}
+				_received += count;
+				_framer.feed(_buffer, 0, count, System.nanoTime());
+			}
+		} catch (IOException e) {
+			// The stream is closed by abort() when the IOIO disconnects
+		} finally {
+			Log.i(_TAG, "Stopped: " + _received + " bytes, " + _framer);
 		}
 	}
 
@@ -23,9 +23,15 @@
  */
 package ioio.bar.protocols;
 
+import ioio.bar.protocols.ControlFrameDecoder.ControlFrameListener;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
 import android.util.Log;
 
@@ -34,68 +40,147 @@ import android.util.Log;
  * are connected. For instance, the device sending TouchOSC commands and the Android device running
  * the BAR application, which is receiving those commands; are both connected to the same WiFi network. 
  * 
+ * The server sleeps in a Selector and, on every wakeup, drains all the datagrams queued on the channel into a
+ * single reused direct buffer. Messages from the same burst are coalesced so that only the newest value for
+ * each OSC address reaches the listener.
  * 
  * @author abencomo
  *
  */
 public class UDPServer implements Runnable {
-	public interface UDPListener {
-		public void onPacketReceived(DatagramPacket packet);
-	}
-	
+	private static final String _TAG = UDPServer.class.getSimpleName();
 	private static final int DATAGRAM_SIZE = 1536;  // 32*1024;
+	private static final long SHUTDOWN_TIMEOUT_MS = 500;
 
-	private UDPListener _listener;
+	private OSCListener _listener;
 	private int _port;
-	private DatagramSocket _socket;
+	private final Thread _thread;
+	private volatile boolean _running = true;
+	private volatile Selector _selector;
+	private DatagramChannel _channel;
+
+	private final ByteBuffer _buffer = ByteBuffer.allocateDirect(DATAGRAM_SIZE);
+	private final OSCDecoder _decoder = new OSCDecoder();
+	private final OSCCoalescer _coalescer;
+	private final ControlFrameDecoder _frameDecoder = new ControlFrameDecoder();
+	private final ControlFrameListener _frameListener;
+
+	private volatile long _received = 0;
+	private volatile long _malformed = 0;
 
-	public UDPServer(int port, UDPListener listener) {
+	public UDPServer(int port, OSCListener listener) {
+		this(port, listener, null);
+	}
+
+	/**
+	 * @param frameListener receives the binary {@link ControlFrame}s; null to reject them as malformed
+	 */
+	public UDPServer(int port, OSCListener listener, ControlFrameListener frameListener) {
 		_listener = listener;
+		_frameListener = frameListener;
 		_port = port;
-		new Thread(this).start();
+		_coalescer = new OSCCoalescer(_listener);
+		_thread = new Thread(this, _TAG);
+		_thread.start();
 	}
 
+	/**
+	 * Asks the server thread to stop. It is woken up if it is waiting for datagrams and closes the channel itself.
+	 */
 	public void terminate() {
-		Thread.currentThread().interrupt();
-    }
-	
+		_running = false;
+		Selector selector = _selector;
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	public long getReceivedCount() {
+		return _received;
+	}
+
+	public long getCoalescedCount() {
+		return _coalescer.getCoalescedCount();
+	}
+
+	public long getMalformedCount() {
+		return _malformed;
+	}
+
 	@Override
 	public void run() {
 		try {
 			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-			
-			_socket = new DatagramSocket(_port);
-//			_socket.setBroadcast(rue);
-
-			while (!Thread.currentThread().isInterrupted()) {
-				byte[] buffer = new byte[DATAGRAM_SIZE];
-				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-				
+
+			_channel = DatagramChannel.open();
+			_channel.socket().bind(new InetSocketAddress(_port));
+			_channel.configureBlocking(false);
+			_selector = Selector.open();
+			_channel.register(_selector, SelectionKey.OP_READ);
+
+			while (_running) {
 				/**
-				 * This method blocks until a packet is received or a timeout has expired.
+				 * This method blocks until a datagram is queued or terminate() wakes the selector up.
 				 */
-				_socket.receive(packet);
-				
-				_listener.onPacketReceived(packet);
+				_selector.select();
+				_selector.selectedKeys().clear();
+				drain();
 			}
 		} catch (IOException e) {
-			Log.e("UDPServer::run()-IOException", e.getMessage());
-		} catch (ArrayIndexOutOfBoundsException e) {
-			Log.e("UDPServer::run()-ArrayIndexOutOfBoundsException", "ArrayIndexOutOfBoundsException:  " + e);
+			Log.e(_TAG, "run() " + e.getMessage());
+		} finally {
+			close();
+			Log.i(_TAG, "Stopped: " + _received + " received, " + getCoalescedCount() + " coalesced, " + _malformed + " malformed");
 		}
 	}
-	
-//	public void write(String str) throws IOException {
-//	_socket.send(str.getBytes());
-//}
 
-	public void abort() {
-		if (_socket != null) {
-			if (_socket.isConnected()) {
-				_socket.disconnect();
+	private void drain() throws IOException {
+		while (_running && _channel.receive(_buffer) != null) {
+			_buffer.flip();
+			_received++;
+			long now = System.nanoTime();
+			boolean valid;
+			if (_buffer.hasRemaining() && ControlFrameDecoder.isControlFrame(_buffer.get(_buffer.position()))) {
+				// A frame carries the whole command state, so there is nothing to coalesce
+				_frameDecoder.setReceivedNanos(now);
+				valid = (_frameListener != null) && _frameDecoder.decode(_buffer, _frameListener);
+			} else {
+				_decoder.setReceivedNanos(now);
+				valid = _decoder.decode(_buffer, _coalescer);
+			}
+			if (!valid) {
+				_malformed++;
+			}
+			_buffer.clear();
+		}
+		_coalescer.flush();
+	}
+
+	private void close() {
+		try {
+			if (_channel != null) {
+				_channel.close();
 			}
-			_socket.close();
-			_socket = null;
+			if (_selector != null) {
+				_selector.close();
+			}
+		} catch (IOException e) {
+			// Nothing to do at this point!
+		} finally {
+			_channel = null;
+			_selector = null;
+		}
+	}
+
+	/**
+	 * Stops the server and waits briefly for the port to be released, so a new server can bind it right away.
+	 */
+	public void abort() {
+		terminate();
+		try {
+			_thread.join(SHUTDOWN_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 }
@@ -0,0 +1,140 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.recorder;
+
+import ioio.bar.control.ControllerMode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a log written by the {@link FlightRecorder}, oldest record first, and exports it as CSV.
+ */
+public class FlightLogReader implements Closeable {
+
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _buffer;
+	private final int _capacity;
+	private final long _written;
+	private final int _count;
+
+	public FlightLogReader(File file) throws IOException {
+		_file = new RandomAccessFile(file, "r");
+		try {
+			if (_file.length() < FlightRecorder.HEADER_SIZE) {
+				throw new IOException(file + " is too short to be a flight log");
+			}
+			_buffer = _file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, _file.length());
+			_buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (_buffer.getLong(0) != FlightRecorder.MAGIC) {
+				throw new IOException(file + " is not a flight log");
+			}
+			if (_buffer.getInt(8) != FlightRecorder.VERSION || _buffer.getInt(12) != FlightRecord.SIZE) {
+				throw new IOException(file + " has version " + _buffer.getInt(8) + " with " + _buffer.getInt(12)
+						+ " byte records, expected " + FlightRecorder.VERSION + " with " + FlightRecord.SIZE);
+			}
+			_capacity = _buffer.getInt(16);
+			if (_capacity <= 0 || _file.length() < FlightRecorder.HEADER_SIZE + (long) _capacity * FlightRecord.SIZE) {
+				throw new IOException(file + " is truncated");
+			}
+			_written = _buffer.getLong(FlightRecorder.WRITTEN_OFFSET);
+			_count = (int) Math.min(_written, _capacity);
+		} catch (IOException e) {
+			_file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records available, at most the ring capacity.
+	 */
+	public int getCount() {
+		return _count;
+	}
+
+	/**
+	 * Records written over the life of the file; the ones before {@code getWrittenCount() - getCount()} have been
+	 * overwritten.
+	 */
+	public long getWrittenCount() {
+		return _written;
+	}
+
+	/**
+	 * Reads the {@code index}-th available record, 0 being the oldest, into {@code record}.
+	 */
+	public void read(int index, FlightRecord record) {
+		if (index < 0 || index >= _count) {
+			throw new IndexOutOfBoundsException("Record " + index + " of " + _count);
+		}
+		long position = (_written - _count + index) % _capacity;
+		record.read(_buffer, FlightRecorder.HEADER_SIZE + (int) position * FlightRecord.SIZE);
+	}
+
+	/**
+	 * Writes every available record as one CSV line, after a header line with the column names.
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		out.write("loop_time_ns,sensor_timestamp_ns,qw,qx,qy,qz,raw_tilt,offset,proximity,tilt,throttle,steering,"
+				+ "tilt_rate,wheel_speed,output,left_period,right_period,left_microsteps,right_microsteps,queued,"
+				+ "cues,jitter_ns,period_ns,controller,fresh_sample,upright,reset\n");
+		FlightRecord record = new FlightRecord();
+		StringBuilder line = new StringBuilder(256);
+		for (int i = 0; i < _count; i++) {
+			read(i, record);
+			line.setLength(0);
+			line.append(record.loopTime).append(',').append(record.sensorTimestamp);
+			for (int q = 0; q < 4; q++) {
+				line.append(',').append(record.quaternion[q]);
+			}
+			line.append(',').append(record.rawTilt).append(',').append(record.offset).append(',').append(record.proximity)
+					.append(',').append(record.getTilt()).append(',').append(record.throttle).append(',')
+					.append(record.steering).append(',').append(record.tiltRate).append(',').append(record.wheelSpeed)
+					.append(',').append(record.output).append(',').append(record.leftPeriod).append(',')
+					.append(record.rightPeriod).append(',').append(record.leftMicrosteps).append(',')
+					.append(record.rightMicrosteps).append(',').append(record.queued).append(',')
+					.append(record.cues).append(',').append(record.jitterNanos).append(',').append(record.periodNanos).append(',')
+					.append(controllerName(record.controllerMode)).append(',').append(record.hasFlag(FlightRecord.FLAG_FRESH_SAMPLE) ? 1 : 0)
+					.append(',').append(record.hasFlag(FlightRecord.FLAG_UPRIGHT) ? 1 : 0).append(',')
+					.append(record.hasFlag(FlightRecord.FLAG_RESET) ? 1 : 0).append('\n');
+			out.append(line);
+		}
+	}
+
+	private static String controllerName(byte mode) {
+		ControllerMode[] modes = ControllerMode.values();
+		return (mode >= 0 && mode < modes.length) ? modes[mode].name() : Integer.toString(mode);
+	}
+
+	@Override
+	public void close() throws IOException {
+		_file.close();
+	}
+}
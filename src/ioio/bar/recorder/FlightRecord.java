@@ -0,0 +1,162 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.recorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One control cycle as stored by the {@link FlightRecorder}. The looper fills a single reused instance every cycle
+ * and the {@link FlightLogReader} reads records back into one, so neither side allocates per record.
+ *
+ * Records are {@link #SIZE} bytes with every field at a fixed offset.
+ */
+public class FlightRecord {
+
+	public static final int SIZE = 92;
+
+	public static final int FLAG_FRESH_SAMPLE = 1; // a new sensor sample was used in this cycle
+	public static final int FLAG_UPRIGHT = 2;
+	public static final int FLAG_RESET = 4; // the controller was reset before the update
+	public static final int FLAG_MEASURED_RATE = 8; // tiltRate came from the gyroscope, not from the tilts
+
+	/** System.nanoTime() at the start of the cycle. */
+	public long loopTime;
+
+	/** SensorEvent.timestamp of the latest sample, in nanoseconds. */
+	public long sensorTimestamp;
+
+	/** Rotation vector quaternion of the latest sample, or the in-app fusion's: w, x, y, z. */
+	public final float[] quaternion = new float[4];
+
+	/** Tilt from the sensor, before the offset and the proximity displacement. */
+	public float rawTilt;
+	public float offset;
+	public float proximity;
+
+	public float throttle;
+	public float steering;
+
+	/** Tilt rate before the {@link #predictionMicros} prediction, and the other controller input and output. */
+	public float tiltRate;
+	public float wheelSpeed;
+	public float output;
+
+	/** FM speed periods cued to the step channels, in 62.5 kHz ticks (0 when stopped). */
+	public int leftPeriod;
+	public int rightPeriod;
+
+	/** How late the loop woke up, in nanoseconds. */
+	public int jitterNanos;
+
+	public byte leftMicrosteps;
+	public byte rightMicrosteps;
+
+	/** Sequencer cues that were still queued at the start of the cycle. */
+	public byte queued;
+
+	/** FLAG_* bits. */
+	public byte flags;
+
+	/** Loop period, which is also how long each cue and profiled speed lasts. */
+	public int periodNanos;
+
+	/** Cues pushed in this cycle, each one a step of the speed profile; 0 when the lookahead was already full. */
+	public byte cues;
+
+	/** Ordinal of the ControllerMode that computed the output. */
+	public byte controllerMode;
+
+	/** MountOrientation ordinal the tilt was computed for; 0, landscape raised, in logs from before it was recorded. */
+	public byte orientation;
+
+	/** Horizon the tilt was extrapolated by (TiltPredictor), 0 when the prediction is off. */
+	public int predictionMicros;
+
+	public boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	/**
+	 * Tilt the controller saw.
+	 */
+	public float getTilt() {
+		return rawTilt - offset - proximity;
+	}
+
+	void write(ByteBuffer buffer, int offset) {
+		buffer.putLong(offset, loopTime);
+		buffer.putLong(offset + 8, sensorTimestamp);
+		for (int i = 0; i < 4; i++) {
+			buffer.putFloat(offset + 16 + 4 * i, quaternion[i]);
+		}
+		buffer.putFloat(offset + 32, rawTilt);
+		buffer.putFloat(offset + 36, this.offset);
+		buffer.putFloat(offset + 40, proximity);
+		buffer.putFloat(offset + 44, throttle);
+		buffer.putFloat(offset + 48, steering);
+		buffer.putFloat(offset + 52, tiltRate);
+		buffer.putFloat(offset + 56, wheelSpeed);
+		buffer.putFloat(offset + 60, output);
+		buffer.putInt(offset + 64, leftPeriod);
+		buffer.putInt(offset + 68, rightPeriod);
+		buffer.putInt(offset + 72, jitterNanos);
+		buffer.put(offset + 76, leftMicrosteps);
+		buffer.put(offset + 77, rightMicrosteps);
+		buffer.put(offset + 78, queued);
+		buffer.put(offset + 79, flags);
+		buffer.putInt(offset + 80, periodNanos);
+		buffer.put(offset + 84, controllerMode);
+		buffer.put(offset + 85, orientation);
+		buffer.putChar(offset + 86, (char) predictionMicros);
+		buffer.put(offset + 88, cues); // 89-91 reserved
+	}
+
+	void read(ByteBuffer buffer, int offset) {
+		loopTime = buffer.getLong(offset);
+		sensorTimestamp = buffer.getLong(offset + 8);
+		for (int i = 0; i < 4; i++) {
+			quaternion[i] = buffer.getFloat(offset + 16 + 4 * i);
+		}
+		rawTilt = buffer.getFloat(offset + 32);
+		this.offset = buffer.getFloat(offset + 36);
+		proximity = buffer.getFloat(offset + 40);
+		throttle = buffer.getFloat(offset + 44);
+		steering = buffer.getFloat(offset + 48);
+		tiltRate = buffer.getFloat(offset + 52);
+		wheelSpeed = buffer.getFloat(offset + 56);
+		output = buffer.getFloat(offset + 60);
+		leftPeriod = buffer.getInt(offset + 64);
+		rightPeriod = buffer.getInt(offset + 68);
+		jitterNanos = buffer.getInt(offset + 72);
+		leftMicrosteps = buffer.get(offset + 76);
+		rightMicrosteps = buffer.get(offset + 77);
+		queued = buffer.get(offset + 78);
+		flags = buffer.get(offset + 79);
+		periodNanos = buffer.getInt(offset + 80);
+		controllerMode = buffer.get(offset + 84);
+		orientation = buffer.get(offset + 85);
+		predictionMicros = buffer.getChar(offset + 86);
+		cues = buffer.get(offset + 88);
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last {@code capacity} control cycles in a memory-mapped ring file, so a fall can be looked at afterwards
+ * without the loop ever formatting text or waiting on a write. A record is a handful of absolute puts into the
+ * mapping; the kernel writes the pages back to the file in its own time, and they survive the app being killed.
+ *
+ * The file starts with a {@link #HEADER_SIZE} byte header (magic, version, record size, capacity and the number of
+ * records written so far) followed by the ring of {@link FlightRecord#SIZE} byte records, all little-endian. An
+ * existing log with the same layout is appended to, so reconnecting the IOIO does not wipe the previous session.
+ *
+ * Only one thread may write.
+ */
+public class FlightRecorder implements Closeable {
+
+	static final long MAGIC = 0x31304c4652414241L; // "ABARFL01" read little-endian
+	static final int VERSION = 3;
+	static final int HEADER_SIZE = 32;
+	static final int WRITTEN_OFFSET = 24;
+
+	private final RandomAccessFile _file;
+	private final MappedByteBuffer _buffer;
+	private final int _capacity;
+	private long _written;
+
+	public FlightRecorder(File file, int capacity) throws IOException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		_capacity = capacity;
+		_file = new RandomAccessFile(file, "rw");
+		long length = HEADER_SIZE + (long) capacity * FlightRecord.SIZE;
+		boolean existing = _file.length() == length;
+		_file.setLength(length);
+		_buffer = _file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		_buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (existing && _buffer.getLong(0) == MAGIC && _buffer.getInt(8) == VERSION && _buffer.getInt(12) == FlightRecord.SIZE
+				&& _buffer.getInt(16) == capacity) {
+			_written = _buffer.getLong(WRITTEN_OFFSET);
+		} else {
+			_buffer.putLong(0, MAGIC);
+			_buffer.putInt(8, VERSION);
+			_buffer.putInt(12, FlightRecord.SIZE);
+			_buffer.putInt(16, capacity);
+			_buffer.putInt(20, 0);
+			_written = 0;
+			_buffer.putLong(WRITTEN_OFFSET, 0);
+		}
+	}
+
+	/**
+	 * Appends a record, overwriting the oldest one once the ring is full.
+	 */
+	public void write(FlightRecord record) {
+		long written = _written;
+		record.write(_buffer, HEADER_SIZE + (int) (written % _capacity) * FlightRecord.SIZE);
+		_written = written + 1;
+		_buffer.putLong(WRITTEN_OFFSET, _written);
+	}
+
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Records written since the log file was created, including the ones already overwritten.
+	 */
+	public long getWrittenCount() {
+		return _written;
+	}
+
+	/**
+	 * Forces the mapped pages out to the file and closes it.
+	 */
+	@Override
+	public void close() throws IOException {
+		_buffer.force();
+		_file.close();
+	}
+}
@@ -0,0 +1,374 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+import ioio.bar.control.BalanceLoop;
+import ioio.bar.control.BalanceState;
+import ioio.bar.control.Controller;
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.FusionMode;
+import ioio.bar.control.LatencyHistogram;
+import ioio.bar.control.MountOrientation;
+import ioio.bar.control.TiltEstimator;
+import ioio.bar.control.TiltFilter;
+import ioio.bar.drivers.A4988;
+import ioio.bar.drivers.DRV8834;
+import ioio.bar.protocols.OSCDecoder;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+import ioio.bar.protocols.OSCMessage;
+import ioio.bar.protocols.RawOSCFramer;
+import ioio.bar.protocols.SlipFramer;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.recorder.FlightRecorder;
+import ioio.bar.sim.PendulumSimulator;
+import ioio.bar.sim.SimulatedOutput;
+import ioio.lib.api.Sequencer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the per-sample hot paths: OSC decoding of the TouchOSC faders, rotation vector to tilt, every controller's
+ * update, the step period computation (with and without speed profiling) of the stepper drivers, and writing a
+ * flight recorder record.
+ *
+ * <pre>
+ * java ioio.bar.bench.BenchmarkMain [name filter]
+ * </pre>
+ */
+public class BenchmarkMain {
+
+	private static final int INPUTS = 1024; // power of two, indexed with & (INPUTS - 1)
+
+	public static void main(String[] args) throws Exception {
+		String filter = (args.length > 0) ? args[0] : "";
+		BenchmarkRunner runner = new BenchmarkRunner(1000000000L, 100000000L, 10);
+		for (Benchmark benchmark : createBenchmarks()) {
+			if (benchmark.getName().contains(filter)) {
+				System.out.println(runner.run(benchmark));
+			}
+		}
+	}
+
+	static List<Benchmark> createBenchmarks() {
+		// Tilts and speeds spread over the range seen while balancing, so no branch is always taken
+		final float[] tilts = new float[INPUTS];
+		final float[] speeds = new float[INPUTS];
+		final float[][] rotationVectors = new float[INPUTS][4];
+		for (int i = 0; i < INPUTS; i++) {
+			tilts[i] = (float) (0.1 * Math.sin(i * 0.37));
+			speeds[i] = (float) (0.4 * Math.sin(i * 0.53));
+			PendulumSimulator.toRotationVector(tilts[i], rotationVectors[i]);
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		final OSCDecoder decoder = new OSCDecoder();
+		final FloatListener listener = new FloatListener();
+		final byte[] message = encodeMessage("/T", 0.25f);
+		benchmarks.add(new Benchmark("osc.decode.message") {
+			@Override
+			public long run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					decoder.decode(message, 0, message.length, listener);
+				}
+				return Float.floatToRawIntBits(listener.sum);
+			}
+		});
+		final byte[] bundle = encodeBundle(encodeMessage("/T", 0.25f), encodeMessage("/S", -0.1f));
+		benchmarks.add(new Benchmark("osc.decode.bundle") {
+			@Override
+			public long run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					decoder.decode(bundle, 0, bundle.length, listener);
+				}
+				return Float.floatToRawIntBits(listener.sum);
+			}
+		});
+
+		// UART streams of /T messages, read the old way (one InputStream.read() per byte) and in bulk through the framers
+		final byte[] raw = message;
+		final byte[] slip = new byte[2 * (message.length + 2) + 2];
+		final int slipLength = SlipFramer.encode(message, 0, message.length, true, slip, 0);
+		final RawOSCFramer rawFramer = new RawOSCFramer(listener);
+		benchmarks.add(new Benchmark("uart.raw.bytewise") {
+			@Override
+			public long run(int operations) throws IOException {
+				InputStream in = new ByteArrayInputStream(raw);
+				byte[] one = new byte[1];
+				for (int i = 0; i < operations; i++) {
+					in.reset();
+					int b;
+					while ((b = in.read()) >= 0) {
+						one[0] = (byte) b;
+						rawFramer.feed(one, 0, 1, i);
+					}
+				}
+				return rawFramer.getFrameCount();
+			}
+		});
+		benchmarks.add(new Benchmark("uart.raw") {
+			@Override
+			public long run(int operations) throws IOException {
+				InputStream in = new ByteArrayInputStream(raw);
+				byte[] buffer = new byte[256];
+				for (int i = 0; i < operations; i++) {
+					in.reset();
+					rawFramer.feed(buffer, 0, in.read(buffer, 0, buffer.length), i);
+				}
+				return rawFramer.getFrameCount();
+			}
+		});
+		final SlipFramer slipFramer = new SlipFramer(listener, null, true);
+		benchmarks.add(new Benchmark("uart.slip_crc") {
+			@Override
+			public long run(int operations) throws IOException {
+				InputStream in = new ByteArrayInputStream(slip, 0, slipLength);
+				byte[] buffer = new byte[256];
+				for (int i = 0; i < operations; i++) {
+					in.reset();
+					slipFramer.feed(buffer, 0, in.read(buffer, 0, buffer.length), i);
+				}
+				return slipFramer.getFrameCount();
+			}
+		});
+
+		for (MountOrientation orientation : MountOrientation.values()) {
+			final TiltEstimator estimator = new TiltEstimator();
+			estimator.setOrientation(orientation);
+			String suffix = (orientation == MountOrientation.LANDSCAPE_RAISED) ? "" : "." + orientation.name().toLowerCase();
+			benchmarks.add(new Benchmark("tilt.estimate" + suffix) {
+				@Override
+				public long run(int operations) {
+					float sum = 0.0f;
+					for (int i = 0; i < operations; i++) {
+						sum += estimator.estimate(rotationVectors[i & (INPUTS - 1)]);
+					}
+					return Float.floatToRawIntBits(sum);
+				}
+			});
+		}
+
+		// One gyroscope sample through each in-app fusion filter, accelerometer included, and the tilt out of it
+		for (FusionMode mode : FusionMode.values()) {
+			final TiltFilter filter = mode.create();
+			if (filter == null) {
+				continue;
+			}
+			final float[] fused = new float[4];
+			benchmarks.add(new Benchmark("fusion." + mode.name().toLowerCase()) {
+				@Override
+				public long run(int operations) {
+					float sum = 0.0f;
+					for (int i = 0; i < operations; i++) {
+						int index = i & (INPUTS - 1);
+						filter.setAcceleration(0.0f, 9.8f * (float) Math.cos(tilts[index]), 9.8f * (float) Math.sin(tilts[index]));
+						filter.update(speeds[index], 0.0f, 0.0f, 0.0025f);
+						filter.getQuaternion(fused);
+						sum += fused[1] + filter.getTiltRate(MountOrientation.LANDSCAPE_RAISED);
+					}
+					filter.reset();
+					return Float.floatToRawIntBits(sum);
+				}
+			});
+		}
+
+		for (ControllerMode mode : ControllerMode.values()) {
+			final Controller controller = mode.create();
+			final BalanceState state = new BalanceState();
+			benchmarks.add(new Benchmark("control." + mode.name().toLowerCase() + ".update") {
+				@Override
+				public long run(int operations) {
+					float sum = 0.0f;
+					for (int i = 0; i < operations; i++) {
+						int index = i & (INPUTS - 1);
+						state.tilt = tilts[index];
+						state.tiltRate = tilts[(index + 1) & (INPUTS - 1)] - tilts[index];
+						state.wheelSpeed = speeds[index];
+						sum += controller.update(state, 0.002f);
+					}
+					controller.reset();
+					return Float.floatToRawIntBits(sum);
+				}
+			});
+		}
+
+		final TiltEstimator estimator = new TiltEstimator();
+		final BalanceLoop loop = new BalanceLoop(ControllerMode.PI.create());
+		benchmarks.add(new Benchmark("balance.sample") {
+			@Override
+			public long run(int operations) {
+				float sum = 0.0f;
+				for (int i = 0; i < operations; i++) {
+					float rawTilt = estimator.estimate(rotationVectors[i & (INPUTS - 1)]);
+					loop.onSample((i + 1) * 10000000L, rawTilt, 0.0f, 0.0f);
+					sum += loop.getOutput();
+				}
+				loop.reset();
+				return Float.floatToRawIntBits(sum);
+			}
+		});
+
+		final BalanceLoop predicted = new BalanceLoop(ControllerMode.PI.create());
+		predicted.getPredictor().setEnabled(true);
+		predicted.getPredictor().observeDelay(15000000L);
+		benchmarks.add(new Benchmark("balance.sample.predicted") {
+			@Override
+			public long run(int operations) {
+				float sum = 0.0f;
+				for (int i = 0; i < operations; i++) {
+					float rawTilt = estimator.estimate(rotationVectors[i & (INPUTS - 1)]);
+					predicted.onSample((i + 1) * 10000000L, rawTilt, 0.0f, 0.0f);
+					sum += predicted.getOutput();
+				}
+				predicted.reset();
+				return Float.floatToRawIntBits(sum);
+			}
+		});
+
+		final Sequencer.ChannelCueFmSpeed drvStep = new Sequencer.ChannelCueFmSpeed();
+		final DRV8834 drv8834 = new DRV8834(new SimulatedOutput(false), drvStep, new Sequencer.ChannelCueBinary(),
+				new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary());
+		benchmarks.add(new Benchmark("drv8834.setSpeed") {
+			@Override
+			public long run(int operations) throws Exception {
+				long sum = 0;
+				for (int i = 0; i < operations; i++) {
+					drv8834.setSpeed(speeds[i & (INPUTS - 1)]);
+					sum += drvStep.period;
+				}
+				return sum;
+			}
+		});
+
+		benchmarks.add(new Benchmark("drv8834.setProfiledSpeed") {
+			@Override
+			public long run(int operations) throws Exception {
+				long sum = 0;
+				for (int i = 0; i < operations; i++) {
+					drv8834.setProfiledSpeed(speeds[i & (INPUTS - 1)], 0.002f);
+					sum += drvStep.period;
+				}
+				return sum;
+			}
+		});
+
+		final Sequencer.ChannelCueFmSpeed a4988Step = new Sequencer.ChannelCueFmSpeed();
+		final A4988 a4988 = new A4988(new SimulatedOutput(false), a4988Step, new Sequencer.ChannelCueBinary(),
+				new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary());
+		benchmarks.add(new Benchmark("a4988.setSpeed") {
+			@Override
+			public long run(int operations) throws Exception {
+				long sum = 0;
+				for (int i = 0; i < operations; i++) {
+					a4988.setSpeed(speeds[i & (INPUTS - 1)]);
+					sum += a4988Step.period;
+				}
+				return sum;
+			}
+		});
+
+		final FlightRecorder recorder;
+		try {
+			File log = File.createTempFile("flight", ".log");
+			log.deleteOnExit();
+			recorder = new FlightRecorder(log, 30000);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		final FlightRecord record = new FlightRecord();
+		benchmarks.add(new Benchmark("recorder.write") {
+			@Override
+			public long run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					record.loopTime = i;
+					record.rawTilt = tilts[i & (INPUTS - 1)];
+					recorder.write(record);
+				}
+				return recorder.getWrittenCount();
+			}
+		});
+
+		final LatencyHistogram histogram = new LatencyHistogram("bench");
+		final long[] latencies = new long[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			latencies[i] = 20000 + (long) (15000 * Math.sin(i * 0.37));
+		}
+		benchmarks.add(new Benchmark("latency.record") {
+			@Override
+			public long run(int operations) {
+				for (int i = 0; i < operations; i++) {
+					histogram.record(latencies[i & (INPUTS - 1)]);
+				}
+				return histogram.getCount();
+			}
+		});
+
+		return benchmarks;
+	}
+
+	private static class FloatListener implements OSCListener {
+		float sum = 0.0f;
+
+		@Override
+		public void onMessageReceived(OSCMessage message) {
+			if (message.getArgumentCount() > 0 && message.isNumeric(0)) {
+				sum += message.getFloat(0);
+			}
+		}
+	}
+
+	/**
+	 * A single-float message as TouchOSC sends it for a fader.
+	 */
+	static byte[] encodeMessage(String address, float value) {
+		int addressSize = (address.length() + 4) & ~3;
+		ByteBuffer buffer = ByteBuffer.allocate(addressSize + 4 + 4);
+		for (int i = 0; i < address.length(); i++) {
+			buffer.put((byte) address.charAt(i));
+		}
+		buffer.position(addressSize);
+		buffer.put((byte) ',').put((byte) 'f').put((byte) 0).put((byte) 0);
+		buffer.putFloat(value);
+		return buffer.array();
+	}
+
+	static byte[] encodeBundle(byte[]... messages) {
+		int size = 16;
+		for (byte[] message : messages) {
+			size += 4 + message.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put("#bundle".getBytes()).put((byte) 0).putLong(OSCMessage.IMMEDIATELY);
+		for (byte[] message : messages) {
+			buffer.putInt(message.length).put(message);
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+/**
+ * Time and allocation per operation of one benchmark, averaged over the measured iterations.
+ */
+public class BenchmarkResult {
+
+	public final String name;
+	public final double nanosPerOp;
+	public final double nanosError; // standard deviation across iterations
+	public final double bytesPerOp; // negative when the JVM cannot count allocations
+	public final double bytesPerSecond;
+
+	public BenchmarkResult(String name, double nanosPerOp, double nanosError, double bytesPerOp, double bytesPerSecond) {
+		this.name = name;
+		this.nanosPerOp = nanosPerOp;
+		this.nanosError = nanosError;
+		this.bytesPerOp = bytesPerOp;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		String allocation = (bytesPerOp < 0) ? "n/a" : String.format("%8.2f B/op %8.2f MB/s", bytesPerOp, bytesPerSecond / (1024 * 1024));
+		return String.format("%-28s %10.2f +- %6.2f ns/op %s", name, nanosPerOp, nanosError, allocation);
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times benchmarks like JMH's average-time mode, without needing JMH or a build system: a warmup phase long enough
+ * for the JIT to compile the hot path, then a number of fixed-size batches whose times are averaged. Unlike JMH it
+ * runs every benchmark in the calling JVM rather than forking one per benchmark, see tools/README.md.
+ *
+ * Allocations are read from HotSpot's per-thread allocation counter, which the operations themselves do not disturb.
+ * A non-zero bytes/op on a control path means something is allocating per sample.
+ */
+public class BenchmarkRunner {
+
+	private final long _warmupNanos;
+	private final long _iterationNanos;
+	private final int _iterations;
+
+	private final com.sun.management.ThreadMXBean _threads;
+	private volatile long _sink;
+
+	public BenchmarkRunner(long warmupNanos, long iterationNanos, int iterations) {
+		_warmupNanos = warmupNanos;
+		_iterationNanos = iterationNanos;
+		_iterations = iterations;
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			_threads = (com.sun.management.ThreadMXBean) threads;
+			_threads.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			_threads = null;
+		}
+	}
+
+	public BenchmarkResult run(Benchmark benchmark) throws Exception {
+		// Warmup, growing the batch until one takes about an iteration's worth of time
+		int batch = 1;
+		long warmupEnd = System.nanoTime() + _warmupNanos;
+		long elapsed;
+		do {
+			long start = System.nanoTime();
+			_sink += benchmark.run(batch);
+			elapsed = System.nanoTime() - start;
+			if (elapsed < _iterationNanos && batch < (1 << 30)) {
+				batch <<= 1;
+			}
+		} while (System.nanoTime() < warmupEnd);
+
+		double[] nanosPerOp = new double[_iterations];
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocatedBytes(threadId);
+		long measureStart = System.nanoTime();
+		for (int i = 0; i < _iterations; i++) {
+			long start = System.nanoTime();
+			_sink += benchmark.run(batch);
+			nanosPerOp[i] = (double) (System.nanoTime() - start) / batch;
+		}
+		long measured = System.nanoTime() - measureStart;
+		long allocated = allocatedBytes(threadId) - allocatedBefore;
+
+		double mean = 0.0;
+		for (double value : nanosPerOp) {
+			mean += value;
+		}
+		mean /= _iterations;
+		double variance = 0.0;
+		for (double value : nanosPerOp) {
+			variance += (value - mean) * (value - mean);
+		}
+		double error = (_iterations > 1) ? Math.sqrt(variance / (_iterations - 1)) : 0.0;
+
+		double bytesPerOp = -1.0;
+		double bytesPerSecond = -1.0;
+		if (_threads != null) {
+			bytesPerOp = (double) allocated / ((long) batch * _iterations);
+			bytesPerSecond = allocated / (measured * 1e-9);
+		}
+		return new BenchmarkResult(benchmark.getName(), mean, error, bytesPerOp, bytesPerSecond);
+	}
+
+	private long allocatedBytes(long threadId) {
+		return (_threads != null) ? _threads.getThreadAllocatedBytes(threadId) : 0L;
+	}
+}
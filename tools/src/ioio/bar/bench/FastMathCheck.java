@@ -0,0 +1,80 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+import ioio.bar.control.FastMath;
+
+/**
+ * Compares {@link FastMath} with java.lang.Math over a dense sweep of the domain and prints the largest errors, which
+ * must stay within the bounds documented in FastMath. Exits with status 1 if one does not.
+ *
+ * <pre>
+ * java ioio.bar.bench.FastMathCheck [steps]
+ * </pre>
+ */
+public class FastMathCheck {
+
+	private static final double ASIN_BOUND = 3e-7;
+	private static final double ATAN2_BOUND = 3e-6;
+
+	public static void main(String[] args) {
+		int steps = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+
+		double asinError = 0.0;
+		float asinWorst = 0.0f;
+		for (int i = 0; i <= steps; i++) {
+			float x = -1.0f + 2.0f * i / steps;
+			double error = Math.abs(FastMath.asin(x) - Math.asin(x));
+			if (error > asinError) {
+				asinError = error;
+				asinWorst = x;
+			}
+		}
+
+		// Around the unit circle, and at a few radii since atan2 only depends on the ratio
+		double atan2Error = 0.0;
+		double atan2Worst = 0.0;
+		for (int i = 0; i <= steps; i++) {
+			double angle = -Math.PI + 2.0 * Math.PI * i / steps;
+			for (float radius = 1e-3f; radius <= 1e3f; radius *= 10.0f) {
+				float y = (float) (radius * Math.sin(angle));
+				float x = (float) (radius * Math.cos(angle));
+				double error = Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x));
+				if (error > atan2Error) {
+					atan2Error = error;
+					atan2Worst = angle;
+				}
+			}
+		}
+		boolean special = FastMath.atan2(0.0f, 0.0f) == 0.0f && FastMath.asin(1.0000001f) == FastMath.HALF_PI
+				&& FastMath.asin(-1.0f) == -FastMath.HALF_PI;
+
+		System.out.printf("asin  max error %.2e rad at %.6f (bound %.0e)%n", asinError, asinWorst, ASIN_BOUND);
+		System.out.printf("atan2 max error %.2e rad at %.6f rad (bound %.0e)%n", atan2Error, atan2Worst, ATAN2_BOUND);
+		System.out.println("special cases " + (special ? "ok" : "FAILED"));
+		if (asinError > ASIN_BOUND || atan2Error > ATAN2_BOUND || !special) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+import ioio.bar.control.LatencyHistogram;
+import ioio.bar.protocols.ControlFrame;
+import ioio.bar.protocols.ControlFrameDecoder;
+import ioio.bar.protocols.ControlFrameDecoder.ControlFrameListener;
+import ioio.bar.protocols.OSCDecoder;
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+import ioio.bar.protocols.OSCMessage;
+import ioio.bar.protocols.SlipFramer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Sends throttle and steering updates over UDP loopback, decoded as UDPServer does, in three encodings: a TouchOSC
+ * style datagram per fader ("/T" then "/S"), both in one OSC bundle, and one binary {@link ControlFrame}. Prints the
+ * send-to-decoded latency of one update at a time, the updates per second when sending flat out, the bytes per update,
+ * and how long those bytes take on the 115200 baud UART with SLIP+CRC framing.
+ *
+ * <pre>
+ * java ioio.bar.bench.ProtocolLoopback [updates]
+ * </pre>
+ */
+public class ProtocolLoopback {
+
+	private static final double UART_BAUD = 115200;
+	private static final int BITS_PER_BYTE = 10; // 8N1
+
+	private enum Encoding {
+		OSC_MESSAGES, OSC_BUNDLE, BINARY
+	}
+
+	public static void main(String[] args) throws Exception {
+		int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		for (Encoding encoding : Encoding.values()) {
+			new ProtocolLoopback(encoding).run(updates);
+		}
+	}
+
+	private final Encoding _encoding;
+	private final long[] _sendTimes = new long[1 << 16];
+	private final LatencyHistogram _latency = new LatencyHistogram("latency");
+	private final Semaphore _done = new Semaphore(0);
+	private volatile boolean _acknowledge = true;
+	private volatile long _decoded = 0;
+
+	private ProtocolLoopback(Encoding encoding) {
+		_encoding = encoding;
+	}
+
+	private void run(int updates) throws Exception {
+		DatagramChannel receiver = DatagramChannel.open();
+		receiver.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		DatagramChannel sender = DatagramChannel.open();
+		sender.connect(receiver.socket().getLocalSocketAddress());
+		Thread thread = new Thread(new Receiver(receiver), "receiver");
+		thread.start();
+
+		ControlFrame frame = new ControlFrame();
+		byte[] frameBytes = new byte[ControlFrame.SIZE];
+		ByteBuffer[] packets = null;
+		int wireBytes = 0;
+		int uartBytes = 0;
+
+		// One update at a time, for latency; the first tenth warms up
+		for (int i = 0; i < updates; i++) {
+			if (i == updates / 10) {
+				_latency.reset();
+			}
+			packets = encode(i, frame, frameBytes);
+			_sendTimes[i & 0xFFFF] = System.nanoTime();
+			for (ByteBuffer packet : packets) {
+				sender.write(packet);
+			}
+			_done.acquire();
+		}
+		for (ByteBuffer packet : packets) {
+			wireBytes += packet.limit();
+			byte[] slip = new byte[2 * packet.limit() + 6];
+			uartBytes += SlipFramer.encode(packet.array(), 0, packet.limit(), true, slip, 0);
+		}
+
+		// Flat out for one second, for throughput; datagrams the receiver cannot keep up with are dropped
+		_acknowledge = false;
+		long before = _decoded;
+		long start = System.nanoTime();
+		int sent = 0;
+		while (System.nanoTime() - start < 1000000000L) {
+			for (ByteBuffer packet : encode(sent++, frame, frameBytes)) {
+				sender.write(packet);
+			}
+		}
+		Thread.sleep(50);
+		double seconds = (System.nanoTime() - start) * 1e-9;
+		long received = _decoded - before;
+
+		sender.close();
+		receiver.close();
+		thread.join();
+
+		System.out.printf("%-12s %2d bytes/update in %d datagram(s), UART %2d bytes = %.2f ms. Latency p50 %.1fus p99 %.1fus, "
+				+ "%.0f updates/s (%.0f%% of %d sent)%n", _encoding, wireBytes, packets.length, uartBytes,
+				uartBytes * BITS_PER_BYTE / UART_BAUD * 1000, _latency.getPercentile(50) / 1000.0,
+				_latency.getPercentile(99) / 1000.0, received / seconds, 100.0 * received / sent, sent);
+	}
+
+	private ByteBuffer[] encode(int index, ControlFrame frame, byte[] frameBytes) {
+		float throttle = 0.25f;
+		switch (_encoding) {
+		case OSC_MESSAGES:
+			// The update's index rides in the steering value so the receiver can match it with its send time
+			return new ByteBuffer[] { ByteBuffer.wrap(BenchmarkMain.encodeMessage("/T", throttle)),
+					ByteBuffer.wrap(BenchmarkMain.encodeMessage("/S", index & 0xFFFF)) };
+		case OSC_BUNDLE:
+			return new ByteBuffer[] { ByteBuffer.wrap(BenchmarkMain.encodeBundle(BenchmarkMain.encodeMessage("/T", throttle),
+					BenchmarkMain.encodeMessage("/S", index & 0xFFFF))) };
+		default:
+			frame.sequence = index & 0xFFFF;
+			frame.throttle = throttle;
+			frame.steering = -0.1f;
+			frame.encode(frameBytes, 0);
+			return new ByteBuffer[] { ByteBuffer.wrap(frameBytes) };
+		}
+	}
+
+	private void onUpdate(int index) {
+		_decoded++;
+		if (_acknowledge) {
+			_latency.record(System.nanoTime() - _sendTimes[index]);
+			_done.release();
+		}
+	}
+
+	private class Receiver implements Runnable, OSCListener, ControlFrameListener {
+
+		private final DatagramChannel _channel;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(1536);
+		private final OSCDecoder _oscDecoder = new OSCDecoder();
+		private final ControlFrameDecoder _frameDecoder = new ControlFrameDecoder();
+
+		Receiver(DatagramChannel channel) {
+			_channel = channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					_buffer.clear();
+					_channel.receive(_buffer);
+					_buffer.flip();
+					if (ControlFrameDecoder.isControlFrame(_buffer.get(0))) {
+						_frameDecoder.decode(_buffer, this);
+					} else {
+						_oscDecoder.decode(_buffer, this);
+					}
+				}
+			} catch (ClosedChannelException e) {
+				// Done
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void onMessageReceived(OSCMessage message) {
+			if (message.addressEquals("/S")) {
+				onUpdate((int) message.getFloat(0));
+			}
+		}
+
+		@Override
+		public void onControlFrame(ControlFrame frame) {
+			onUpdate(frame.sequence);
+		}
+	}
+}
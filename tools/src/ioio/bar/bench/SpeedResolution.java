@@ -0,0 +1,74 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.bench;
+
+import ioio.bar.drivers.DRV8834;
+import ioio.bar.sim.SimulatedOutput;
+import ioio.lib.api.Sequencer;
+
+/**
+ * Shows how finely DRV8834.setSpeed() can set the wheel speed, with and without period dithering. Speeds are swept
+ * across the upper part of the range, where one tick of the 62.5 kHz period is worth several percent; each one is
+ * commanded for a number of control cycles (one cue each) and the average speed the cues produce is compared with
+ * the requested one.
+ *
+ * <pre>
+ * java ioio.bar.bench.SpeedResolution [cycles averaged]
+ * </pre>
+ */
+public class SpeedResolution {
+
+	private static final int SPEEDS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int cycles = (args.length > 0) ? Integer.parseInt(args[0]) : 25;
+		float from = 0.5f * DRV8834.MAX_SPEED;
+		float to = DRV8834.MAX_SPEED;
+
+		System.out.printf("%d speeds between %.0f and %.0f steps/s, averaged over %d cycles%n", SPEEDS, from, to, cycles);
+		for (boolean dithering : new boolean[] { false, true }) {
+			Sequencer.ChannelCueFmSpeed step = new Sequencer.ChannelCueFmSpeed();
+			Sequencer.ChannelCueBinary m0 = new Sequencer.ChannelCueBinary();
+			Sequencer.ChannelCueBinary m1 = new Sequencer.ChannelCueBinary();
+			DRV8834 motor = new DRV8834(new SimulatedOutput(false), step, new Sequencer.ChannelCueBinary(), m0, m1);
+			motor.setDithering(dithering);
+
+			double maxError = 0.0;
+			double sumSquares = 0.0;
+			for (int i = 0; i < SPEEDS; i++) {
+				float requested = from + (to - from) * i / (SPEEDS - 1);
+				double sum = 0.0;
+				for (int cycle = 0; cycle < cycles; cycle++) {
+					motor.setSpeed(requested / 10000);
+					sum += DRV8834.STEPS_FREQ / step.period * 16 / motor.getMicrosteps();
+				}
+				double error = Math.abs(sum / cycles - requested) / requested;
+				maxError = Math.max(maxError, error);
+				sumSquares += error * error;
+			}
+			System.out.printf("dithering %-3s max error %.3f%%, rms error %.3f%%%n", dithering ? "on" : "off", 100 * maxError,
+					100 * Math.sqrt(sumSquares / SPEEDS));
+		}
+	}
+}
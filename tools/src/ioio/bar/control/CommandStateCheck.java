@@ -0,0 +1,161 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.control;
+
+/**
+ * Runs {@link CommandState} and {@link CommandTimeout} through the sequences the control loop sees: fresh commands,
+ * the fade after the timeout, messages that set only one of the commands once the others expired, and the ordering of
+ * OSC bundles by time tag. Exits with status 1 if a case fails.
+ *
+ * <pre>
+ * java ioio.bar.control.CommandStateCheck
+ * </pre>
+ */
+public class CommandStateCheck {
+
+	private static final long MILLIS = 1000000L;
+	private static final long TIMEOUT = 250 * MILLIS;
+	private static final long TIME_A = 0xDA8E1B2C00000000L;
+	private static final long TIME_B = 0xDA8E1B2C80000000L;
+	private static final long IMMEDIATELY = 1L; // OSCMessage.IMMEDIATELY
+
+	private int _cases = 0;
+	private int _failures = 0;
+
+	public static void main(String[] args) {
+		CommandStateCheck check = new CommandStateCheck();
+		check.checkTimeout();
+		check.checkSteeringAfterExpiry();
+		check.checkCommandDuringExpiry();
+		check.checkTimeTags();
+		System.out.println(check._cases + " cases, " + check._failures + " failed");
+		if (check._failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private void checkTimeout() {
+		CommandState commands = new CommandState();
+		CommandTimeout timeout = new CommandTimeout(TIMEOUT);
+		long start = 1000 * MILLIS;
+		receive(commands, 0.5f, 0.2f, start);
+
+		expect("fresh", timeout, commands, start + TIMEOUT, 0.5f, 0.2f);
+		expect("half faded", timeout, commands, start + TIMEOUT + CommandTimeout.DECAY_NANOS / 2, 0.25f, 0.1f);
+		check("cleared on expiry", CommandState.throttleOf(commands.snapshot()) == 0.0f
+				&& CommandState.steeringOf(commands.snapshot()) == 0.0f);
+		expect("faded out", timeout, commands, start + TIMEOUT + CommandTimeout.DECAY_NANOS, 0.0f, 0.0f);
+		check("expired once", timeout.getExpiredCount() == 1);
+
+		CommandTimeout disabled = new CommandTimeout(0);
+		receive(commands, 0.5f, 0.2f, start);
+		expect("no timeout", disabled, commands, start + 3600000 * MILLIS, 0.5f, 0.2f);
+	}
+
+	/**
+	 * A client that sends /T and /S in separate messages, after the link came back: the /S alone must not bring the
+	 * throttle from before the timeout back.
+	 */
+	private void checkSteeringAfterExpiry() {
+		CommandState commands = new CommandState();
+		CommandTimeout timeout = new CommandTimeout(TIMEOUT);
+		long start = 1000 * MILLIS;
+		receive(commands, 0.5f, 0.2f, start);
+		long now = start;
+		for (; now <= start + TIMEOUT + CommandTimeout.DECAY_NANOS; now += 10 * MILLIS) {
+			timeout.apply(commands, now, commands.getReceivedNanos());
+		}
+
+		commands.setSteering(-0.3f);
+		commands.setReceivedNanos(now);
+		expect("/S after expiry", timeout, commands, now + 10 * MILLIS, 0.0f, -0.3f);
+
+		// Same while still fading out
+		receive(commands, 0.5f, 0.2f, now);
+		now += TIMEOUT + CommandTimeout.DECAY_NANOS / 2;
+		expect("fading", timeout, commands, now, 0.25f, 0.1f);
+		commands.setSteering(-0.3f);
+		commands.setReceivedNanos(now);
+		expect("/S while fading", timeout, commands, now + 10 * MILLIS, 0.0f, -0.3f);
+		expect("/S then silence", timeout, commands, now + TIMEOUT - MILLIS, 0.0f, -0.3f);
+	}
+
+	/**
+	 * A command that lands between the loop reading the receive time and clearing the expired commands is kept.
+	 */
+	private void checkCommandDuringExpiry() {
+		CommandState commands = new CommandState();
+		long start = 1000 * MILLIS;
+		receive(commands, 0.5f, 0.2f, start);
+		long expired = commands.snapshot();
+		receive(commands, 0.4f, 0.1f, start + 500 * MILLIS);
+		check("newer command kept", !commands.expire(start, expired) && CommandState.throttleOf(commands.snapshot()) == 0.4f);
+		check("same command cleared", commands.expire(start + 500 * MILLIS, commands.snapshot())
+				&& CommandState.throttleOf(commands.snapshot()) == 0.0f);
+	}
+
+	/**
+	 * Time tags order each command on its own: a bundle with only /S after a newer one with /T is still taken.
+	 */
+	private void checkTimeTags() {
+		CommandState commands = new CommandState();
+		long now = 1000 * MILLIS;
+		check("first /T", commands.acceptTimeTag(CommandState.THROTTLE, TIME_B, now));
+		check("older /S after newer /T", commands.acceptTimeTag(CommandState.STEERING, TIME_A, now + MILLIS));
+		check("older /T dropped", !commands.acceptTimeTag(CommandState.THROTTLE, TIME_A, now + 2 * MILLIS));
+		check("same /T taken", commands.acceptTimeTag(CommandState.THROTTLE, TIME_B, now + 3 * MILLIS));
+		check("newer /S", commands.acceptTimeTag(CommandState.STEERING, TIME_B, now + 4 * MILLIS));
+		check("older /S dropped", !commands.acceptTimeTag(CommandState.STEERING, TIME_A, now + 5 * MILLIS));
+		check("immediate /S", commands.acceptTimeTag(CommandState.STEERING, IMMEDIATELY, now + 6 * MILLIS));
+		check("older /T after resync", commands.acceptTimeTag(CommandState.THROTTLE, TIME_A,
+				now + 6 * MILLIS + CommandState.RESYNC_NANOS + 1));
+		check("dropped count", commands.getDroppedCount() == 2);
+	}
+
+	private static void receive(CommandState commands, float throttle, float steering, long nowNanos) {
+		commands.set(throttle, steering);
+		commands.setReceivedNanos(nowNanos);
+	}
+
+	private void expect(String name, CommandTimeout timeout, CommandState commands, long nowNanos, float throttle,
+			float steering) {
+		long applied = timeout.apply(commands, nowNanos, commands.getReceivedNanos());
+		float gotThrottle = CommandState.throttleOf(applied);
+		float gotSteering = CommandState.steeringOf(applied);
+		boolean passed = Math.abs(gotThrottle - throttle) < 1e-6f && Math.abs(gotSteering - steering) < 1e-6f;
+		check(name, passed);
+		if (!passed) {
+			System.out.println("  throttle " + gotThrottle + " steering " + gotSteering + ", expected " + throttle + " "
+					+ steering);
+		}
+	}
+
+	private void check(String name, boolean passed) {
+		_cases++;
+		if (!passed) {
+			_failures++;
+			System.out.println("FAILED " + name);
+		}
+	}
+}
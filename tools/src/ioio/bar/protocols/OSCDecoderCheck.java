@@ -0,0 +1,415 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.protocols;
+
+import ioio.bar.protocols.OSCDecoder.OSCListener;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes hand-built OSC packets with {@link OSCDecoder} and {@link OSCCoalescer} and compares what the listener
+ * receives with what was encoded: single messages of every argument type, nested bundles and their time tags,
+ * truncated, misaligned and malformed packets, and the stream boundaries reported by
+ * {@link OSCDecoder#measure(byte[], int, int)}. Exits with status 1 if a case fails.
+ *
+ * <pre>
+ * java ioio.bar.protocols.OSCDecoderCheck
+ * </pre>
+ */
+public class OSCDecoderCheck {
+
+	private static final long TIME_A = 0xDA8E1B2C00000000L;
+	private static final long TIME_B = 0xDA8E1B2C80000000L;
+
+	private final OSCDecoder _decoder = new OSCDecoder();
+	private final Capture _capture = new Capture();
+	private int _cases = 0;
+	private int _failures = 0;
+
+	public static void main(String[] args) {
+		OSCDecoderCheck check = new OSCDecoderCheck();
+		check.checkMessages();
+		check.checkBundles();
+		check.checkTruncated();
+		check.checkMisaligned();
+		check.checkMalformed();
+		check.checkMeasure();
+		check.checkCoalescer();
+		System.out.println(check._cases + " cases, " + check._failures + " failed");
+		if (check._failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private void checkMessages() {
+		expect("float", message("/T", ",f", 0.25f), "/T f0.25 @1");
+		expect("bare address", pad("/stop"), "/stop @1");
+		expect("no arguments", message("/reset", ","), "/reset @1");
+		expect("every type", message("/a/b", ",ifsbTFNI", -7, 1.5f, "pid", new byte[] { 1, 2, 3, 4, 5 }),
+				"/a/b i-7 f1.5 s\"pid\" b5:15 T F N I @1");
+		expect("address padded to 8", message("/abcdef", ",i", 3), "/abcdef i3 @1");
+		expect("string padded to 8", message("/mode", ",sf", "lqr0123", 2.0f), "/mode s\"lqr0123\" f2.0 @1");
+
+		// The decoder must honour the offset and leave a ByteBuffer's position and limit alone
+		byte[] packet = message("/S", ",f", -0.5f);
+		byte[] shifted = new byte[packet.length + 12];
+		System.arraycopy(packet, 0, shifted, 8, packet.length);
+		_capture.clear();
+		check("decode at offset", _decoder.decode(shifted, 8, packet.length, _capture)
+				&& _capture.toString().equals("/S f-0.5 @1"));
+		ByteBuffer buffer = ByteBuffer.wrap(shifted, 8, packet.length);
+		_capture.clear();
+		boolean decoded = _decoder.decode(buffer, _capture);
+		check("decode ByteBuffer", decoded && _capture.toString().equals("/S f-0.5 @1") && buffer.position() == 8
+				&& buffer.limit() == 8 + packet.length);
+
+		// int32 and True/False read as floats, the way TouchOSC toggles send them
+		_capture.clear();
+		_decoder.decode(wrap(message("/toggle", ",iTF", 1)), new OSCListener() {
+			@Override
+			public void onMessageReceived(OSCMessage message) {
+				_capture.add(message.getFloat(0) + " " + message.getFloat(1) + " " + message.getFloat(2) + " "
+						+ message.isNumeric(0) + " " + message.stringEquals(0, "x"));
+			}
+		});
+		check("numeric conversion", _capture.toString().equals("1.0 1.0 0.0 true false"));
+	}
+
+	private void checkBundles() {
+		expect("empty bundle", bundle(TIME_A), "");
+		expect("bundle", bundle(TIME_A, message("/T", ",f", 0.5f), message("/S", ",f", -0.5f)),
+				"/T f0.5 @" + Long.toHexString(TIME_A) + " /S f-0.5 @" + Long.toHexString(TIME_A));
+		expect("nested bundles",
+				bundle(TIME_A, message("/a", ",i", 1), bundle(TIME_B, message("/b", ",i", 2)), message("/c", ",i", 3)),
+				"/a i1 @" + Long.toHexString(TIME_A) + " /b i2 @" + Long.toHexString(TIME_B) + " /c i3 @"
+						+ Long.toHexString(TIME_A));
+		expect("immediate bundle", bundle(OSCMessage.IMMEDIATELY, message("/a", ",i", 1)), "/a i1 @1");
+
+		// A message outside a bundle carries IMMEDIATELY even after a bundle was decoded
+		expect("time tag not sticky", message("/a", ",i", 1), "/a i1 @1");
+
+		// Eight levels of bundles are decoded, the ninth is refused so a hostile packet cannot recurse forever
+		byte[] deep = message("/deep", ",i", 8);
+		for (int depth = 0; depth < 8; depth++) {
+			deep = bundle(TIME_A, deep);
+		}
+		expect("8 nested bundles", deep, "/deep i8 @" + Long.toHexString(TIME_A));
+		expectMalformed("9 nested bundles", bundle(TIME_A, deep), "");
+	}
+
+	private void checkTruncated() {
+		byte[] packet = message("/a/b", ",ifsb", 1, 2.0f, "str", new byte[] { 9, 9, 9, 9, 9, 9 });
+		// The 8 byte address alone is a valid bare message; every longer aligned prefix ends inside the type tags or
+		// the arguments
+		boolean rejected = true;
+		for (int length = 12; length < packet.length; length += 4) {
+			_capture.clear();
+			rejected &= !_decoder.decode(packet, 0, length, _capture) && _capture.size() == 0;
+		}
+		check("truncated message", rejected);
+
+		byte[] first = message("/T", ",f", 0.5f);
+		byte[] bundle = bundle(TIME_A, first, message("/S", ",f", -0.5f));
+		String delivered = "/T f0.5 @" + Long.toHexString(TIME_A);
+		expectMalformed("bundle header only", copyOf(bundle, 12), "");
+		expectMalformed("bundle cut after element size", copyOf(bundle, 16 + 4 + first.length + 4), delivered);
+		expectMalformed("bundle cut in element", copyOf(bundle, bundle.length - 4), delivered);
+	}
+
+	private void checkMisaligned() {
+		byte[] packet = message("/T", ",f", 0.5f);
+		boolean rejected = true;
+		for (int trim = 1; trim < 4; trim++) {
+			_capture.clear();
+			rejected &= !_decoder.decode(packet, 0, packet.length - trim, _capture) && _capture.size() == 0;
+			_capture.clear();
+			rejected &= !_decoder.decode(copyOf(packet, packet.length + trim), 0, packet.length + trim, _capture)
+					&& _capture.size() == 0;
+		}
+		check("misaligned length", rejected);
+		expectMalformed("shorter than 4 bytes", new byte[] { '/', 0 }, "");
+
+		byte[] element = copyOf(packet, packet.length + 2);
+		expectMalformed("misaligned bundle element", bundle(TIME_A, element), "");
+	}
+
+	private void checkMalformed() {
+		expectMalformed("empty", new byte[0], "");
+		expectMalformed("no leading slash", pad("T"), "");
+		expectMalformed("type tags without comma", concat(pad("/T"), pad("f"), int32(0)), "");
+		expectMalformed("unknown type", message("/T", ",x"), "");
+		expectMalformed("too many arguments", message("/T", ",NNNNNNNNNNNNNNNNN"), "");
+		expectMalformed("unterminated string", concat(pad("/s"), pad(",s"), new byte[] { 'a', 'b', 'c', 'd' }), "");
+		expectMalformed("negative blob length", concat(pad("/b"), pad(",b"), int32(-4), int32(0)), "");
+		expectMalformed("blob longer than packet", concat(pad("/b"), pad(",b"), int32(8), int32(0)), "");
+
+		byte[] header = bundle(TIME_A);
+		header[6] = 'X';
+		expectMalformed("bad bundle header", header, "");
+		byte[] element = message("/a", ",i", 1);
+		expectMalformed("negative element size", concat(bundle(TIME_A), int32(-4), element), "");
+		expectMalformed("element size past end", concat(bundle(TIME_A), int32(element.length + 4), element), "");
+
+		// Messages before the error are delivered, the rest of the bundle is dropped
+		expectMalformed("error inside bundle",
+				bundle(TIME_A, message("/a", ",i", 1), message("/b", ",x"), message("/c", ",i", 3)),
+				"/a i1 @" + Long.toHexString(TIME_A));
+	}
+
+	private void checkMeasure() {
+		byte[] packet = message("/a/b", ",ifsb", 1, 2.0f, "str", new byte[] { 9, 9, 9, 9, 9 });
+		check("measure complete", _decoder.measure(packet, 0, packet.length) == packet.length);
+
+		// On a stream the next message follows straight away, and a message can arrive a byte at a time
+		byte[] stream = concat(new byte[3], packet, message("/T", ",f", 0.5f));
+		check("measure followed by more", _decoder.measure(stream, 3, stream.length - 3) == packet.length);
+		boolean incomplete = true;
+		for (int length = 0; length < packet.length; length++) {
+			incomplete &= _decoder.measure(stream, 3, length) == OSCDecoder.INCOMPLETE;
+		}
+		check("measure every prefix", incomplete);
+		check("measure bare address", _decoder.measure(pad("/stop"), 0, 8) == OSCDecoder.INCOMPLETE);
+
+		byte[] bundle = bundle(TIME_A, message("/T", ",f", 0.5f));
+		check("measure bundle", _decoder.measure(bundle, 0, bundle.length) == OSCDecoder.MALFORMED);
+		check("measure no leading slash", _decoder.measure(pad("T"), 0, 4) == OSCDecoder.MALFORMED);
+		byte[] unknown = message("/T", ",x");
+		check("measure unknown type", _decoder.measure(unknown, 0, unknown.length) == OSCDecoder.MALFORMED);
+		byte[] negative = concat(pad("/b"), pad(",b"), int32(-4));
+		check("measure negative blob", _decoder.measure(negative, 0, negative.length) == OSCDecoder.MALFORMED);
+		byte[] comma = concat(pad("/T"), pad("f"));
+		check("measure type tags without comma", _decoder.measure(comma, 0, comma.length) == OSCDecoder.MALFORMED);
+	}
+
+	private void checkCoalescer() {
+		OSCCoalescer coalescer = new OSCCoalescer(_capture);
+		String a = "@" + Long.toHexString(TIME_A);
+		String b = "@" + Long.toHexString(TIME_B);
+
+		// The newest time tag wins, whatever the order the datagrams arrived in
+		_capture.clear();
+		_decoder.decode(wrap(bundle(TIME_B, message("/T", ",f", 0.5f))), coalescer);
+		_decoder.decode(wrap(bundle(TIME_A, message("/T", ",f", 0.9f), message("/S", ",f", 0.1f))), coalescer);
+		coalescer.flush();
+		check("coalescer keeps newest time tag", _capture.toString().equals("/T f0.5 " + b + " /S f0.1 " + a));
+
+		_capture.clear();
+		_decoder.decode(wrap(bundle(TIME_A, message("/T", ",f", 0.9f))), coalescer);
+		_decoder.decode(wrap(bundle(TIME_B, message("/T", ",f", 0.5f))), coalescer);
+		coalescer.flush();
+		check("coalescer replaces older time tag", _capture.toString().equals("/T f0.5 " + b));
+
+		// Without time tags the last to arrive wins
+		_capture.clear();
+		_decoder.decode(wrap(message("/T", ",f", 0.1f)), coalescer);
+		_decoder.decode(wrap(message("/S", ",f", 0.2f)), coalescer);
+		_decoder.decode(wrap(message("/T", ",f", 0.3f)), coalescer);
+		coalescer.flush();
+		check("coalescer keeps last arrival", _capture.toString().equals("/T f0.3 @1 /S f0.2 @1")
+				&& coalescer.getCoalescedCount() == 3);
+
+		_capture.clear();
+		coalescer.flush();
+		check("coalescer empties on flush", _capture.size() == 0);
+	}
+
+	private void expect(String name, byte[] packet, String messages) {
+		_capture.clear();
+		boolean decoded = _decoder.decode(packet, 0, packet.length, _capture);
+		check(name, decoded && _capture.toString().equals(messages));
+	}
+
+	private void expectMalformed(String name, byte[] packet, String delivered) {
+		_capture.clear();
+		boolean decoded = _decoder.decode(packet, 0, packet.length, _capture);
+		check(name, !decoded && _capture.toString().equals(delivered));
+	}
+
+	private void check(String name, boolean passed) {
+		_cases++;
+		if (!passed) {
+			_failures++;
+			System.out.println("FAILED " + name + (_capture.size() > 0 ? ": " + _capture : ""));
+		}
+	}
+
+	private static ByteBuffer wrap(byte[] packet) {
+		return ByteBuffer.wrap(packet);
+	}
+
+	/**
+	 * Encodes a message. Arguments are taken in type tag order; T, F, N and I take none.
+	 */
+	private static byte[] message(String address, String typeTags, Object... arguments) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, pad(address));
+		write(out, pad(typeTags));
+		int argument = 0;
+		for (int i = 1; i < typeTags.length(); i++) {
+			switch (typeTags.charAt(i)) {
+			case 'i':
+				write(out, int32((Integer) arguments[argument++]));
+				break;
+			case 'f':
+				write(out, int32(Float.floatToIntBits((Float) arguments[argument++])));
+				break;
+			case 's':
+				write(out, pad((String) arguments[argument++]));
+				break;
+			case 'b':
+				byte[] blob = (byte[]) arguments[argument++];
+				write(out, int32(blob.length));
+				write(out, copyOf(blob, (blob.length + 3) & ~3));
+				break;
+			default:
+				break;
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] bundle(long timeTag, byte[]... elements) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, pad("#bundle"));
+		write(out, int32((int) (timeTag >>> 32)));
+		write(out, int32((int) timeTag));
+		for (byte[] element : elements) {
+			write(out, int32(element.length));
+			write(out, element);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * A null terminated string padded to a multiple of 4 bytes.
+	 */
+	private static byte[] pad(String value) {
+		byte[] padded = new byte[(value.length() + 4) & ~3];
+		for (int i = 0; i < value.length(); i++) {
+			padded[i] = (byte) value.charAt(i);
+		}
+		return padded;
+	}
+
+	private static byte[] int32(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			write(out, part);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] copyOf(byte[] data, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(data, 0, copy, 0, Math.min(length, data.length));
+		return copy;
+	}
+
+	private static void write(ByteArrayOutputStream out, byte[] data) {
+		out.write(data, 0, data.length);
+	}
+
+	/**
+	 * Writes each message down as it arrives, since the decoder reuses one message view.
+	 */
+	private static class Capture implements OSCListener {
+
+		private final List<String> _messages = new ArrayList<String>();
+
+		@Override
+		public void onMessageReceived(OSCMessage message) {
+			StringBuilder text = new StringBuilder();
+			for (int i = 0; i < message.getAddressLength(); i++) {
+				text.append(message.getAddressChar(i));
+			}
+			for (int i = 0; i < message.getArgumentCount(); i++) {
+				char type = message.getType(i);
+				text.append(' ').append(type);
+				switch (type) {
+				case 'i':
+					text.append(message.getInt(i));
+					break;
+				case 'f':
+					text.append(message.getFloat(i));
+					break;
+				case 's':
+					text.append('"').append(readString(message, i)).append('"');
+					break;
+				case 'b':
+					byte[] blob = new byte[message.getBlobLength(i)];
+					int sum = 0;
+					for (int j = message.copyBlob(i, blob, 0) - 1; j >= 0; j--) {
+						sum += blob[j];
+					}
+					text.append(blob.length).append(':').append(sum);
+					break;
+				default:
+					break;
+				}
+			}
+			text.append(" @").append(Long.toHexString(message.getTimeTag()));
+			_messages.add(text.toString());
+		}
+
+		private static String readString(OSCMessage message, int index) {
+			for (String candidate : new String[] { "pid", "lqr0123", "str" }) {
+				if (message.stringEquals(index, candidate)) {
+					return candidate;
+				}
+			}
+			return "?";
+		}
+
+		void add(String text) {
+			_messages.add(text);
+		}
+
+		int size() {
+			return _messages.size();
+		}
+
+		void clear() {
+			_messages.clear();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			for (String message : _messages) {
+				if (text.length() > 0) {
+					text.append(' ');
+				}
+				text.append(message);
+			}
+			return text.toString();
+		}
+	}
+}
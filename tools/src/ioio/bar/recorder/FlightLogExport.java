@@ -0,0 +1,63 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.recorder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Converts a flight log pulled from the phone into CSV.
+ *
+ * <pre>
+ * adb pull /sdcard/Android/data/ioio.bar/files/flight.log
+ * java ioio.bar.recorder.FlightLogExport flight.log [flight.csv]
+ * </pre>
+ *
+ * Without an output file the CSV goes to standard output.
+ */
+public class FlightLogExport {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: FlightLogExport <flight.log> [output.csv]");
+			System.exit(1);
+		}
+		FlightLogReader reader = new FlightLogReader(new File(args[0]));
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter((args.length > 1) ? new FileOutputStream(args[1]) : System.out, "US-ASCII"));
+			try {
+				reader.writeCsv(out);
+			} finally {
+				out.close();
+			}
+			System.err.println(reader.getCount() + " records exported (" + reader.getWrittenCount() + " written in total)");
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.replay;
+
+import ioio.bar.control.BalanceLoop;
+import ioio.bar.control.BalanceState;
+import ioio.bar.control.Controller;
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.MountOrientation;
+import ioio.bar.control.TiltEstimator;
+import ioio.bar.drivers.DRV8834;
+import ioio.bar.drivers.DriveTrain;
+import ioio.bar.drivers.MotionPipeline;
+import ioio.bar.recorder.FlightLogReader;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.recorder.FlightRecorder;
+import ioio.bar.sim.SimulatedOutput;
+import ioio.lib.api.Sequencer;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a recorded flight log back through the same code the robot runs: each recorded rotation vector, with its
+ * original event timestamp, goes through {@link TiltEstimator} and {@link BalanceLoop}, and the output through
+ * {@link DriveTrain} and {@link DRV8834}, cycle by cycle with the recorded throttle, steering, offset, resets and
+ * loop period. Nothing depends on the wall clock, so a log replays to bit-identical outputs every time; with the
+ * recorded controller the outputs must also match the ones recorded on the robot.
+ *
+ * Replaying with a different controller, or after changing the control code, shows how the change would have handled
+ * the same sensor stream. The robot's motion is not simulated, so past the first divergence the replayed commands
+ * answer a tilt the robot would no longer have had; use it to compare responses, not to predict whether a fall would
+ * have been avoided.
+ */
+public class ReplayEngine {
+
+	private final Controller _override;
+	private final BalanceLoop _balanceLoop;
+	private ControllerMode _mode = null;
+	private boolean _realTime = false;
+
+	private final TiltEstimator _tiltEstimator = new TiltEstimator();
+	private final float[] _rotationVector = new float[4];
+	private final Sequencer.ChannelCueFmSpeed _leftSteps = new Sequencer.ChannelCueFmSpeed();
+	private final Sequencer.ChannelCueFmSpeed _rightSteps = new Sequencer.ChannelCueFmSpeed();
+	private final DRV8834 _left;
+	private final DRV8834 _right;
+	private final DriveTrain _driveTrain;
+
+	private final FlightRecord _in = new FlightRecord();
+	private final FlightRecord _out = new FlightRecord();
+
+	/**
+	 * @param controller control law to replay with, or null to use the one recorded in each cycle
+	 */
+	public ReplayEngine(Controller controller) {
+		_override = controller;
+		_balanceLoop = new BalanceLoop((controller != null) ? controller : ControllerMode.PI.create());
+		_left = new DRV8834(new SimulatedOutput(false), _leftSteps, new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary(),
+				new Sequencer.ChannelCueBinary());
+		_right = new DRV8834(new SimulatedOutput(false), _rightSteps, new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary(),
+				new Sequencer.ChannelCueBinary());
+		_driveTrain = new DriveTrain(_left, _right);
+	}
+
+	/**
+	 * Paces the cycles by their recorded loop times instead of running as fast as possible.
+	 */
+	public void setRealTime(boolean realTime) {
+		_realTime = realTime;
+	}
+
+	/**
+	 * @param output where to write the replayed cycles, in the same format, or null
+	 */
+	public ReplayResult replay(FlightLogReader log, FlightRecorder output) {
+		ReplayResult result = new ReplayResult();
+		long start = System.nanoTime();
+		long firstLoopTime = 0L;
+		boolean wasUpright = false;
+		double sumSquares = 0.0;
+
+		try {
+			_driveTrain.stop();
+			_balanceLoop.reset();
+			for (int i = 0; i < log.getCount(); i++) {
+				FlightRecord in = _in;
+				log.read(i, in);
+				if (i == 0) {
+					firstLoopTime = in.loopTime;
+				} else if (_realTime) {
+					long wait = start + (in.loopTime - firstLoopTime) - System.nanoTime();
+					if (wait > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				cycle(in, _out);
+				result.cycles++;
+
+				FlightRecord out = _out;
+				if (out.hasFlag(FlightRecord.FLAG_FRESH_SAMPLE)) {
+					result.samples++;
+				}
+				boolean upright = out.hasFlag(FlightRecord.FLAG_UPRIGHT);
+				if (upright) {
+					float tilt = _balanceLoop.getTilt();
+					sumSquares += tilt * tilt;
+					result.maxTilt = Math.max(result.maxTilt, Math.abs(tilt));
+				} else if (wasUpright && result.fallCycle < 0) {
+					result.fallCycle = i;
+				}
+				wasUpright = upright;
+
+				if (Float.floatToIntBits(out.output) != Float.floatToIntBits(in.output) || out.leftPeriod != in.leftPeriod
+						|| out.rightPeriod != in.rightPeriod || out.flags != in.flags) {
+					if (result.firstMismatch < 0) {
+						result.firstMismatch = i;
+					}
+					result.mismatches++;
+				}
+				result.checksum = mix(result.checksum, Float.floatToIntBits(out.output));
+				result.checksum = mix(result.checksum, out.leftPeriod);
+				result.checksum = mix(result.checksum, out.rightPeriod);
+
+				if (output != null) {
+					output.write(out);
+				}
+			}
+		} catch (ConnectionLostException e) {
+			throw new IllegalStateException(e); // simulated outputs never lose their connection
+		}
+
+		result.rmsTilt = Math.sqrt(sumSquares / Math.max(1, result.cycles));
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * One BalancerLooper.loop() pass, driven by the recorded inputs.
+	 */
+	private void cycle(FlightRecord in, FlightRecord out) throws ConnectionLostException {
+		if (_override == null) {
+			ControllerMode mode = ControllerMode.values()[in.controllerMode];
+			if (mode != _mode) {
+				_mode = mode;
+				_balanceLoop.setController(mode.create());
+			}
+		}
+		if (in.hasFlag(FlightRecord.FLAG_RESET)) {
+			_balanceLoop.reset();
+		}
+
+		int flags = in.flags & (FlightRecord.FLAG_RESET | FlightRecord.FLAG_MEASURED_RATE);
+		if (in.hasFlag(FlightRecord.FLAG_FRESH_SAMPLE)) {
+			// Back to the SensorEvent.values layout: x, y, z, w
+			_rotationVector[0] = in.quaternion[1];
+			_rotationVector[1] = in.quaternion[2];
+			_rotationVector[2] = in.quaternion[3];
+			_rotationVector[3] = in.quaternion[0];
+			_tiltEstimator.setOrientation(MountOrientation.values()[in.orientation]);
+			out.rawTilt = _tiltEstimator.estimate(_rotationVector);
+			float tiltRate = in.hasFlag(FlightRecord.FLAG_MEASURED_RATE) ? in.tiltRate : Float.NaN;
+			_balanceLoop.getPredictor().setFixedHorizon(in.predictionMicros);
+			_balanceLoop.onSample(in.sensorTimestamp, out.rawTilt, tiltRate, in.offset + in.proximity, in.throttle);
+			flags |= FlightRecord.FLAG_FRESH_SAMPLE;
+		}
+
+		if (_balanceLoop.isUpright()) {
+			flags |= FlightRecord.FLAG_UPRIGHT;
+			float cueSeconds = MotionPipeline.getCueSeconds(in.periodNanos);
+			for (int i = 0; i < in.cues; i++) {
+				_driveTrain.drive(_balanceLoop.getOutput(), in.steering, cueSeconds);
+			}
+		} else {
+			_driveTrain.stop();
+		}
+
+		out.loopTime = in.loopTime;
+		out.sensorTimestamp = in.sensorTimestamp;
+		System.arraycopy(in.quaternion, 0, out.quaternion, 0, 4);
+		out.offset = in.offset;
+		out.proximity = in.proximity;
+		out.throttle = in.throttle;
+		out.steering = in.steering;
+		BalanceState state = _balanceLoop.getState();
+		out.tiltRate = _balanceLoop.getTiltRate();
+		out.predictionMicros = _balanceLoop.getPredictor().getHorizonMicros();
+		out.wheelSpeed = state.wheelSpeed;
+		out.output = _balanceLoop.getOutput();
+		out.leftPeriod = _leftSteps.period;
+		out.rightPeriod = _rightSteps.period;
+		out.leftMicrosteps = (byte) _left.getMicrosteps();
+		out.rightMicrosteps = (byte) _right.getMicrosteps();
+		out.queued = in.queued;
+		out.cues = in.cues;
+		out.jitterNanos = in.jitterNanos;
+		out.periodNanos = in.periodNanos;
+		out.controllerMode = (byte) ControllerMode.of(_balanceLoop.getController()).ordinal();
+		out.orientation = in.orientation;
+		out.flags = (byte) flags;
+	}
+
+	private static long mix(long hash, int value) {
+		return (hash ^ value) * 0x100000001b3L; // FNV-1a style
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.replay;
+
+import ioio.bar.control.Controller;
+import ioio.bar.control.ControllerMode;
+import ioio.bar.recorder.FlightLogReader;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.recorder.FlightRecorder;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a flight log and reports whether the outputs match the recording.
+ *
+ * <pre>
+ * java ioio.bar.replay.ReplayMain flight.log [--controller PI|PID|LQR|CASCADE] [--realtime] [--runs n] [--out replay.log]
+ * </pre>
+ *
+ * With several runs the checksums are compared to make sure the replay is deterministic. The replayed cycles can be
+ * written to a new log and exported with FlightLogExport.
+ */
+public class ReplayMain {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ReplayMain <flight.log> [--controller name] [--realtime] [--runs n] [--out replay.log]");
+			System.exit(1);
+		}
+		String controllerName = null;
+		boolean realTime = false;
+		int runs = 1;
+		String outputName = null;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--controller")) {
+				controllerName = args[++i];
+			} else if (args[i].equals("--realtime")) {
+				realTime = true;
+			} else if (args[i].equals("--runs")) {
+				runs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--out")) {
+				outputName = args[++i];
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		FlightLogReader log = new FlightLogReader(new File(args[0]));
+		try {
+			if (log.getCount() == 0) {
+				System.out.println("The log is empty");
+				return;
+			}
+			FlightRecord first = new FlightRecord();
+			log.read(0, first);
+			if (!first.hasFlag(FlightRecord.FLAG_RESET)) {
+				System.out.println("The log does not start at a controller reset (the ring has wrapped), so the controller and "
+						+ "driver state at its start is unknown and the first cycles will not match the recording.");
+			}
+
+			Long checksum = null;
+			for (int run = 0; run < runs; run++) {
+				Controller controller = (controllerName != null) ? ControllerMode.fromName(controllerName).create() : null;
+				ReplayEngine engine = new ReplayEngine(controller);
+				engine.setRealTime(realTime);
+				FlightRecorder output = null;
+				if (outputName != null && run == 0) {
+					File file = new File(outputName);
+					file.delete(); // a recorder appends to an existing log
+					output = new FlightRecorder(file, log.getCount());
+				}
+				try {
+					ReplayResult result = engine.replay(log, output);
+					System.out.println("Run " + (run + 1) + ": " + result);
+					if (checksum != null && checksum.longValue() != result.checksum) {
+						System.out.println("Run " + (run + 1) + " is not identical to the first one");
+						System.exit(2);
+					}
+					checksum = result.checksum;
+				} finally {
+					if (output != null) {
+						output.close();
+					}
+				}
+			}
+		} finally {
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.replay;
+
+/**
+ * What a {@link ReplayEngine} run produced, and how it compares with the recording.
+ */
+public class ReplayResult {
+
+	public int cycles;
+	public int samples;
+
+	/** Cycles whose controller output or step periods differ from the recorded ones. */
+	public int mismatches;
+
+	/** First mismatching cycle, or -1. */
+	public int firstMismatch = -1;
+
+	/** First cycle at which the replayed robot was past the balance limit after being upright, or -1. */
+	public int fallCycle = -1;
+
+	public double rmsTilt;
+	public double maxTilt;
+
+	/** Hash of every replayed output and step period; equal checksums mean bit-identical runs. */
+	public long checksum;
+
+	public long elapsedNanos;
+
+	@Override
+	public String toString() {
+		return String.format("%d cycles, %d samples, %d mismatches%s, %s, rms tilt %.4f rad, max %.4f rad, checksum %016x, %.1f ms",
+				cycles, samples, mismatches, (firstMismatch >= 0) ? " (first at " + firstMismatch + ")" : "",
+				(fallCycle >= 0) ? "fell at " + fallCycle : "no fall", rmsTilt, maxTilt, checksum, elapsedNanos * 1e-6);
+	}
+}
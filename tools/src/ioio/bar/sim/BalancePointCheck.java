@@ -0,0 +1,74 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+import ioio.bar.control.BalancePointEstimator;
+import ioio.bar.control.ControllerMode;
+
+/**
+ * Checks the {@link BalancePointEstimator} against a known balance point error: the simulated sensor reads
+ * {@code --bias} degrees off while the offset is left at 0, and every controller runs a series of episodes with the
+ * learning off and on. Each episode prints the correction learned so far, the mean step rate (wheel effort) and how
+ * far the robot drifted.
+ *
+ * <pre>
+ * java ioio.bar.sim.BalancePointCheck [--bias 2] [--seconds 30] [--episodes 6]
+ * </pre>
+ */
+public class BalancePointCheck {
+
+	public static void main(String[] args) {
+		RobotModel model = new RobotModel();
+		double biasDegrees = 2.0;
+		double seconds = 30.0;
+		int episodes = 6;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--bias")) {
+				biasDegrees = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--seconds")) {
+				seconds = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--episodes")) {
+				episodes = Integer.parseInt(args[++i]);
+			}
+		}
+		model.sensorBias = Math.toRadians(biasDegrees);
+		System.out.printf("Balance point %.1f deg off, %d episodes of %.0fs; learned correction (deg), mean step rate (steps/s), drift (m)%n",
+				biasDegrees, episodes, seconds);
+		for (ControllerMode mode : ControllerMode.values()) {
+			ClosedLoopSimulation fixed = new ClosedLoopSimulation(model, mode.create(), 1);
+			ClosedLoopSimulation learning = new ClosedLoopSimulation(model, mode.create(), 1);
+			learning.getBalancePoint().setEnabled(true);
+			for (int i = 0; i < episodes; i++) {
+				SimulationResult off = fixed.run(seconds);
+				SimulationResult on = learning.run(seconds);
+				System.out.printf("%-8s %d  off: %s %7.0f %7.2f | on: %s %5.2f %7.0f %7.2f%n", mode, i + 1, outcome(off), off.meanStepRate,
+						off.distance, outcome(on), Math.toDegrees(learning.getBalancePoint().getCorrection()), on.meanStepRate, on.distance);
+			}
+		}
+	}
+
+	private static String outcome(SimulationResult result) {
+		return result.fell ? String.format("fell at %4.1fs", result.duration) : "              ";
+	}
+}
@@ -0,0 +1,409 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+import ioio.bar.control.BalanceLoop;
+import ioio.bar.control.BalancePointEstimator;
+import ioio.bar.control.BalanceState;
+import ioio.bar.control.Controller;
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.TiltEstimator;
+import ioio.bar.drivers.DRV8834;
+import ioio.bar.drivers.DriveTrain;
+import ioio.bar.drivers.MotionPipeline;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.recorder.FlightRecorder;
+import ioio.lib.api.Sequencer;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.Random;
+
+/**
+ * Closes the loop between the app's control code and {@link PendulumSimulator}, with no phone, IOIO or robot
+ * involved. Every sensor period the simulated rotation vector goes through the same {@link TiltEstimator},
+ * {@link BalanceLoop} and {@link DRV8834#setSpeed(float)} as on the robot, and the resulting
+ * Sequencer.ChannelCueFmSpeed periods and microstep modes (62.5 kHz ticks, 50-7240 steps/s) drive the wheels after
+ * the USB delay.
+ *
+ * The loop refills the board's cue queue as MotionPipeline does, and every sample wakes it up early, so some passes
+ * find the lookahead full and queue nothing. The board plays its cues back to back and pauses the motors when it runs
+ * out; the result counts those underruns and how close the profiled speeds, cue after cue as played, came to the
+ * drivers' acceleration limit.
+ *
+ * Runs as fast as the CPU allows; noise comes from a seeded Random, so a given seed always gives the same episode.
+ */
+public class ClosedLoopSimulation {
+
+	private static final int CAPACITY = 32; // cues the IOIO's sequencer queue holds
+
+	private final RobotModel _model;
+	private final PendulumSimulator _pendulum;
+	private final BalanceLoop _balanceLoop;
+	private final TiltEstimator _tiltEstimator = new TiltEstimator();
+	private final BalancePointEstimator _balancePoint = new BalancePointEstimator();
+	private final Random _random;
+
+	private final Sequencer.ChannelCueFmSpeed _leftSteps = new Sequencer.ChannelCueFmSpeed();
+	private final Sequencer.ChannelCueFmSpeed _rightSteps = new Sequencer.ChannelCueFmSpeed();
+	private final Sequencer.ChannelCueBinary _leftDir = new Sequencer.ChannelCueBinary();
+	private final Sequencer.ChannelCueBinary _rightDir = new Sequencer.ChannelCueBinary();
+	private final Sequencer.ChannelCueBinary[] _modes = { new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary(),
+			new Sequencer.ChannelCueBinary(), new Sequencer.ChannelCueBinary() };
+	private final SimulatedOutput _leftSleep = new SimulatedOutput(false);
+	private final SimulatedOutput _rightSleep = new SimulatedOutput(false);
+	private final DRV8834[] _motors = new DRV8834[2];
+	private final DriveTrain _driveTrain;
+
+	// Cues pushed and not played yet, as a ring: when each reaches the board, its step rates and the profiled speeds
+	private final double[] _cueArrival = new double[CAPACITY];
+	private final double[] _cueLeft = new double[CAPACITY];
+	private final double[] _cueRight = new double[CAPACITY];
+	private final float[] _cueLeftSpeed = new float[CAPACITY];
+	private final float[] _cueRightSpeed = new float[CAPACITY];
+	private int _cueHead = 0;
+	private int _cueCount = 0;
+	private float _cueSeconds = 0.0f;
+
+	// The cue the board is playing
+	private boolean _playing = false;
+	private double _playEnd = 0.0;
+	private double _leftRate = 0.0;
+	private double _rightRate = 0.0;
+	private float _leftSpeed = 0.0f;
+	private float _rightSpeed = 0.0f;
+	private SimulationResult _result;
+
+	private final float[] _rotationVector = new float[4];
+	private double[] _tiltHistory;
+
+	private FlightRecorder _recorder = null;
+	private final FlightRecord _record = new FlightRecord();
+	private int _flags = 0;
+
+	private double _initialTilt = 0.05;
+	private double _settlingBand = 0.01;
+	private float _throttle = 0.0f;
+	private float _steering = 0.0f;
+	private float _offset = 0.0f;
+	private float _appliedOffset = 0.0f;
+	private long _lastTimestamp = 0;
+	private boolean _predict = false;
+	private double _delayBase = 0.0;
+	private double _loopPeriod = 0.0;
+
+	public ClosedLoopSimulation(RobotModel model, Controller controller, long seed) {
+		_model = model;
+		_pendulum = new PendulumSimulator(model);
+		_balanceLoop = new BalanceLoop(controller);
+		_random = new Random(seed);
+		_motors[0] = new DRV8834(_leftSleep, _leftSteps, _leftDir, _modes[0], _modes[1]);
+		_motors[1] = new DRV8834(_rightSleep, _rightSteps, _rightDir, _modes[2], _modes[3]);
+		_driveTrain = new DriveTrain(_motors[0], _motors[1]);
+	}
+
+	public void setInitialTilt(double tilt) {
+		_initialTilt = tilt;
+	}
+
+	/**
+	 * Tilt, in radians either side of upright, within which the robot counts as settled. 0.01 by default.
+	 */
+	public void setSettlingBand(double band) {
+		_settlingBand = band;
+	}
+
+	public void setCommands(float throttle, float steering) {
+		_throttle = throttle;
+		_steering = steering;
+	}
+
+	/**
+	 * The balance trim the app would subtract from the sensor tilt (Trims.offset).
+	 */
+	public void setOffset(float offset) {
+		_offset = offset;
+	}
+
+	/**
+	 * Writes every loop pass to a flight log, as the looper on the robot does, so a simulated run can be exported or
+	 * replayed. Pass null to stop recording.
+	 */
+	public void setRecorder(FlightRecorder recorder) {
+		_recorder = recorder;
+	}
+
+	/**
+	 * Turns on the BalanceLoop's TiltPredictor, fed with the delay the looper would measure for this model: sensor
+	 * latency, half a sample period of hold, a loop period per queued cue and the actuation delay.
+	 */
+	public void setPrediction(boolean predict) {
+		_predict = predict;
+	}
+
+	/**
+	 * Learns the balance point on top of the offset while the commands are zero, as BARActivity does when enabled.
+	 * The estimator keeps what it learned across runs.
+	 */
+	public BalancePointEstimator getBalancePoint() {
+		return _balancePoint;
+	}
+
+	public BalanceLoop getBalanceLoop() {
+		return _balanceLoop;
+	}
+
+	public PendulumSimulator getPendulum() {
+		return _pendulum;
+	}
+
+	/**
+	 * Runs one episode from the initial tilt until it falls or {@code seconds} have been simulated.
+	 */
+	public SimulationResult run(double seconds) {
+		double h = _model.timeStep;
+		int delaySteps = (int) Math.round(_model.sensorLatency / h);
+		_tiltHistory = new double[delaySteps + 1];
+		_pendulum.reset(_initialTilt, 0.0);
+		java.util.Arrays.fill(_tiltHistory, _initialTilt);
+		_balanceLoop.reset();
+		_lastTimestamp = 0;
+		_motors[0].stop();
+		_motors[1].stop();
+		clearCues();
+
+		double samplePeriod = 1.0 / _model.sensorRate;
+		long loopPeriodNanos = Math.round(1e9 / _model.loopRate);
+		double loopPeriod = loopPeriodNanos * 1e-9;
+		_loopPeriod = loopPeriod;
+		_cueSeconds = MotionPipeline.getCueSeconds(loopPeriodNanos);
+		_delayBase = _model.sensorLatency + samplePeriod / 2 + _model.actuationDelay;
+		_balanceLoop.getPredictor().setEnabled(_predict);
+		_flags = FlightRecord.FLAG_RESET;
+		double nextSample = 0.0;
+		double nextLoop = 0.0;
+		double sumSquares = 0.0;
+		double sumRate = 0.0;
+		double maxTilt = 0.0;
+		double overshoot = 0.0;
+		double lastUnsettled = 0.0;
+		double side = (_initialTilt < 0.0) ? -1.0 : 1.0;
+		long steps = 0;
+		int historyIndex = 0;
+
+		SimulationResult result = new SimulationResult();
+		_result = result;
+		double t = 0.0;
+		while (t < seconds) {
+			if (t >= nextSample) {
+				nextSample += Math.max(h, samplePeriod + _random.nextGaussian() * _model.sensorJitter);
+				double measured = _tiltHistory[(historyIndex + 1) % _tiltHistory.length] + _model.sensorBias
+						+ _random.nextGaussian() * _model.sensorNoise;
+				if (!sense(t, measured)) {
+					if (_recorder != null) {
+						cycle(t, loopPeriodNanos);
+					}
+					result.fell = true;
+					break;
+				}
+				// onSensorChanged() wakes the looper up, and LoopScheduler counts its next period from there
+				nextLoop = t + loopPeriod;
+				cycle(t, loopPeriodNanos);
+			} else if (t >= nextLoop) {
+				nextLoop += loopPeriod;
+				cycle(t, loopPeriodNanos);
+			}
+			play(t);
+
+			_pendulum.step(_leftRate, _rightRate);
+			t += h;
+			steps++;
+
+			historyIndex = (historyIndex + 1) % _tiltHistory.length;
+			_tiltHistory[historyIndex] = _pendulum.getTilt();
+			double tilt = Math.abs(_pendulum.getTilt());
+			sumSquares += tilt * tilt;
+			sumRate += 0.5 * (Math.abs(_leftRate) + Math.abs(_rightRate));
+			maxTilt = Math.max(maxTilt, tilt);
+			overshoot = Math.max(overshoot, -side * _pendulum.getTilt());
+			if (tilt > _settlingBand) {
+				lastUnsettled = t;
+			}
+			if (tilt > Math.PI / 2) {
+				result.fell = true;
+				break;
+			}
+		}
+
+		result.duration = t;
+		result.rmsTilt = Math.sqrt(sumSquares / Math.max(1, steps));
+		result.maxTilt = maxTilt;
+		result.settlingTime = result.fell ? t : lastUnsettled;
+		result.overshoot = (_initialTilt != 0.0) ? overshoot / Math.abs(_initialTilt) : 0.0;
+		result.meanStepRate = sumRate / Math.max(1, steps);
+		result.missedSteps = _pendulum.getMissedSteps();
+		result.distance = _pendulum.getPosition();
+		return result;
+	}
+
+	/**
+	 * BARActivity.onSensorChanged() and the control step of BalancerLooper.loop(); false once the robot is past the
+	 * balance limit and the real looper would shut the motors down.
+	 */
+	private boolean sense(double t, double measuredTilt) {
+		PendulumSimulator.toRotationVector(measuredTilt, _rotationVector);
+		float rawTilt = _tiltEstimator.estimate(_rotationVector);
+		long timestamp = (long) (t * 1e9) + 1;
+		_balanceLoop.getPredictor().observeDelay(Math.round((_delayBase + _cueCount * _loopPeriod) * 1e9));
+		_appliedOffset = _offset + _balancePoint.getCorrection();
+		_balanceLoop.onSample(timestamp, rawTilt, _appliedOffset, _throttle);
+		boolean idle = _balanceLoop.isUpright() && _throttle == 0.0f && _steering == 0.0f;
+		_balancePoint.update(_balanceLoop.getOutput(), idle, (_lastTimestamp != 0) ? (timestamp - _lastTimestamp) * 1e-9f : 0.0f);
+		_lastTimestamp = timestamp;
+		_flags |= FlightRecord.FLAG_FRESH_SAMPLE;
+		_record.sensorTimestamp = timestamp;
+		_record.rawTilt = rawTilt;
+		_tiltEstimator.getQuaternion(_record.quaternion);
+		return _balanceLoop.isUpright();
+	}
+
+	/**
+	 * The motor part of every BalancerLooper.loop() pass: tops the board's queue up to MotionPipeline.DEFAULT_DEPTH
+	 * cues, profiling the last output one cue at a time, or drops the queue once the robot is down.
+	 */
+	private void cycle(double t, long periodNanos) {
+		boolean upright = _balanceLoop.isUpright();
+		int cues = 0;
+		try {
+			if (upright) {
+				if (_cueCount >= MotionPipeline.DEFAULT_DEPTH) {
+					_result.skippedCycles++;
+				} else {
+					cues = Math.min(MotionPipeline.DEFAULT_DEPTH, CAPACITY) - _cueCount;
+				}
+				for (int i = 0; i < cues; i++) {
+					_driveTrain.drive(_balanceLoop.getOutput(), _steering, _cueSeconds);
+					push(t);
+				}
+			} else {
+				_driveTrain.stop();
+				clearCues();
+			}
+		} catch (ConnectionLostException e) {
+			throw new IllegalStateException(e);
+		}
+		if (_recorder != null) {
+			record(t, periodNanos, upright, cues);
+		}
+	}
+
+	private void push(double t) {
+		// The left motor is mounted mirrored, so its forward sense is the opposite of its DIR pin
+		int tail = (_cueHead + _cueCount) % CAPACITY;
+		_cueArrival[tail] = t + _model.actuationDelay;
+		_cueLeft[tail] = -stepRate(_leftSteps, _leftDir, _motors[0].getMicrosteps());
+		_cueRight[tail] = stepRate(_rightSteps, _rightDir, _motors[1].getMicrosteps());
+		_cueLeftSpeed[tail] = _motors[0].getProfiler().getSpeed();
+		_cueRightSpeed[tail] = _motors[1].getProfiler().getSpeed();
+		_cueCount++;
+	}
+
+	/**
+	 * The board's sequencer: starts the next cue that has arrived when the current one ends, or pauses the motors.
+	 */
+	private void play(double t) {
+		while (t >= _playEnd) {
+			if (_cueCount == 0 || _cueArrival[_cueHead] > t) {
+				if (_playing) {
+					_playing = false;
+					_leftRate = 0.0;
+					_rightRate = 0.0;
+					_result.underruns++;
+				}
+				return;
+			}
+			int head = _cueHead;
+			_playEnd = (_playing ? _playEnd : t) + _cueSeconds;
+			_playing = true;
+			_leftRate = _cueLeft[head];
+			_rightRate = _cueRight[head];
+			float maxChange = _motors[0].getProfiler().getMaxAcceleration() * _cueSeconds;
+			double change = Math.max(Math.abs(_cueLeftSpeed[head] - _leftSpeed), Math.abs(_cueRightSpeed[head] - _rightSpeed));
+			_result.peakAcceleration = Math.max(_result.peakAcceleration, change / maxChange);
+			_leftSpeed = _cueLeftSpeed[head];
+			_rightSpeed = _cueRightSpeed[head];
+			_cueHead = (head + 1) % CAPACITY;
+			_cueCount--;
+		}
+	}
+
+	/**
+	 * MotionPipeline.emergencyStop(): the queued cues are dropped and the motors stop at once.
+	 */
+	private void clearCues() {
+		_cueCount = 0;
+		_playing = false;
+		_playEnd = 0.0;
+		_leftRate = 0.0;
+		_rightRate = 0.0;
+		_leftSpeed = 0.0f;
+		_rightSpeed = 0.0f;
+	}
+
+	private void record(double t, long periodNanos, boolean upright, int cues) {
+		FlightRecord record = _record;
+		record.loopTime = (long) (t * 1e9);
+		record.offset = _appliedOffset;
+		record.proximity = 0.0f;
+		record.throttle = _throttle;
+		record.steering = _steering;
+		BalanceState state = _balanceLoop.getState();
+		record.tiltRate = _balanceLoop.getTiltRate();
+		record.predictionMicros = _balanceLoop.getPredictor().getHorizonMicros();
+		record.wheelSpeed = state.wheelSpeed;
+		record.output = _balanceLoop.getOutput();
+		record.leftPeriod = _leftSteps.period;
+		record.rightPeriod = _rightSteps.period;
+		record.leftMicrosteps = (byte) _motors[0].getMicrosteps();
+		record.rightMicrosteps = (byte) _motors[1].getMicrosteps();
+		record.queued = (byte) _cueCount;
+		record.cues = (byte) cues;
+		record.jitterNanos = 0;
+		record.periodNanos = (int) periodNanos;
+		record.controllerMode = (byte) ControllerMode.of(_balanceLoop.getController()).ordinal();
+		record.flags = (byte) (_flags | (upright ? FlightRecord.FLAG_UPRIGHT : 0));
+		_recorder.write(record);
+		_flags = 0;
+	}
+
+	/**
+	 * Wheel speed the cues produce, in 1/16 microsteps per second whatever the microstep mode.
+	 */
+	private static double stepRate(Sequencer.ChannelCueFmSpeed step, Sequencer.ChannelCueBinary dir, int microsteps) {
+		if (step.period <= 0) {
+			return 0.0;
+		}
+		double rate = DRV8834.STEPS_FREQ / step.period * 16 / microsteps;
+		return dir.value ? rate : -rate;
+	}
+}
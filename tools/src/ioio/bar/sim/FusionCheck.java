@@ -0,0 +1,305 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+import ioio.bar.control.FusionMode;
+import ioio.bar.control.MountOrientation;
+import ioio.bar.control.TiltEstimator;
+import ioio.bar.control.TiltFilter;
+import ioio.bar.recorder.FlightLogReader;
+import ioio.bar.recorder.FlightRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks the in-app {@link TiltFilter}s against a known tilt trajectory: synthetic gyroscope and accelerometer
+ * samples are generated from it, with bias, noise and the base acceleration of a balancing robot (a fraction of the
+ * g * tilt that would hold the tilt steady), and each filter's
+ * tilt is compared with the trajectory for error and lag. The trajectory is either a synthetic one, also sampled the
+ * way {@link ClosedLoopSimulation} models the vendor rotation vector for comparison, or the rotation vector tilts
+ * recorded in a flight log.
+ *
+ * Every filter runs on every {@link MountOrientation} it supports, and the tilt rate it reports for the mount, which
+ * the controllers use as the measured rate, is compared with the trajectory's d(tilt)/dt. Exits with status 1 if the
+ * rate error is more than {@link #MAX_RATE_ERROR} of the rms rate, e.g. a wrong gyroscope axis or sign.
+ *
+ * <pre>
+ * java ioio.bar.sim.FusionCheck [flight.log] [--rate 400] [--bias 0.5] [--base 0.5] [--seconds 60] [--seed 1]
+ * </pre>
+ */
+public class FusionCheck {
+
+	private static final double GRAVITY = 9.80665;
+	private static final double WARMUP = 10.0; // seconds left out of the statistics, while the bias estimates settle
+	private static final double MAX_LAG = 0.05;
+	private static final double MAX_RATE_ERROR = 0.25; // a wrong axis is 100%, a wrong sign 200%
+
+	private final double _dt;
+	private final double[] _tilt; // the trajectory, every _dt
+	private final double[] _rate;
+
+	private FusionCheck(double dt, double[] tilt) {
+		_dt = dt;
+		_tilt = tilt;
+		_rate = new double[tilt.length];
+		for (int i = 1; i < tilt.length; i++) {
+			_rate[i] = (tilt[i] - tilt[i - 1]) / dt;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String log = null;
+		double rate = 400.0;
+		double biasDegrees = 0.5;
+		double base = 0.5;
+		double seconds = 60.0;
+		long seed = 1;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--rate")) {
+				rate = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--bias")) {
+				biasDegrees = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--base")) {
+				base = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--seconds")) {
+				seconds = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else {
+				log = args[i];
+			}
+		}
+		double dt = 1.0 / rate;
+		RobotModel model = new RobotModel();
+		FusionCheck check;
+		if (log != null) {
+			check = new FusionCheck(dt, readTrajectory(new File(log), dt));
+			System.out.printf("%s: %.1fs of recorded rotation vector tilts%n", log, check._tilt.length * dt);
+		} else {
+			check = new FusionCheck(dt, syntheticTrajectory(seconds, dt));
+			System.out.printf("Synthetic trajectory, %.0fs%n", seconds);
+			check.report("rotation vector (model)", check.rotationVectorModel(model, new Random(seed)), null);
+		}
+		System.out.printf("Gyroscope and accelerometer at %.0f Hz, gyroscope bias %.2f deg/s, base acceleration %.1f g * tilt%n", rate,
+				biasDegrees, base);
+		boolean passed = true;
+		for (FusionMode mode : FusionMode.values()) {
+			for (MountOrientation mount : MountOrientation.values()) {
+				// The app only runs the complementary filter on the mount it is written for
+				if (mode == FusionMode.ROTATION_VECTOR
+						|| (mode == FusionMode.COMPLEMENTARY && mount != MountOrientation.LANDSCAPE_RAISED)) {
+					continue;
+				}
+				double[] rates = new double[check._tilt.length];
+				double[] tilts = check.fuse(mode.create(), mount, Math.toRadians(biasDegrees), base, new Random(seed), rates);
+				passed &= check.report(mode.name().toLowerCase() + " " + mount.name().toLowerCase(), tilts, rates);
+			}
+		}
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Slow leaning plus the faster wobble of balancing, in radians.
+	 */
+	private static double[] syntheticTrajectory(double seconds, double dt) {
+		double[] tilt = new double[(int) (seconds / dt)];
+		for (int i = 0; i < tilt.length; i++) {
+			double t = i * dt;
+			tilt[i] = Math.toRadians(3.0 * Math.sin(2 * Math.PI * 0.3 * t) + 1.0 * Math.sin(2 * Math.PI * 2.1 * t)
+					+ 0.3 * Math.sin(2 * Math.PI * 7.3 * t));
+		}
+		return tilt;
+	}
+
+	/**
+	 * The rotation vector tilts of the log, linearly interpolated every {@code dt}. Samples already fused in the app
+	 * are skipped.
+	 */
+	private static double[] readTrajectory(File file, double dt) throws IOException {
+		FlightLogReader log = new FlightLogReader(file);
+		try {
+			FlightRecord record = new FlightRecord();
+			long[] times = new long[log.getCount()];
+			double[] tilts = new double[log.getCount()];
+			int count = 0;
+			for (int i = 0; i < log.getCount(); i++) {
+				log.read(i, record);
+				if (record.hasFlag(FlightRecord.FLAG_FRESH_SAMPLE) && !record.hasFlag(FlightRecord.FLAG_MEASURED_RATE)
+						&& (count == 0 || record.sensorTimestamp > times[count - 1])) {
+					times[count] = record.sensorTimestamp;
+					tilts[count] = record.rawTilt;
+					count++;
+				}
+			}
+			if (count < 2) {
+				throw new IOException("No rotation vector samples in " + file);
+			}
+			double[] tilt = new double[(int) ((times[count - 1] - times[0]) * 1e-9 / dt)];
+			int j = 0;
+			for (int i = 0; i < tilt.length; i++) {
+				long t = times[0] + (long) (i * dt * 1e9);
+				while (times[j + 1] < t) {
+					j++;
+				}
+				double f = (double) (t - times[j]) / (times[j + 1] - times[j]);
+				tilt[i] = tilts[j] + f * (tilts[j + 1] - tilts[j]);
+			}
+			return tilt;
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * What the control loop would have seen from the vendor's rotation vector: delayed, noisy, at its own rate and
+	 * held in between.
+	 */
+	private double[] rotationVectorModel(RobotModel model, Random random) {
+		double[] tilts = new double[_tilt.length];
+		int delay = (int) Math.round(model.sensorLatency / _dt);
+		double period = 1.0 / model.sensorRate;
+		double next = 0.0;
+		double held = _tilt[0];
+		for (int i = 0; i < tilts.length; i++) {
+			if (i * _dt >= next) {
+				next += period;
+				held = _tilt[Math.max(0, i - delay)] + random.nextGaussian() * model.sensorNoise;
+			}
+			tilts[i] = held;
+		}
+		return tilts;
+	}
+
+	/**
+	 * Runs the filter over synthetic device-axis readings for the mount, with the base accelerating horizontally at
+	 * {@code base} * g * tilt. Landscape raised is a rotation about x by (90º - tilt), like
+	 * PendulumSimulator.toRotationVector(); portrait flat a rotation about x by the tilt, and landscape flat one about
+	 * y.
+	 */
+	private double[] fuse(TiltFilter filter, MountOrientation mount, double bias, double base, Random random, double[] rates) {
+		TiltEstimator estimator = new TiltEstimator();
+		estimator.setOrientation(mount);
+		float[] quaternion = new float[4];
+		float[] vector = new float[4];
+		double[] up = new double[3]; // the world's up axis in device axes
+		double[] forward = new double[3]; // its derivative by the tilt, horizontal
+		double[] gyroscope = new double[3]; // per unit of tilt rate
+		double[] tilts = new double[_tilt.length];
+		for (int i = 0; i < tilts.length; i++) {
+			double tilt = _tilt[i];
+			double sin = Math.sin(tilt);
+			double cos = Math.cos(tilt);
+			switch (mount) {
+			case PORTRAIT_FLAT:
+				set(up, 0.0, sin, cos);
+				set(forward, 0.0, cos, -sin);
+				set(gyroscope, 1.0, 0.0, 0.0);
+				break;
+			case LANDSCAPE_FLAT:
+				set(up, -sin, 0.0, cos);
+				set(forward, -cos, 0.0, -sin);
+				set(gyroscope, 0.0, 1.0, 0.0);
+				break;
+			default:
+				set(up, 0.0, cos, sin);
+				set(forward, 0.0, -sin, cos);
+				set(gyroscope, -1.0, 0.0, 0.0);
+				break;
+			}
+			double acceleration = base * GRAVITY * tilt + 0.2 * random.nextGaussian();
+			filter.setAcceleration((float) (GRAVITY * up[0] - acceleration * forward[0] + 0.05 * random.nextGaussian()),
+					(float) (GRAVITY * up[1] - acceleration * forward[1] + 0.05 * random.nextGaussian()),
+					(float) (GRAVITY * up[2] - acceleration * forward[2] + 0.05 * random.nextGaussian()));
+			if (i > 0) {
+				double rate = _rate[i];
+				filter.update((float) (gyroscope[0] * (rate - bias) + 0.005 * random.nextGaussian()),
+						(float) (gyroscope[1] * (rate - bias) + 0.005 * random.nextGaussian()),
+						(float) (gyroscope[2] * (rate - bias) + 0.005 * random.nextGaussian()), (float) _dt);
+			}
+			filter.getQuaternion(quaternion);
+			vector[0] = quaternion[1];
+			vector[1] = quaternion[2];
+			vector[2] = quaternion[3];
+			vector[3] = quaternion[0];
+			tilts[i] = estimator.estimate(vector);
+			rates[i] = filter.getTiltRate(mount);
+		}
+		return tilts;
+	}
+
+	private static void set(double[] vector, double x, double y, double z) {
+		vector[0] = x;
+		vector[1] = y;
+		vector[2] = z;
+	}
+
+	/**
+	 * @return false if the rate error is too large
+	 */
+	private boolean report(String name, double[] tilts, double[] rates) {
+		int from = (int) (WARMUP / _dt);
+		int maxShift = (int) (MAX_LAG / _dt);
+		int bestShift = 0;
+		double best = Double.MAX_VALUE;
+		for (int shift = -maxShift; shift <= maxShift; shift++) {
+			double rms = rms(tilts, _tilt, from, shift);
+			if (rms < best) {
+				best = rms;
+				bestShift = shift;
+			}
+		}
+		double maxError = 0.0;
+		for (int i = from; i < tilts.length; i++) {
+			maxError = Math.max(maxError, Math.abs(tilts[i] - _tilt[i]));
+		}
+		System.out.printf("%-32s error rms %.3f deg max %.3f deg, lag %.1f ms", name, Math.toDegrees(rms(tilts, _tilt, from, 0)),
+				Math.toDegrees(maxError), bestShift * _dt * 1e3);
+		boolean passed = true;
+		if (rates != null) {
+			double rateError = rms(rates, _rate, from, 0);
+			passed = rateError <= MAX_RATE_ERROR * rms(_rate, new double[_rate.length], from, 0);
+			System.out.printf(", rate error rms %.2f deg/s%s", Math.toDegrees(rateError), passed ? "" : " FAILED");
+		}
+		System.out.println();
+		return passed;
+	}
+
+	/**
+	 * RMS of estimate[i] - truth[i - shift].
+	 */
+	private static double rms(double[] estimate, double[] truth, int from, int shift) {
+		double sum = 0.0;
+		int count = 0;
+		for (int i = Math.max(from, shift); i < estimate.length && i - shift < truth.length; i++) {
+			double error = estimate[i] - truth[i - shift];
+			sum += error * error;
+			count++;
+		}
+		return Math.sqrt(sum / count);
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+/**
+ * Rigid-body model of the two-wheeled inverted pendulum. The steppers are speed sources: each wheel follows the
+ * commanded step rate as fast as {@link RobotModel#maxWheelAcceleration} allows, and whatever it cannot follow is
+ * counted as missed steps. The body then reacts to the resulting axle acceleration:
+ *
+ * <pre>
+ * (I + m l^2) theta'' = m g l sin(theta) + m l r omega' cos(theta)
+ * </pre>
+ *
+ * Positive wheel speed is the direction a positive speed command drives, which catches a negative tilt.
+ */
+public class PendulumSimulator {
+
+	private static final double GRAVITY = 9.80665;
+
+	private final RobotModel _model;
+
+	private double _tilt = 0.0;
+	private double _tiltRate = 0.0;
+	private double _leftSpeed = 0.0; // wheel angular speeds, rad/s
+	private double _rightSpeed = 0.0;
+	private double _position = 0.0; // distance travelled by the axle, m
+	private double _missedSteps = 0.0;
+
+	public PendulumSimulator(RobotModel model) {
+		_model = model;
+	}
+
+	public void reset(double tilt, double tiltRate) {
+		_tilt = tilt;
+		_tiltRate = tiltRate;
+		_leftSpeed = 0.0;
+		_rightSpeed = 0.0;
+		_position = 0.0;
+		_missedSteps = 0.0;
+	}
+
+	/**
+	 * Advances the model by one {@link RobotModel#timeStep}.
+	 *
+	 * @param leftStepRate commanded steps/s of the left wheel, in the robot's forward sense
+	 * @param rightStepRate same for the right wheel
+	 */
+	public void step(double leftStepRate, double rightStepRate) {
+		double h = _model.timeStep;
+		double stepAngle = 2 * Math.PI / _model.microstepsPerRevolution;
+		double previous = 0.5 * (_leftSpeed + _rightSpeed);
+		_leftSpeed = follow(_leftSpeed, leftStepRate * stepAngle, h, stepAngle);
+		_rightSpeed = follow(_rightSpeed, rightStepRate * stepAngle, h, stepAngle);
+		double speed = 0.5 * (_leftSpeed + _rightSpeed);
+		double wheelAcceleration = (speed - previous) / h;
+
+		double m = _model.bodyMass;
+		double l = _model.comHeight;
+		double tiltAcceleration = (m * GRAVITY * l * Math.sin(_tilt) + m * l * _model.wheelRadius * wheelAcceleration * Math.cos(_tilt))
+				/ (_model.bodyInertia + m * l * l);
+		_tiltRate += tiltAcceleration * h;
+		_tilt += _tiltRate * h;
+		_position += speed * _model.wheelRadius * h;
+	}
+
+	private double follow(double current, double target, double h, double stepAngle) {
+		double maxChange = _model.maxWheelAcceleration * h;
+		double change = target - current;
+		if (change > maxChange) {
+			_missedSteps += (change - maxChange) * h / stepAngle;
+			change = maxChange;
+		} else if (change < -maxChange) {
+			_missedSteps += (-maxChange - change) * h / stepAngle;
+			change = -maxChange;
+		}
+		return current + change;
+	}
+
+	public double getTilt() {
+		return _tilt;
+	}
+
+	public double getTiltRate() {
+		return _tiltRate;
+	}
+
+	/**
+	 * Axle speed in m/s.
+	 */
+	public double getSpeed() {
+		return 0.5 * (_leftSpeed + _rightSpeed) * _model.wheelRadius;
+	}
+
+	public double getPosition() {
+		return _position;
+	}
+
+	public double getMissedSteps() {
+		return _missedSteps;
+	}
+
+	/**
+	 * Synthetic TYPE_ROTATION_VECTOR values (x, y, z, w) for the phone mounted landscape and raised up 90º, i.e. a
+	 * rotation about the x axis by (90º - tilt).
+	 */
+	public static void toRotationVector(double tilt, float[] values) {
+		double half = 0.5 * (0.5 * Math.PI - tilt);
+		values[0] = (float) Math.sin(half);
+		values[1] = 0.0f;
+		values[2] = 0.0f;
+		values[3] = (float) Math.cos(half);
+	}
+}
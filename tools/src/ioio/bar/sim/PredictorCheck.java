@@ -0,0 +1,87 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.GainProfile;
+
+/**
+ * Shows what the {@link ioio.bar.control.TiltPredictor} buys: every controller is run with its default gains scaled
+ * up step by step, with the prediction off and on, and the falls and rms tilt are printed side by side. Higher gains
+ * are usable as long as the prediction keeps them from oscillating. The app keeps the prediction off by default until
+ * it shows fewer falls here than without it, which it does not so far.
+ *
+ * <pre>
+ * java ioio.bar.sim.PredictorCheck [--latency 0.010] [--seconds 20] [--episodes 10]
+ * </pre>
+ */
+public class PredictorCheck {
+
+	private static final float[] SCALES = { 1.0f, 1.5f, 2.0f, 3.0f, 4.0f };
+
+	public static void main(String[] args) {
+		RobotModel model = new RobotModel();
+		double seconds = 20.0;
+		int episodes = 10;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--latency")) {
+				model.sensorLatency = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--seconds")) {
+				seconds = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--episodes")) {
+				episodes = Integer.parseInt(args[++i]);
+			}
+		}
+		System.out.printf("Sensor latency %.1f ms, %d episodes of %.0fs; falls and rms tilt (deg), prediction off | on%n",
+				model.sensorLatency * 1e3, episodes, seconds);
+		for (ControllerMode mode : ControllerMode.values()) {
+			GainProfile defaults = GainProfile.getDefault(mode);
+			for (float scale : SCALES) {
+				GainProfile profile = defaults;
+				float[] gains = defaults.getGains();
+				for (int i = 0; i < gains.length; i++) {
+					profile = profile.withGain(i, gains[i] * scale);
+				}
+				System.out.printf("%-8s x%.1f  %s | %s%n", mode, scale, run(model, profile, false, seconds, episodes),
+						run(model, profile, true, seconds, episodes));
+			}
+		}
+	}
+
+	private static String run(RobotModel model, GainProfile profile, boolean predict, double seconds, int episodes) {
+		int falls = 0;
+		double sumSquares = 0.0;
+		for (int i = 0; i < episodes; i++) {
+			ClosedLoopSimulation simulation = new ClosedLoopSimulation(model, profile.create(), i);
+			simulation.setInitialTilt(0.02 + 0.01 * (i % 5));
+			simulation.setPrediction(predict);
+			SimulationResult result = simulation.run(seconds);
+			if (result.fell) {
+				falls++;
+			}
+			sumSquares += result.rmsTilt * result.rmsTilt;
+		}
+		return String.format("%2d/%d falls %6.2f", falls, episodes, Math.toDegrees(Math.sqrt(sumSquares / episodes)));
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+/**
+ * Physical and sensing parameters of the simulated robot. The defaults describe the Nexus 4 build from the README
+ * closely enough to exercise the controllers; measure your own robot before trusting absolute numbers.
+ */
+public class RobotModel {
+
+	/** Mass of everything above the axle, in kg. */
+	public double bodyMass = 1.2;
+
+	/** Height of the centre of mass above the axle, in m. */
+	public double comHeight = 0.35;
+
+	/** Moment of inertia of the body about its centre of mass, in kg m^2. */
+	public double bodyInertia = 0.016;
+
+	public double wheelRadius = 0.06;
+
+	/** Full steps per revolution of the NEMA-17 times the microstep divider the drivers are wired for. */
+	public int microstepsPerRevolution = 200 * 16;
+
+	/** Wheel acceleration the steppers can follow, in rad/s^2; anything faster loses steps. */
+	public double maxWheelAcceleration = 400.0;
+
+	/** Rate of the rotation vector sensor, in Hz. */
+	public double sensorRate = 100.0;
+
+	/** Standard deviation of the time between samples, in seconds; the samples drift off the loop's schedule. */
+	public double sensorJitter = 0.0005;
+
+	/** Delay of the vendor sensor fusion, in seconds. */
+	public double sensorLatency = 0.010;
+
+	/** Standard deviation of the tilt noise, in radians. */
+	public double sensorNoise = 0.002;
+
+	/** Constant error of the measured tilt, in radians, e.g. from the phone mount; what BARActivity._offset trims. */
+	public double sensorBias = 0.0;
+
+	/** Rate of the IOIO looper, in Hz, which refreshes the step cues between sensor samples. */
+	public double loopRate = 500.0;
+
+	/** Time from the control step to the IOIO applying the new step period (USB round-trip), in seconds. */
+	public double actuationDelay = 0.002;
+
+	/** Physics integration step, in seconds. */
+	public double timeStep = 0.0001;
+}
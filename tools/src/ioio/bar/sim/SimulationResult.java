@@ -0,0 +1,73 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+/**
+ * Summary of one simulated episode.
+ */
+public class SimulationResult {
+
+	/** Simulated seconds, up to the fall if there was one. */
+	public double duration;
+
+	public boolean fell;
+
+	/** Root mean square and peak of the true tilt, in radians. */
+	public double rmsTilt;
+	public double maxTilt;
+
+	/** Time after which the true tilt stayed within the settling band, in seconds; the whole run if it never did. */
+	public double settlingTime;
+
+	/** Largest tilt past upright, on the side opposite the initial tilt, as a fraction of the initial tilt. */
+	public double overshoot;
+
+	/** Mean absolute step rate per wheel, in steps/s: a measure of control effort. */
+	public double meanStepRate;
+
+	public double missedSteps;
+
+	/** Net distance travelled, in m. */
+	public double distance;
+
+	/** Times the board ran out of cues while balancing, so the motors paused. */
+	public int underruns;
+
+	/** Loop passes that found the cue lookahead full and queued nothing, e.g. when a sample woke the loop early. */
+	public int skippedCycles;
+
+	/**
+	 * Largest profiled speed change between consecutive cues as played, per cue length, as a fraction of the drivers'
+	 * acceleration limit. Pauses from underruns are counted above, not here.
+	 */
+	public double peakAcceleration;
+
+	@Override
+	public String toString() {
+		return String.format("%s after %.1fs: rms tilt %.4f rad, max %.4f rad, settled in %.2fs, %.0f%% overshoot, %.0f steps/s, "
+				+ "%.0f missed steps, %.2f m, %d underruns, %d skipped passes, acceleration %.0f%% of the limit",
+				fell ? "FELL" : "balanced", duration, rmsTilt, maxTilt, settlingTime, overshoot * 100, meanStepRate, missedSteps,
+				distance, underruns, skippedCycles, peakAcceleration * 100);
+	}
+}
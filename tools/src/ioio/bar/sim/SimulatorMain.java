@@ -0,0 +1,75 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.sim;
+
+import ioio.bar.control.ControllerMode;
+
+/**
+ * Runs a batch of simulated episodes for each controller and prints how they did and how much faster than real time
+ * the simulation ran. Exits with 1 if the cues as played ever changed speed faster than the drivers' acceleration
+ * limit.
+ *
+ * <pre>
+ * java ioio.bar.sim.SimulatorMain [seconds per episode] [episodes]
+ * </pre>
+ */
+public class SimulatorMain {
+
+	private static final double LIMIT_TOLERANCE = 1e-3; // float rounding of the profiled speeds
+
+	public static void main(String[] args) {
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 60.0;
+		int episodes = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+		RobotModel model = new RobotModel();
+		boolean withinLimits = true;
+		for (ControllerMode mode : ControllerMode.values()) {
+			long start = System.nanoTime();
+			double simulated = 0.0;
+			int falls = 0;
+			SimulationResult last = null;
+			double peakAcceleration = 0.0;
+			for (int i = 0; i < episodes; i++) {
+				ClosedLoopSimulation simulation = new ClosedLoopSimulation(model, mode.create(), i);
+				simulation.setInitialTilt(0.02 + 0.01 * (i % 5));
+				last = simulation.run(seconds);
+				simulated += last.duration;
+				peakAcceleration = Math.max(peakAcceleration, last.peakAcceleration);
+				if (last.fell) {
+					falls++;
+				}
+			}
+			double elapsed = (System.nanoTime() - start) * 1e-9;
+			System.out.printf("%-8s %d/%d falls, %.0fs simulated in %.1fs (%.0fx real time). Last: %s%n", mode, falls, episodes,
+					simulated, elapsed, simulated / elapsed, last);
+			if (peakAcceleration > 1.0 + LIMIT_TOLERANCE) {
+				System.out.printf("%-8s acceleration as played reached %.0f%% of the limit%n", mode, peakAcceleration * 100);
+				withinLimits = false;
+			}
+		}
+		if (!withinLimits) {
+			System.exit(1);
+		}
+	}
+}
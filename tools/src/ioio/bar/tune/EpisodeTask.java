@@ -0,0 +1,89 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.tune;
+
+import ioio.bar.control.GainProfile;
+import ioio.bar.sim.ClosedLoopSimulation;
+import ioio.bar.sim.RobotModel;
+import ioio.bar.sim.SimulationResult;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates every episode of every candidate, splitting the (candidate, episode) pairs in halves until each task runs
+ * a single episode. Episodes are independent and seeded by their index, so the results do not depend on how the pool
+ * schedules them.
+ */
+class EpisodeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final RobotModel _model;
+	private final GainProfile[] _candidates;
+	private final double[] _initialTilts;
+	private final double _seconds;
+	private final long _seed;
+	private final SimulationResult[][] _results;
+	private final int _from;
+	private final int _to;
+
+	/**
+	 * @param results filled in as results[candidate][episode]
+	 */
+	EpisodeTask(RobotModel model, GainProfile[] candidates, double[] initialTilts, double seconds, long seed,
+			SimulationResult[][] results) {
+		this(model, candidates, initialTilts, seconds, seed, results, 0, candidates.length * initialTilts.length);
+	}
+
+	private EpisodeTask(RobotModel model, GainProfile[] candidates, double[] initialTilts, double seconds, long seed,
+			SimulationResult[][] results, int from, int to) {
+		_model = model;
+		_candidates = candidates;
+		_initialTilts = initialTilts;
+		_seconds = seconds;
+		_seed = seed;
+		_results = results;
+		_from = from;
+		_to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (_to - _from == 1) {
+			run(_from / _initialTilts.length, _from % _initialTilts.length);
+			return;
+		}
+		int middle = (_from + _to) >>> 1;
+		invokeAll(new EpisodeTask(_model, _candidates, _initialTilts, _seconds, _seed, _results, _from, middle),
+				new EpisodeTask(_model, _candidates, _initialTilts, _seconds, _seed, _results, middle, _to));
+	}
+
+	private void run(int candidate, int episode) {
+		GainProfile profile = _candidates[candidate];
+		ClosedLoopSimulation simulation = new ClosedLoopSimulation(_model, profile.create(), _seed + episode);
+		simulation.setInitialTilt(_initialTilts[episode]);
+		simulation.setOffset(profile.hasOffset() ? profile.getOffset() : 0.0f);
+		_results[candidate][episode] = simulation.run(_seconds);
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.tune;
+
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.GainProfile;
+import ioio.bar.sim.RobotModel;
+import ioio.bar.sim.SimulationResult;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Searches the gains of one controller mode, and optionally the balance offset, with the cross-entropy method: every
+ * generation samples a population of gain sets around the current estimate (log-normally, so gains keep their sign),
+ * runs all their episodes in parallel on a fork/join pool, and moves the estimate to the mean of the best few.
+ *
+ * Every candidate is scored on the same episodes (seeds and initial tilts, alternating sides), so scores are
+ * comparable across generations and the best set seen so far is kept.
+ */
+public class GainTuner {
+
+	private static final double INITIAL_SIGMA = 0.4; // of the log of each gain
+	private static final double MIN_SIGMA = 0.02;
+	private static final double INITIAL_OFFSET_SIGMA = 0.02; // radians
+	private static final double MIN_OFFSET_SIGMA = 0.0005;
+	private static final double SMOOTHING = 0.7; // weight of the elites' spread in the next sigma
+
+	private final RobotModel _model;
+	private final ControllerMode _mode;
+	private final ForkJoinPool _pool;
+
+	private int _generations = 15;
+	private int _population = 48;
+	private int _elites = 8;
+	private int _episodes = 6;
+	private double _seconds = 4.0;
+	private long _seed = 1;
+	private boolean _tuneOffset = false;
+	private PrintStream _log = null;
+
+	public GainTuner(RobotModel model, ControllerMode mode, ForkJoinPool pool) {
+		_model = model;
+		_mode = mode;
+		_pool = pool;
+	}
+
+	public void setGenerations(int generations) {
+		_generations = generations;
+	}
+
+	/**
+	 * Gain sets per generation, and how many of the best ones the next generation is centred on.
+	 */
+	public void setPopulation(int population, int elites) {
+		if (elites < 1 || elites > population) {
+			throw new IllegalArgumentException("Need 1 to " + population + " elites, not " + elites);
+		}
+		_population = population;
+		_elites = elites;
+	}
+
+	public void setEpisodes(int episodes, double seconds) {
+		_episodes = episodes;
+		_seconds = seconds;
+	}
+
+	public void setSeed(long seed) {
+		_seed = seed;
+	}
+
+	/**
+	 * Also searches the balance offset, which only makes sense when the model has a {@link RobotModel#sensorBias}.
+	 */
+	public void setTuneOffset(boolean tuneOffset) {
+		_tuneOffset = tuneOffset;
+	}
+
+	/**
+	 * Prints the best score of every generation.
+	 */
+	public void setLog(PrintStream log) {
+		_log = log;
+	}
+
+	/**
+	 * Scores one gain set on the tuner's episodes, with the given seed.
+	 */
+	public TuningScore evaluate(GainProfile profile, long seed) {
+		return evaluate(new GainProfile[] { profile }, seed)[0];
+	}
+
+	/**
+	 * @param start the gains the search starts from; its offset is the starting offset, or 0 if it has none
+	 */
+	public GainProfile tune(GainProfile start) {
+		if (start.getMode() != _mode) {
+			throw new IllegalArgumentException("Tuning " + _mode + ", not " + start.getMode());
+		}
+		float[] initial = start.getGains();
+		int n = initial.length;
+		double[] signs = new double[n];
+		double[] mean = new double[n];
+		double[] sigma = new double[n];
+		for (int i = 0; i < n; i++) {
+			signs[i] = (initial[i] < 0.0f) ? -1.0 : 1.0;
+			mean[i] = Math.log(Math.max(Math.abs(initial[i]), 1e-6f));
+			sigma[i] = INITIAL_SIGMA;
+		}
+		double offsetMean = start.hasOffset() ? start.getOffset() : 0.0;
+		double offsetSigma = INITIAL_OFFSET_SIGMA;
+
+		Random random = new Random(_seed);
+		GainProfile best = start;
+		TuningScore bestScore = evaluate(start, _seed);
+		log("start: %s, %s", start, bestScore);
+
+		GainProfile[] candidates = new GainProfile[_population];
+		double[][] logs = new double[_population][n];
+		double[] offsets = new double[_population];
+		for (int generation = 1; generation <= _generations; generation++) {
+			for (int c = 0; c < _population; c++) {
+				float[] gains = new float[n];
+				for (int i = 0; i < n; i++) {
+					logs[c][i] = mean[i] + sigma[i] * random.nextGaussian();
+					gains[i] = (float) (signs[i] * Math.exp(logs[c][i]));
+				}
+				offsets[c] = _tuneOffset ? offsetMean + offsetSigma * random.nextGaussian() : offsetMean;
+				candidates[c] = new GainProfile(_mode, gains, (_tuneOffset || start.hasOffset()) ? (float) offsets[c] : Float.NaN);
+			}
+			TuningScore[] scores = evaluate(candidates, _seed);
+
+			Integer[] order = new Integer[_population];
+			for (int c = 0; c < _population; c++) {
+				order[c] = c;
+			}
+			final TuningScore[] ranked = scores;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return ranked[a].compareTo(ranked[b]);
+				}
+			});
+			if (scores[order[0]].compareTo(bestScore) < 0) {
+				best = candidates[order[0]];
+				bestScore = scores[order[0]];
+			}
+
+			for (int i = 0; i < n; i++) {
+				double sum = 0.0;
+				for (int e = 0; e < _elites; e++) {
+					sum += logs[order[e]][i];
+				}
+				double eliteMean = sum / _elites;
+				double spread = 0.0;
+				for (int e = 0; e < _elites; e++) {
+					double d = logs[order[e]][i] - eliteMean;
+					spread += d * d;
+				}
+				mean[i] = eliteMean;
+				sigma[i] = Math.max(MIN_SIGMA, SMOOTHING * Math.sqrt(spread / _elites) + (1.0 - SMOOTHING) * sigma[i]);
+			}
+			if (_tuneOffset) {
+				double sum = 0.0;
+				for (int e = 0; e < _elites; e++) {
+					sum += offsets[order[e]];
+				}
+				double eliteMean = sum / _elites;
+				double spread = 0.0;
+				for (int e = 0; e < _elites; e++) {
+					double d = offsets[order[e]] - eliteMean;
+					spread += d * d;
+				}
+				offsetMean = eliteMean;
+				offsetSigma = Math.max(MIN_OFFSET_SIGMA, SMOOTHING * Math.sqrt(spread / _elites) + (1.0 - SMOOTHING) * offsetSigma);
+			}
+			log("generation %d: %s, %s", generation, candidates[order[0]], scores[order[0]]);
+		}
+		log("best: %s, %s", best, bestScore);
+		return best;
+	}
+
+	private TuningScore[] evaluate(GainProfile[] candidates, long seed) {
+		double[] initialTilts = new double[_episodes];
+		for (int e = 0; e < _episodes; e++) {
+			double tilt = 0.03 + 0.05 * e / Math.max(1, _episodes - 1);
+			initialTilts[e] = (e % 2 == 0) ? tilt : -tilt;
+		}
+		SimulationResult[][] results = new SimulationResult[candidates.length][_episodes];
+		_pool.invoke(new EpisodeTask(_model, candidates, initialTilts, _seconds, seed, results));
+
+		TuningScore[] scores = new TuningScore[candidates.length];
+		for (int c = 0; c < candidates.length; c++) {
+			scores[c] = new TuningScore();
+			for (int e = 0; e < _episodes; e++) {
+				scores[c].add(results[c][e], _seconds);
+			}
+		}
+		return scores;
+	}
+
+	private void log(String format, Object... args) {
+		if (_log != null) {
+			_log.println(String.format(format, args));
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.tune;
+
+import ioio.bar.control.ControllerMode;
+import ioio.bar.control.GainProfile;
+import ioio.bar.recorder.FlightLogReader;
+import ioio.bar.recorder.FlightRecord;
+import ioio.bar.sim.RobotModel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tunes the gains of one controller on the simulator and writes them as a gain profile for the app.
+ *
+ * <pre>
+ * java ioio.bar.tune.TunerMain PI|PID|LQR|CASCADE [--generations n] [--population n] [--elites n] [--episodes n]
+ *     [--seconds s] [--threads n] [--seed n] [--from gains.properties] [--bias degrees] [--log flight.log] [--offset]
+ *     [--out gains.properties]
+ * </pre>
+ *
+ * {@code --offset} searches the balance offset too. It needs a model with a sensor bias, given in degrees with
+ * {@code --bias} or estimated from a flight log with {@code --log}: the mean raw tilt of the fresh samples recorded
+ * while the robot stood balanced with no throttle. The profile is checked against the starting gains on episodes the
+ * search did not see before it is written.
+ */
+public class TunerMain {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TunerMain <PI|PID|LQR|CASCADE> [--generations n] [--population n] [--elites n] "
+					+ "[--episodes n] [--seconds s] [--threads n] [--seed n] [--from gains.properties] [--bias degrees] "
+					+ "[--log flight.log] [--offset] [--out gains.properties]");
+			System.exit(1);
+		}
+		ControllerMode mode = ControllerMode.fromName(args[0]);
+		if (!mode.name().equals(args[0])) {
+			throw new IllegalArgumentException("Unknown controller " + args[0]);
+		}
+		RobotModel model = new RobotModel();
+		int generations = 15;
+		int population = 48;
+		int elites = 8;
+		int episodes = 6;
+		double seconds = 4.0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1;
+		String fromName = null;
+		boolean tuneOffset = false;
+		String outputName = GainProfile.FILE_NAME;
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("--generations")) {
+				generations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--population")) {
+				population = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--elites")) {
+				elites = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--episodes")) {
+				episodes = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--seconds")) {
+				seconds = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("--threads")) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--seed")) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--from")) {
+				fromName = args[++i];
+			} else if (args[i].equals("--bias")) {
+				model.sensorBias = Math.toRadians(Double.parseDouble(args[++i]));
+			} else if (args[i].equals("--log")) {
+				model.sensorBias = estimateBias(new File(args[++i]));
+			} else if (args[i].equals("--offset")) {
+				tuneOffset = true;
+			} else if (args[i].equals("--out")) {
+				outputName = args[++i];
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		GainProfile start = GainProfile.getDefault(mode);
+		if (fromName != null) {
+			InputStream in = new FileInputStream(fromName);
+			try {
+				start = GainProfile.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			GainTuner tuner = new GainTuner(model, start.getMode(), pool);
+			tuner.setGenerations(generations);
+			tuner.setPopulation(population, elites);
+			tuner.setEpisodes(episodes, seconds);
+			tuner.setSeed(seed);
+			tuner.setTuneOffset(tuneOffset);
+			tuner.setLog(System.out);
+			System.out.printf("Tuning %s on %d threads, sensor bias %.2f degrees%n", start.getMode(), threads, Math.toDegrees(model.sensorBias));
+
+			long began = System.nanoTime();
+			GainProfile best = tuner.tune(start);
+			double elapsed = (System.nanoTime() - began) * 1e-9;
+			double simulated = (1.0 + (double) generations * population) * episodes * seconds;
+			System.out.printf("%.0fs simulated in %.1fs (%.0fx real time)%n", simulated, elapsed, simulated / elapsed);
+
+			long validation = seed + 1000003;
+			TuningScore before = tuner.evaluate(start, validation);
+			TuningScore after = tuner.evaluate(best, validation);
+			System.out.println("Validation, starting gains: " + before);
+			System.out.println("Validation, tuned gains:    " + after);
+			if (after.compareTo(before) > 0) {
+				System.out.println("The tuned gains do worse on new episodes; not writing " + outputName);
+				System.exit(2);
+			}
+
+			OutputStream out = new FileOutputStream(outputName);
+			try {
+				best.store(out, "Tuned on the simulator, " + after);
+			} finally {
+				out.close();
+			}
+			System.out.println("Wrote " + outputName + "; push it to the app with");
+			System.out.println("  adb push " + outputName + " /sdcard/Android/data/ioio.bar/files/" + GainProfile.FILE_NAME);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Mean raw tilt of the fresh samples recorded upright with no throttle, in radians: the tilt the sensor reads when
+	 * the robot is balanced.
+	 */
+	private static double estimateBias(File file) throws IOException {
+		FlightLogReader log = new FlightLogReader(file);
+		try {
+			FlightRecord record = new FlightRecord();
+			double sum = 0.0;
+			int count = 0;
+			for (int i = 0; i < log.getCount(); i++) {
+				log.read(i, record);
+				if (record.hasFlag(FlightRecord.FLAG_FRESH_SAMPLE) && record.hasFlag(FlightRecord.FLAG_UPRIGHT)
+						&& record.throttle == 0.0f) {
+					sum += record.rawTilt;
+					count++;
+				}
+			}
+			if (count == 0) {
+				throw new IOException(file + " has no balanced samples to estimate the bias from");
+			}
+			return sum / count;
+		} finally {
+			log.close();
+		}
+	}
+}
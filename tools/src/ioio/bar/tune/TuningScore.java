@@ -0,0 +1,85 @@
+/**
+ * Released under the MIT License (MIT).
+ *
+ * Copyright (c) 2014 Al Bencomo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package ioio.bar.tune;
+
+import ioio.bar.drivers.DRV8834;
+import ioio.bar.sim.SimulationResult;
+
+/**
+ * How well one set of gains did over a batch of simulated episodes; lower is better. Each episode that stays up costs
+ * its settling time in seconds, plus its overshoot as a fraction of the initial tilt, plus its mean step rate as a
+ * fraction of DRV8834.MAX_SPEED, plus its drift in m/s. A fall costs {@link #FALL_PENALTY} plus the seconds it fell
+ * short by, so any set that stays up beats any set that does not.
+ */
+public class TuningScore implements Comparable<TuningScore> {
+
+	public static final double FALL_PENALTY = 10.0;
+
+	private double _score = 0.0;
+	private int _episodes = 0;
+	private int _falls = 0;
+	private double _settlingTime = 0.0;
+	private double _overshoot = 0.0;
+	private double _stepRate = 0.0;
+	private double _drift = 0.0;
+
+	public void add(SimulationResult result, double seconds) {
+		_episodes++;
+		if (result.fell) {
+			_falls++;
+			_score += FALL_PENALTY + (seconds - result.duration);
+			return;
+		}
+		double drift = Math.abs(result.distance) / result.duration;
+		_score += result.settlingTime + result.overshoot + result.meanStepRate / DRV8834.MAX_SPEED + drift;
+		_settlingTime += result.settlingTime;
+		_overshoot += result.overshoot;
+		_stepRate += result.meanStepRate;
+		_drift += drift;
+	}
+
+	/**
+	 * Mean cost per episode.
+	 */
+	public double getScore() {
+		return _score / Math.max(1, _episodes);
+	}
+
+	public int getFalls() {
+		return _falls;
+	}
+
+	@Override
+	public int compareTo(TuningScore other) {
+		return Double.compare(getScore(), other.getScore());
+	}
+
+	@Override
+	public String toString() {
+		int balanced = Math.max(1, _episodes - _falls);
+		return String.format("score %.3f, %d/%d falls, settled in %.2fs, %.0f%% overshoot, %.0f steps/s, drift %.3f m/s",
+				getScore(), _falls, _episodes, _settlingTime / balanced, _overshoot / balanced * 100, _stepRate / balanced,
+				_drift / balanced);
+	}
+}